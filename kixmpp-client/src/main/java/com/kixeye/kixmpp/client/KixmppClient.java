@@ -48,6 +48,7 @@ import io.netty.handler.codec.http.websocketx.WebSocketVersion;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
@@ -84,6 +85,7 @@ import com.kixeye.kixmpp.client.module.error.ErrorKixmppClientModule;
 import com.kixeye.kixmpp.client.module.muc.MucKixmppClientModule;
 import com.kixeye.kixmpp.client.module.presence.PresenceKixmppClientModule;
 import com.kixeye.kixmpp.handler.KixmppEventEngine;
+import com.kixeye.kixmpp.handler.KixmppPriority;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
 import com.kixeye.kixmpp.interceptor.KixmppStanzaInterceptor;
 
@@ -203,6 +205,10 @@ public class KixmppClient implements AutoCloseable {
 		this.sslContext = sslContext;
 		this.eventEngine = eventEngine;
 		
+		// everything a client gets is addressed to it and has to be handled in the order the server sent it
+		this.eventEngine.setStanzaPriority("presence", KixmppPriority.CONTROL);
+		this.eventEngine.setStanzaPriority("message", KixmppPriority.CONTROL);
+		
 		// set modules to be registered
 		this.modulesToRegister.add(MucKixmppClientModule.class.getName());
 		this.modulesToRegister.add(PresenceKixmppClientModule.class.getName());
@@ -882,7 +888,8 @@ public class KixmppClient implements AutoCloseable {
 	                            ", content=" + response.content().toString(CharsetUtil.UTF_8) + ')');
 	        }
 
-	       ctx.fireChannelRead(msg);
+	        // the codec takes ownership of the frame, this handler releases its own reference
+	        ctx.fireChannelRead(ReferenceCountUtil.retain(msg));
 	    }
 	}
 	
@@ -0,0 +1,112 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Settings for the backpressure of a {@link com.kixeye.kixmpp.handler.KixmppEventEngine}. Stanza handler tasks are
+ * counted per channel they came from and per address they go to. A channel stops reading once its count, or the count
+ * of an address it has sent to, reaches the high-water mark, and starts again once they are at or below the low-water
+ * marks.
+ *
+ * @author ebahtijaragic
+ */
+public class KixmppBackpressureSettings {
+	public static final int DEFAULT_CHANNEL_HIGH_WATER_MARK = 1024;
+	public static final int DEFAULT_CHANNEL_LOW_WATER_MARK = 256;
+	public static final int DEFAULT_QUEUE_HIGH_WATER_MARK = 16 * 1024;
+	public static final int DEFAULT_QUEUE_LOW_WATER_MARK = 4 * 1024;
+
+	private volatile boolean enabled = false;
+	private volatile int channelHighWaterMark = DEFAULT_CHANNEL_HIGH_WATER_MARK;
+	private volatile int channelLowWaterMark = DEFAULT_CHANNEL_LOW_WATER_MARK;
+	private volatile int queueHighWaterMark = DEFAULT_QUEUE_HIGH_WATER_MARK;
+	private volatile int queueLowWaterMark = DEFAULT_QUEUE_LOW_WATER_MARK;
+
+	/**
+	 * @return <b>true</b> if channels stop reading while their stanzas pile up
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled <b>true</b> if channels should stop reading while their stanzas pile up
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return the number of pending tasks of a channel at which it stops reading
+	 */
+	public int getChannelHighWaterMark() {
+		return channelHighWaterMark;
+	}
+
+	/**
+	 * @return the number of pending tasks of a channel at which it reads again
+	 */
+	public int getChannelLowWaterMark() {
+		return channelLowWaterMark;
+	}
+
+	/**
+	 * @param lowWaterMark the number of pending tasks of a channel at which it reads again
+	 * @param highWaterMark the number of pending tasks of a channel at which it stops reading
+	 */
+	public void setChannelWaterMarks(int lowWaterMark, int highWaterMark) {
+		checkWaterMarks(lowWaterMark, highWaterMark);
+
+		this.channelLowWaterMark = lowWaterMark;
+		this.channelHighWaterMark = highWaterMark;
+	}
+
+	/**
+	 * @return the number of pending tasks of an address at which the channels that send to it stop reading
+	 */
+	public int getQueueHighWaterMark() {
+		return queueHighWaterMark;
+	}
+
+	/**
+	 * @return the number of pending tasks of an address at which the channels that send to it read again
+	 */
+	public int getQueueLowWaterMark() {
+		return queueLowWaterMark;
+	}
+
+	/**
+	 * @param lowWaterMark the number of pending tasks of an address at which the channels that send to it read again
+	 * @param highWaterMark the number of pending tasks of an address at which the channels that send to it stop reading
+	 */
+	public void setQueueWaterMarks(int lowWaterMark, int highWaterMark) {
+		checkWaterMarks(lowWaterMark, highWaterMark);
+
+		this.queueLowWaterMark = lowWaterMark;
+		this.queueHighWaterMark = highWaterMark;
+	}
+
+	private static void checkWaterMarks(int lowWaterMark, int highWaterMark) {
+		if (lowWaterMark < 0 || highWaterMark <= lowWaterMark) {
+			throw new IllegalArgumentException("Water marks must satisfy 0 <= low < high: " + lowWaterMark + ", " + highWaterMark);
+		}
+	}
+}
@@ -22,24 +22,34 @@ package com.kixeye.kixmpp;
 
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.FastThreadLocal;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
 
 import org.jdom2.Element;
-import org.jdom2.output.XMLOutputter;
+import org.jdom2.JDOMException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.aalto.AsyncInputFeeder;
 import com.fasterxml.aalto.AsyncXMLStreamReader;
-import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.kixeye.kixmpp.jdom.ByteBufElementWriter;
 import com.kixeye.kixmpp.jdom.StAXElementBuilder;
+import com.kixeye.kixmpp.stanza.CompactStanza;
+import com.kixeye.kixmpp.stanza.StAXCompactStanzaBuilder;
 
 /**
  * An XMPP codec for the client.
@@ -48,14 +58,58 @@ import com.kixeye.kixmpp.jdom.StAXElementBuilder;
  */
 public class KixmppCodec extends ByteToMessageCodec<Object> {
 	private static final int STANZA_ELEMENT_DEPTH = 2;
+	
+	private static final String STREAMS_NAMESPACE = "http://etherx.jabber.org/streams";
+	
+	private static final byte[] XML_DECLARATION_START = "<?xml".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] STREAM_START = "<stream:stream".getBytes(StandardCharsets.UTF_8);
 
+	private static final String[] NO_NAMESPACES = new String[0];
+	
 	private static final Logger logger  = LoggerFactory.getLogger(KixmppCodec.class);
+	
+	private static final int FEED_SCRATCH_SIZE = 8192;
+	
+	static final FastThreadLocal<byte[]> FEED_SCRATCH = new FastThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() throws Exception {
+			return new byte[FEED_SCRATCH_SIZE];
+		}
+	};
 
-	private StAXElementBuilder elementBuilder = null;
+	private final StAXElementBuilder elementBuilder = new StAXElementBuilder(true);
+	private final StAXCompactStanzaBuilder compactStanzaBuilder;
+	private final ByteBufElementWriter elementWriter = new ByteBufElementWriter();
 	
-	private InputFactoryImpl inputFactory = new InputFactoryImpl();
-	private AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
-	private AsyncInputFeeder asyncInputFeeder = streamReader.getInputFeeder();
+	private final int maxStanzaSize;
+	private final int maxStanzaDepth;
+	private final int maxAttributeCount;
+	private final boolean hibernate;
+	private final boolean batchStanzas;
+	
+	private final XMLStreamReaderConfiguration readerConfiguration;
+	
+	private AsyncXMLStreamReader streamReader;
+	private AsyncInputFeeder asyncInputFeeder;
+	
+	private State state;
+	private int stanzaDepth;
+	private boolean stanzaOpen;
+	private byte[] pendingInput;
+	
+	// reader offsets are ints that wrap around on long streams, so only their differences are used
+	private int fedBytes;
+	private int stanzaStartOffset;
+	
+	// where the current chunk starts in the array it was fed from, see getStreamOffset()
+	private int feedOffset;
+	
+	// all that is kept of a hibernated stream: the stream element and its namespace bindings as prefix/uri pairs
+	private String streamName;
+	private String[] streamNamespaces = NO_NAMESPACES;
+	
+	// true if everything fed since the last stanza ended is whitespace, so the reader holds no partial token
+	private boolean betweenStanzas;
 	
 	public enum XMLStreamReaderConfiguration {
 		SPEED,
@@ -63,13 +117,27 @@ public class KixmppCodec extends ByteToMessageCodec<Object> {
 		ROUND_TRIPPING,
 		CONVENIENCE,
 		XML_CONFORMANCE
+	}
+	
+	/**
+	 * The states of the inbound stream.
+	 */
+	private enum State {
+		/** waiting for the stream header of a new document */
+		STREAM_START,
+		/** decoding the stanzas of a stream */
+		STANZAS,
+		/** the reader has been released while the stream was idle, a new one is created with the next input */
+		HIBERNATING,
+		/** the stream has ended or failed, the rest of the input is ignored */
+		CLOSED
 	}
 	
 	/**
 	 * Creates a new codec and optimizes the parser for speed.
 	 */
 	public KixmppCodec() {
-		this(XMLStreamReaderConfiguration.SPEED);
+		this(new KixmppCodecSettings());
 	}
 	
 	/**
@@ -78,26 +146,47 @@ public class KixmppCodec extends ByteToMessageCodec<Object> {
 	 * @param configuration tells the codec how to optimize the XMLStreamReader
 	 */
 	public KixmppCodec(XMLStreamReaderConfiguration configuration) {
-		switch (configuration) {
-			case CONVENIENCE:
-				inputFactory.configureForConvenience();
-				break;
-			case LOW_MEMORY_USAGE:
-				inputFactory.configureForLowMemUsage();
-				break;
-			case ROUND_TRIPPING:
-				inputFactory.configureForRoundTripping();
-				break;
-			case SPEED:
-				inputFactory.configureForSpeed();
-				break;
-			case XML_CONFORMANCE:
-				inputFactory.configureForXmlConformance();
-				break;
-		}
+		this(newSettings(configuration));
+	}
+	
+	/**
+	 * Creates a new codec from the given settings.
+	 * 
+	 * @param settings
+	 */
+	public KixmppCodec(KixmppCodecSettings settings) {
+		this.compactStanzaBuilder = settings.isCompactStanzas() ? new StAXCompactStanzaBuilder() : null;
+		this.maxStanzaSize = limit(settings.getMaxStanzaSize());
+		this.maxStanzaDepth = limit(settings.getMaxStanzaDepth());
+		this.maxAttributeCount = limit(settings.getMaxAttributeCount());
+		this.hibernate = settings.getHibernateAfterMillis() > 0;
+		this.batchStanzas = settings.isBatchStanzas();
+		
+		this.readerConfiguration = settings.getReaderConfiguration();
+		
+		resetStreamReader();
 	}
 	
 	/**
+	 * @param configuration
+	 * @return default settings with the given reader configuration
+	 */
+	private static KixmppCodecSettings newSettings(XMLStreamReaderConfiguration configuration) {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setReaderConfiguration(configuration);
+		
+		return settings;
+	}
+	
+	/**
+	 * @param limit
+	 * @return the limit, or {@link Integer#MAX_VALUE} if there is no limit
+	 */
+	private static int limit(int limit) {
+		return limit > 0 ? limit : Integer.MAX_VALUE;
+	}
+	
+	/**
 	 * @see io.netty.handler.codec.ByteToMessageCodec#decode(io.netty.channel.ChannelHandlerContext, io.netty.buffer.ByteBuf, java.util.List)
 	 */
 	@Override
@@ -106,90 +195,542 @@ public class KixmppCodec extends ByteToMessageCodec<Object> {
 			logger.debug("Received: [{}]", in.toString(StandardCharsets.UTF_8));
 		}
 		
-		int retryCount = 0;
-		Exception thrownException = null;
-		
-		// feed the data into the async xml input feeded
-		byte[] data = new byte[in.readableBytes()];
-		in.readBytes(data);
+		int readerIndex = in.readerIndex();
+		int length = in.readableBytes();
+		int outStart = out.size();
 		
-		if (streamReader != null) {
-			while (retryCount < 2) {
-				try {
-					asyncInputFeeder.feedInput(data, 0, data.length);
+		// the reader consumes everything it is fed so mark it all as read up front
+		in.skipBytes(length);
+		
+		if (in.hasArray()) {
+			// feed the heap buffer's backing array directly
+			feed(ctx, in.array(), in.arrayOffset() + readerIndex, length, out);
+		} else if (in.nioBufferCount() > 1) {
+			// feed composite buffers one component at a time
+			for (ByteBuffer component : in.nioBuffers(readerIndex, length)) {
+				if (component.hasArray()) {
+					feed(ctx, component.array(), component.arrayOffset() + component.position(), component.remaining(), out);
+				} else {
+					feedDirect(ctx, component, out);
+				}
+			}
+		} else {
+			feedDirect(ctx, in.nioBuffer(readerIndex, length), out);
+		}
+		
+		if (batchStanzas) {
+			batchStanzas(out, outStart);
+		}
+	}
+	
+	/**
+	 * Replaces every run of two or more stanzas in the decoded messages with a {@link KixmppStanzaBatch}, so that
+	 * they are dispatched together. Stream starts and ends stay where they are.
+	 * 
+	 * @param out
+	 * @param start the first message decoded by this read
+	 */
+	private static void batchStanzas(List<Object> out, int start) {
+		int end = out.size();
+		int write = start;
+		
+		for (int read = start; read < end;) {
+			int runEnd = read;
+			
+			while (runEnd < end && isStanza(out.get(runEnd))) {
+				runEnd++;
+			}
+			
+			if (runEnd - read > 1) {
+				out.set(write++, new KixmppStanzaBatch(new ArrayList<>(out.subList(read, runEnd))));
+				
+				read = runEnd;
+			} else {
+				out.set(write++, out.get(read++));
+			}
+		}
+		
+		if (write < end) {
+			out.subList(write, end).clear();
+		}
+	}
+	
+	/**
+	 * @param msg
+	 * @return <b>true</b> if the decoded message is a stanza
+	 */
+	private static boolean isStanza(Object msg) {
+		return msg instanceof Element || msg instanceof CompactStanza;
+	}
+	
+	/**
+	 * Feeds a buffer without an accessible backing array through a per-thread scratch array.
+	 * 
+	 * @param ctx
+	 * @param buffer
+	 * @param out
+	 * @throws Exception
+	 */
+	private void feedDirect(ChannelHandlerContext ctx, ByteBuffer buffer, List<Object> out) throws Exception {
+		byte[] scratch = FEED_SCRATCH.get();
+		
+		while (buffer.hasRemaining() && state != State.CLOSED) {
+			int length = Math.min(scratch.length, buffer.remaining());
+			
+			buffer.get(scratch, 0, length);
+			
+			feed(ctx, scratch, 0, length, out);
+		}
+	}
+	
+	/**
+	 * Feeds a chunk of data into the async reader and processes all the events it completes.
+	 * 
+	 * <p>The reader always consumes the whole chunk before asking for more input, so the array can be reused once this returns.</p>
+	 * 
+	 * <p>A stream restart (after STARTTLS or SASL) is a new XML document. It is recognized at the start of a chunk that
+	 * arrives between stanzas, and the rest of the stream is fed to a new reader. Input that is too short to tell is
+	 * held back until more arrives.</p>
+	 * 
+	 * @param ctx
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param out
+	 * @throws Exception
+	 */
+	private void feed(ChannelHandlerContext ctx, byte[] data, int offset, int length, List<Object> out) throws Exception {
+		if (state == State.CLOSED) {
+			return;
+		}
+		
+		if (state == State.HIBERNATING) {
+			rehydrate();
+		}
+		
+		if (pendingInput != null) {
+			byte[] input = Arrays.copyOf(pendingInput, pendingInput.length + length);
+			System.arraycopy(data, offset, input, pendingInput.length, length);
+			
+			pendingInput = null;
+			
+			data = input;
+			offset = 0;
+			length = input.length;
+		}
+		
+		if (state == State.STANZAS && !stanzaOpen) {
+			int start = skipWhitespace(data, offset, offset + length);
+			int remaining = offset + length - start;
+			
+			if (startsWith(data, start, remaining, XML_DECLARATION_START) || startsWith(data, start, remaining, STREAM_START)) {
+				resetStreamReader();
+				
+				offset = start;
+				length = remaining;
+			} else if (remaining > 0 && (isPrefix(data, start, remaining, XML_DECLARATION_START) || isPrefix(data, start, remaining, STREAM_START))) {
+				pendingInput = Arrays.copyOfRange(data, offset, offset + length);
+				
+				return;
+			}
+		}
+		
+		try {
+			feedOffset = offset;
+			asyncInputFeeder.feedInput(data, offset, length);
+			fedBytes += length;
+			
+			processEvents(ctx, out);
+			
+			if (hibernate && state == State.STANZAS) {
+				trackTrailingInput(data, offset, length);
+			}
+		} catch (XMLStreamException | JDOMException e) {
+			logger.debug("Closing [{}], received malformed XML: {}", ctx.channel().remoteAddress(), e.getMessage());
+			
+			streamError(ctx, KixmppEncodedFrames.STREAM_ERROR_NOT_WELL_FORMED);
+		}
+	}
+	
+	/**
+	 * Processes all the events that the reader can complete with the input it has been fed.
+	 * 
+	 * @param ctx
+	 * @param out
+	 * @throws XMLStreamException
+	 * @throws JDOMException
+	 */
+	private void processEvents(ChannelHandlerContext ctx, List<Object> out) throws XMLStreamException, JDOMException {
+		int event = -1;
+		
+		while (isValidEvent(event = streamReader.next())) {
+			int depth = streamReader.getDepth();
+			
+			// handle stream start/end
+			if (depth == stanzaDepth - 1) {
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					state = State.STANZAS;
+					stanzaStartOffset = getStreamOffset();
 					
-					int event = -1;
+					if (hibernate) {
+						recordStreamElement(false);
+					}
+					
+					out.add(new KixmppStreamStart(null, true));
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					out.add(new KixmppStreamEnd());
 					
-					while (isValidEvent(event = streamReader.next())) {
-						// handle stream start/end
-						if (streamReader.getDepth() == STANZA_ELEMENT_DEPTH - 1) {
-							if (event == XMLStreamConstants.END_ELEMENT) {
-								out.add(new KixmppStreamEnd());
-
-								asyncInputFeeder.endOfInput();
-								streamReader.close();
-								
-								streamReader = null;
-								asyncInputFeeder = null;
-								
-								break;
-							} else if (event == XMLStreamConstants.START_ELEMENT) {
-								StAXElementBuilder streamElementBuilder = new StAXElementBuilder(true);
-								
-								streamElementBuilder.process(streamReader);
-			
-								out.add(new KixmppStreamStart(null, true));
-							}
-						// only handle events that have element depth of 2 and above (everything under <stream:stream>..)
-						} else if (streamReader.getDepth() >= STANZA_ELEMENT_DEPTH) {
-							// if this is the beginning of the element and this is at stanza depth
-							if (event == XMLStreamConstants.START_ELEMENT && streamReader.getDepth() == STANZA_ELEMENT_DEPTH) {
-								elementBuilder = new StAXElementBuilder(true);
-								elementBuilder.process(streamReader);
-	
-								// get the constructed element
-								Element element = elementBuilder.getElement();
-								
-								if ("stream:stream".equals(element.getQualifiedName())) {
-									throw new RuntimeException("Starting a new stream.");
-								}
-							// if this is the ending of the element and this is at stanza depth
-						    } else if (event == XMLStreamConstants.END_ELEMENT && streamReader.getDepth() == STANZA_ELEMENT_DEPTH) {
-								elementBuilder.process(streamReader);
-	
-								// get the constructed element
-								Element element = elementBuilder.getElement();
-								
-					    		out.add(element);
-					    
-					    	// just process the event
-						    } else {
-								elementBuilder.process(streamReader);
-						    }
-						}
+					closeStreamReader();
+					
+					return;
+				}
+			// only handle events that have element depth of stanzas and above (everything under <stream:stream>..)
+			} else if (depth < stanzaDepth) {
+				continue;
+			// if this is the beginning of the element and this is at stanza depth
+			} else if (event == XMLStreamConstants.START_ELEMENT && depth == stanzaDepth) {
+				if ("stream".equals(streamReader.getLocalName()) && STREAMS_NAMESPACE.equals(streamReader.getNamespaceURI())) {
+					// a restart that did not start a new chunk is nested in the old stream
+					stanzaDepth++;
+					stanzaStartOffset = getStreamOffset();
+					
+					if (hibernate) {
+						recordStreamElement(true);
 					}
 					
-					break;
-				} catch (Exception e) {
-					retryCount++;
+					out.add(new KixmppStreamStart(null, true));
 					
-					logger.info("Attempting to recover from impropper XML: " + e.getMessage());
+					continue;
+				}
+				
+				if (exceedsElementLimits()) {
+					streamError(ctx, KixmppEncodedFrames.STREAM_ERROR_POLICY_VIOLATION);
+					return;
+				}
+				
+				stanzaOpen = true;
+				
+				if (compactStanzaBuilder != null) {
+					compactStanzaBuilder.reset();
+					compactStanzaBuilder.process(streamReader);
+				} else {
+					elementBuilder.reset();
+					elementBuilder.process(streamReader);
+				}
+			// if this is the ending of the element and this is at stanza depth
+			} else if (event == XMLStreamConstants.END_ELEMENT && depth == stanzaDepth) {
+				int stanzaEndOffset = getStreamOffset();
+				
+				if (stanzaEndOffset - stanzaStartOffset > maxStanzaSize) {
+					streamError(ctx, KixmppEncodedFrames.STREAM_ERROR_POLICY_VIOLATION);
+					return;
+				}
+				
+				stanzaStartOffset = stanzaEndOffset;
+				stanzaOpen = false;
+				
+				if (compactStanzaBuilder != null) {
+					compactStanzaBuilder.process(streamReader);
 					
-					thrownException = e;
+					out.add(compactStanzaBuilder.getStanza());
 					
-					try {
-						streamReader.close();
-					} finally {
-						streamReader = inputFactory.createAsyncXMLStreamReader();
-						asyncInputFeeder = streamReader.getInputFeeder();
-					}
+					compactStanzaBuilder.reset();
+				} else {
+					elementBuilder.process(streamReader);
+					
+					out.add(elementBuilder.getElement());
+					
+					// don't hold on to the element once it has been handed off
+					elementBuilder.reset();
 				}
+			} else if (event == XMLStreamConstants.START_ELEMENT && exceedsElementLimits()) {
+				streamError(ctx, KixmppEncodedFrames.STREAM_ERROR_POLICY_VIOLATION);
+				return;
+			// just process the event
+			} else if (compactStanzaBuilder != null) {
+				compactStanzaBuilder.process(streamReader);
+			} else {
+				elementBuilder.process(streamReader);
 			}
+		}
+		
+		// everything fed since the last stanza ended is buffered by the reader or the builder
+		if (fedBytes - stanzaStartOffset > maxStanzaSize) {
+			streamError(ctx, KixmppEncodedFrames.STREAM_ERROR_POLICY_VIOLATION);
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes of the stream that the reader has consumed, on the same scale as the bytes fed. The
+	 * reader's location is the index into the array of the current chunk plus the length of the chunks before it, so
+	 * the chunk's own offset in its array is taken off again.
+	 * 
+	 * @return
+	 */
+	private int getStreamOffset() {
+		return streamReader.getLocation().getCharacterOffset() - feedOffset;
+	}
+	
+	/**
+	 * Checks the element that the reader just started against the depth and attribute limits.
+	 * 
+	 * @return <b>true</b> if the element exceeds a limit
+	 */
+	private boolean exceedsElementLimits() {
+		return streamReader.getDepth() - stanzaDepth + 1 > maxStanzaDepth ||
+				streamReader.getAttributeCount() + streamReader.getNamespaceCount() > maxAttributeCount;
+	}
+	
+	/**
+	 * Remembers the name and namespace declarations of the stream element that the reader just started.
+	 * 
+	 * @param nested <b>true</b> if the element is a restart nested in the old stream, whose bindings are still in scope
+	 */
+	private void recordStreamElement(boolean nested) {
+		streamName = KixmppSymbols.qualifiedName(streamReader.getPrefix(), streamReader.getLocalName());
+		
+		String[] namespaces = nested ? streamNamespaces : NO_NAMESPACES;
+		
+		for (int i = 0, count = streamReader.getNamespaceCount(); i < count; i++) {
+			String prefix = streamReader.getNamespacePrefix(i);
 			
-			if (retryCount > 1) {
-				throw thrownException;
+			namespaces = bindNamespace(namespaces, prefix == null ? "" : prefix, streamReader.getNamespaceURI(i));
+		}
+		
+		streamNamespaces = namespaces;
+	}
+	
+	/**
+	 * @param namespaces
+	 * @param prefix
+	 * @param uri
+	 * @return the prefix/uri pairs with the prefix bound to the uri
+	 */
+	private static String[] bindNamespace(String[] namespaces, String prefix, String uri) {
+		for (int i = 0; i < namespaces.length; i += 2) {
+			if (namespaces[i].equals(prefix)) {
+				namespaces[i + 1] = uri;
+				
+				return namespaces;
 			}
-		}
+		}
+		
+		namespaces = Arrays.copyOf(namespaces, namespaces.length + 2);
+		namespaces[namespaces.length - 2] = prefix;
+		namespaces[namespaces.length - 1] = uri;
+		
+		return namespaces;
+	}
+	
+	/**
+	 * Works out whether the reader is between stanzas after a chunk has been fed: everything after the end of the
+	 * last stanza (or the stream element) has to be whitespace. Only the tail of the chunk is looked at.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	private void trackTrailingInput(byte[] data, int offset, int length) {
+		int end = offset + length;
+		int trailing = fedBytes - stanzaStartOffset;
+		
+		if (stanzaOpen) {
+			betweenStanzas = false;
+		} else if (trailing > length) {
+			betweenStanzas = betweenStanzas && skipWhitespace(data, offset, end) == end;
+		} else {
+			betweenStanzas = skipWhitespace(data, end - trailing, end) == end;
+		}
+	}
+	
+	/**
+	 * Hibernates the stream when the {@link IdleStateHandler} in front of the codec reports that no input has arrived
+	 * for a while.
+	 * 
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#userEventTriggered(io.netty.channel.ChannelHandlerContext, java.lang.Object)
+	 */
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (hibernate && evt instanceof IdleStateEvent && ((IdleStateEvent)evt).state() != IdleState.WRITER_IDLE) {
+			hibernate();
+		}
+		
+		super.userEventTriggered(ctx, evt);
+	}
+	
+	/**
+	 * Releases the reader of a stream that is between stanzas, along with its buffers. A stream that is in the
+	 * middle of a stanza or a token stays as it is.
+	 */
+	private void hibernate() {
+		if (state != State.STANZAS || stanzaOpen || pendingInput != null || !betweenStanzas) {
+			return;
+		}
+		
+		closeStreamReader();
+		
+		state = State.HIBERNATING;
+	}
+	
+	/**
+	 * Creates a new reader for a hibernated stream and feeds it the stream element again, so that it expects stanzas
+	 * with the same namespace bindings as before.
+	 * 
+	 * @throws XMLStreamException
+	 */
+	private void rehydrate() throws XMLStreamException {
+		StringBuilder header = new StringBuilder(128).append('<').append(streamName);
+		
+		for (int i = 0; i < streamNamespaces.length; i += 2) {
+			header.append(" xmlns");
+			
+			if (!streamNamespaces[i].isEmpty()) {
+				header.append(':').append(streamNamespaces[i]);
+			}
+			
+			header.append("='").append(escapeAttribute(streamNamespaces[i + 1])).append('\'');
+		}
+		
+		byte[] data = header.append('>').toString().getBytes(StandardCharsets.UTF_8);
+		
+		resetStreamReader();
+		
+		asyncInputFeeder.feedInput(data, 0, data.length);
+		
+		while (isValidEvent(streamReader.next())) {
+			// skip the document and stream start
+		}
+		
+		state = State.STANZAS;
+		fedBytes = data.length;
+		stanzaStartOffset = fedBytes;
+		betweenStanzas = true;
+	}
+	
+	/**
+	 * @return <b>true</b> if the reader has been released until the next input arrives
+	 */
+	boolean isHibernating() {
+		return state == State.HIBERNATING;
+	}
+	
+	/**
+	 * Starts a new document. Closing the old reader hands the names it has seen back to the shared factory, so the new
+	 * reader starts out with them instead of allocating them again.
+	 */
+	private void resetStreamReader() {
+		if (streamReader != null) {
+			closeStreamReader();
+		}
+		
+		streamReader = KixmppSymbols.getInputFactory(readerConfiguration).createAsyncXMLStreamReader();
+		asyncInputFeeder = streamReader.getInputFeeder();
+		
+		state = State.STREAM_START;
+		stanzaDepth = STANZA_ELEMENT_DEPTH;
+		stanzaOpen = false;
+		fedBytes = 0;
+		stanzaStartOffset = 0;
+		feedOffset = 0;
+		betweenStanzas = false;
+	}
+	
+	/**
+	 * Closes the reader and ignores the rest of the input.
+	 */
+	private void closeStreamReader() {
+		state = State.CLOSED;
+		
+		try {
+			streamReader.close();
+		} catch (XMLStreamException e) {
+			// the reader is dropped either way
+		}
+		
+		streamReader = null;
+		asyncInputFeeder = null;
+	}
+	
+	/**
+	 * Drops the stanza that is being built, sends a stream error and closes the stream. Nothing else is decoded
+	 * from this stream.
+	 * 
+	 * @param ctx
+	 * @param error
+	 */
+	private void streamError(ChannelHandlerContext ctx, ByteBuf error) {
+		elementBuilder.reset();
+		
+		if (compactStanzaBuilder != null) {
+			compactStanzaBuilder.reset();
+		}
+		
+		closeStreamReader();
+		
+		// written past this codec's encoder, so the frames go out already encoded
+		ctx.write(error.duplicate());
+		ctx.writeAndFlush(KixmppEncodedFrames.STREAM_END.duplicate()).addListener(ChannelFutureListener.CLOSE);
+	}
+	
+	/**
+	 * @param value
+	 * @return the value escaped for a single quoted attribute
+	 */
+	private static String escapeAttribute(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace("'", "&apos;");
+	}
+	
+	/**
+	 * @param data
+	 * @param index
+	 * @param end
+	 * @return the index of the first byte that is not whitespace
+	 */
+	private static int skipWhitespace(byte[] data, int index, int end) {
+		while (index < end && (data[index] == ' ' || data[index] == '\t' || data[index] == '\r' || data[index] == '\n')) {
+			index++;
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * @param data
+	 * @param index
+	 * @param length
+	 * @param prefix
+	 * @return <b>true</b> if the data starts with the prefix
+	 */
+	private static boolean startsWith(byte[] data, int index, int length, byte[] prefix) {
+		return length >= prefix.length && regionMatches(data, index, prefix, prefix.length);
+	}
+	
+	/**
+	 * @param data
+	 * @param index
+	 * @param length
+	 * @param value
+	 * @return <b>true</b> if the data is shorter than the value and the value starts with it
+	 */
+	private static boolean isPrefix(byte[] data, int index, int length, byte[] value) {
+		return length < value.length && regionMatches(data, index, value, length);
+	}
+	
+	/**
+	 * @param data
+	 * @param index
+	 * @param value
+	 * @param length
+	 * @return <b>true</b> if the first bytes of the value are at the index of the data
+	 */
+	private static boolean regionMatches(byte[] data, int index, byte[] value, int length) {
+		for (int i = 0; i < length; i++) {
+			if (data[index + i] != value[i]) {
+				return false;
+			}
+		}
+		
+		return true;
 	}
 	
 	/**
@@ -206,31 +747,17 @@ public class KixmppCodec extends ByteToMessageCodec<Object> {
 	@Override
 	protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
 		if (msg instanceof Element) {
-			new XMLOutputter().output((Element)msg, new ByteBufOutputStream(out));
+			elementWriter.write((Element)msg, out);
 		} else if (msg instanceof KixmppStreamStart) {
-			KixmppStreamStart streamStart = (KixmppStreamStart)msg;
-			if (streamStart.doesIncludeXmlHeader()) {
-				out.writeBytes("<?xml version='1.0' encoding='UTF-8'?>".getBytes(StandardCharsets.UTF_8));
-			}
-			out.writeBytes("<stream:stream ".getBytes(StandardCharsets.UTF_8));
-			if (streamStart.getId() != null) {
-				out.writeBytes(String.format("id=\"%s\" ", streamStart.getId()).getBytes(StandardCharsets.UTF_8));
-			}
-			if (streamStart.getFrom() != null) {
-				out.writeBytes(String.format("from=\"%s\" ", streamStart.getFrom().getFullJid()).getBytes(StandardCharsets.UTF_8));
-			}
-			if (streamStart.getTo() != null) {
-				out.writeBytes(String.format("to=\"%s\" ", streamStart.getTo().getFullJid()).getBytes(StandardCharsets.UTF_8));
-			}
-			out.writeBytes("version=\"1.0\" xmlns=\"jabber:client\" xmlns:stream=\"http://etherx.jabber.org/streams\">".getBytes(StandardCharsets.UTF_8));
+			KixmppEncodedFrames.writeStreamStart((KixmppStreamStart)msg, out);
 		} else if (msg instanceof KixmppStreamEnd) {
-			out.writeBytes("</stream:stream>".getBytes(StandardCharsets.UTF_8));
+			KixmppEncodedFrames.write(KixmppEncodedFrames.STREAM_END, out);
 		} else if (msg instanceof String) {
 			out.writeBytes(((String)msg).getBytes(StandardCharsets.UTF_8));
 		} else if (msg instanceof ByteBuf) {
 			ByteBuf buf = (ByteBuf)msg;
 			
-			out.writeBytes(buf, 0, buf.readableBytes());
+			out.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
 		}
 		
 		if (logger.isDebugEnabled()) {
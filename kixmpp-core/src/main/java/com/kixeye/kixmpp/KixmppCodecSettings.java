@@ -0,0 +1,157 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.kixeye.kixmpp.KixmppCodec.XMLStreamReaderConfiguration;
+import com.kixeye.kixmpp.stanza.CompactStanza;
+
+/**
+ * Settings for {@link KixmppCodec}. A codec copies the settings when it is created, so changes only affect new codecs.
+ *
+ * @author ebahtijaragic
+ */
+public class KixmppCodecSettings {
+	public static final int DEFAULT_MAX_STANZA_SIZE = 256 * 1024;
+	public static final int DEFAULT_MAX_STANZA_DEPTH = 32;
+	public static final int DEFAULT_MAX_ATTRIBUTE_COUNT = 64;
+
+	private XMLStreamReaderConfiguration readerConfiguration = XMLStreamReaderConfiguration.SPEED;
+	private boolean compactStanzas = false;
+	private int maxStanzaSize = DEFAULT_MAX_STANZA_SIZE;
+	private int maxStanzaDepth = DEFAULT_MAX_STANZA_DEPTH;
+	private int maxAttributeCount = DEFAULT_MAX_ATTRIBUTE_COUNT;
+	private long hibernateAfterMillis = 0;
+	private boolean batchStanzas = false;
+
+	public KixmppCodecSettings() {
+	}
+
+	public KixmppCodecSettings(KixmppCodecSettings settings) {
+		this.readerConfiguration = settings.readerConfiguration;
+		this.compactStanzas = settings.compactStanzas;
+		this.maxStanzaSize = settings.maxStanzaSize;
+		this.maxStanzaDepth = settings.maxStanzaDepth;
+		this.maxAttributeCount = settings.maxAttributeCount;
+		this.hibernateAfterMillis = settings.hibernateAfterMillis;
+		this.batchStanzas = settings.batchStanzas;
+	}
+
+	/**
+	 * @return tells the codec how to optimize the XMLStreamReader
+	 */
+	public XMLStreamReaderConfiguration getReaderConfiguration() {
+		return readerConfiguration;
+	}
+
+	/**
+	 * @param readerConfiguration tells the codec how to optimize the XMLStreamReader
+	 */
+	public void setReaderConfiguration(XMLStreamReaderConfiguration readerConfiguration) {
+		this.readerConfiguration = readerConfiguration;
+	}
+
+	/**
+	 * @return <b>true</b> if the codec decodes stanzas into {@link CompactStanza}s instead of JDOM elements
+	 */
+	public boolean isCompactStanzas() {
+		return compactStanzas;
+	}
+
+	/**
+	 * @param compactStanzas <b>true</b> if the codec should decode stanzas into {@link CompactStanza}s instead of JDOM elements
+	 */
+	public void setCompactStanzas(boolean compactStanzas) {
+		this.compactStanzas = compactStanzas;
+	}
+
+	/**
+	 * @return the maximum number of bytes in a stanza, 0 or less for no limit
+	 */
+	public int getMaxStanzaSize() {
+		return maxStanzaSize;
+	}
+
+	/**
+	 * @param maxStanzaSize the maximum number of bytes in a stanza, 0 or less for no limit
+	 */
+	public void setMaxStanzaSize(int maxStanzaSize) {
+		this.maxStanzaSize = maxStanzaSize;
+	}
+
+	/**
+	 * @return the maximum element nesting depth of a stanza, the stanza element itself is at depth 1; 0 or less for no limit
+	 */
+	public int getMaxStanzaDepth() {
+		return maxStanzaDepth;
+	}
+
+	/**
+	 * @param maxStanzaDepth the maximum element nesting depth of a stanza, the stanza element itself is at depth 1; 0 or less for no limit
+	 */
+	public void setMaxStanzaDepth(int maxStanzaDepth) {
+		this.maxStanzaDepth = maxStanzaDepth;
+	}
+
+	/**
+	 * @return the maximum number of attributes and namespace declarations on any element of a stanza, 0 or less for no limit
+	 */
+	public int getMaxAttributeCount() {
+		return maxAttributeCount;
+	}
+
+	/**
+	 * @param maxAttributeCount the maximum number of attributes and namespace declarations on any element of a stanza, 0 or less for no limit
+	 */
+	public void setMaxAttributeCount(int maxAttributeCount) {
+		this.maxAttributeCount = maxAttributeCount;
+	}
+
+	/**
+	 * @return how long a stream can go without input before the codec releases its parser, 0 or less to never release it
+	 */
+	public long getHibernateAfterMillis() {
+		return hibernateAfterMillis;
+	}
+
+	/**
+	 * Idle streams only keep their depth and namespace bindings, the parser is created again when the next byte arrives.
+	 * The quiet period is detected by an {@link io.netty.handler.timeout.IdleStateHandler} in front of the codec.
+	 * 
+	 * @param hibernateAfterMillis how long a stream can go without input before the codec releases its parser, 0 or less to never release it
+	 */
+	public void setHibernateAfterMillis(long hibernateAfterMillis) {
+		this.hibernateAfterMillis = hibernateAfterMillis;
+	}
+
+	/**
+	 * @return <b>true</b> if stanzas that one read decodes back to back are passed on as a single {@link KixmppStanzaBatch}
+	 */
+	public boolean isBatchStanzas() {
+		return batchStanzas;
+	}
+
+	/**
+	 * @param batchStanzas <b>true</b> if stanzas that one read decodes back to back should be passed on as a single {@link KixmppStanzaBatch}
+	 */
+	public void setBatchStanzas(boolean batchStanzas) {
+		this.batchStanzas = batchStanzas;
+	}
+}
@@ -0,0 +1,159 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Element;
+
+import com.kixeye.kixmpp.jdom.ByteBufElementWriter;
+
+/**
+ * Pre-encoded frames and frame parts that never change. The buffers are read-only and can not be released, write a
+ * {@link ByteBuf#duplicate()} of them to a channel so that their indexes are not shared.
+ * 
+ * @author ebahtijaragic
+ */
+public final class KixmppEncodedFrames {
+	public static final ByteBuf XML_HEADER = encode("<?xml version='1.0' encoding='UTF-8'?>");
+	public static final ByteBuf STREAM_START_OPEN = encode("<stream:stream ");
+	public static final ByteBuf STREAM_START_CLOSE = encode("version=\"1.0\" xmlns=\"jabber:client\" xmlns:stream=\"http://etherx.jabber.org/streams\">");
+	public static final ByteBuf STREAM_END = encode("</stream:stream>");
+	
+	public static final ByteBuf FRAMING_OPEN_START = encode("<open xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\" ");
+	public static final ByteBuf FRAMING_OPEN_END = encode("version=\"1.0\" />");
+	public static final ByteBuf FRAMING_CLOSE = encode("<close xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\" />");
+	
+	public static final ByteBuf SASL_SUCCESS = encode("<success xmlns=\"urn:ietf:params:xml:ns:xmpp-sasl\" />");
+	public static final ByteBuf SASL_FAILURE = encode("<failure xmlns=\"urn:ietf:params:xml:ns:xmpp-sasl\" />");
+	
+	public static final ByteBuf STREAM_ERROR_POLICY_VIOLATION = encode("<stream:error><policy-violation xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>");
+	public static final ByteBuf STREAM_ERROR_NOT_WELL_FORMED = encode("<stream:error><not-well-formed xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>");
+	public static final ByteBuf FRAMING_STREAM_ERROR_NOT_WELL_FORMED = encode("<stream:error xmlns:stream=\"http://etherx.jabber.org/streams\"><not-well-formed xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>");
+	
+	private static final ByteBuf ID_ATTRIBUTE_START = encode("id=\"");
+	private static final ByteBuf FROM_ATTRIBUTE_START = encode("from=\"");
+	private static final ByteBuf TO_ATTRIBUTE_START = encode("to=\"");
+	private static final ByteBuf ATTRIBUTE_END = encode("\" ");
+	
+	private KixmppEncodedFrames() {}
+	
+	/**
+	 * Encodes a constant frame.
+	 * 
+	 * @param frame
+	 * @return a read-only buffer that can not be released
+	 */
+	public static ByteBuf encode(String frame) {
+		return encode(frame.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Wraps an encoded constant frame.
+	 * 
+	 * @param frame
+	 * @return a read-only buffer that can not be released
+	 */
+	public static ByteBuf encode(byte[] frame) {
+		return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(frame)));
+	}
+	
+	/**
+	 * Encodes a constant element. The element is not kept.
+	 * 
+	 * @param element
+	 * @return a read-only buffer that can not be released
+	 */
+	public static ByteBuf encode(Element element) {
+		ByteBuf frame = Unpooled.buffer();
+		
+		new ByteBufElementWriter().write(element, frame);
+		
+		return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(frame));
+	}
+	
+	/**
+	 * Writes the readable bytes of a frame without changing its indexes.
+	 * 
+	 * @param frame
+	 * @param out
+	 */
+	public static void write(ByteBuf frame, ByteBuf out) {
+		out.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+	}
+	
+	/**
+	 * Writes a stream start. Only the id, from and to values are encoded.
+	 * 
+	 * @param streamStart
+	 * @param out
+	 */
+	public static void writeStreamStart(KixmppStreamStart streamStart, ByteBuf out) {
+		if (streamStart.doesIncludeXmlHeader()) {
+			write(XML_HEADER, out);
+		}
+		write(STREAM_START_OPEN, out);
+		writeStreamAttributes(streamStart, out);
+		write(STREAM_START_CLOSE, out);
+	}
+	
+	/**
+	 * Writes a stream start as an RFC 7395 &lt;open/&gt; element. Only the id, from and to values are encoded.
+	 * 
+	 * @param streamStart
+	 * @param out
+	 */
+	public static void writeFramingOpen(KixmppStreamStart streamStart, ByteBuf out) {
+		write(FRAMING_OPEN_START, out);
+		writeStreamAttributes(streamStart, out);
+		write(FRAMING_OPEN_END, out);
+	}
+	
+	/**
+	 * @param streamStart
+	 * @param out
+	 */
+	private static void writeStreamAttributes(KixmppStreamStart streamStart, ByteBuf out) {
+		if (streamStart.getId() != null) {
+			writeAttribute(ID_ATTRIBUTE_START, streamStart.getId(), out);
+		}
+		if (streamStart.getFrom() != null) {
+			writeAttribute(FROM_ATTRIBUTE_START, streamStart.getFrom().getFullJid(), out);
+		}
+		if (streamStart.getTo() != null) {
+			writeAttribute(TO_ATTRIBUTE_START, streamStart.getTo().getFullJid(), out);
+		}
+	}
+	
+	/**
+	 * @param attributeStart
+	 * @param value
+	 * @param out
+	 */
+	private static void writeAttribute(ByteBuf attributeStart, String value, ByteBuf out) {
+		write(attributeStart, out);
+		ByteBufElementWriter.writeAttributeValue(value, out);
+		write(ATTRIBUTE_END, out);
+	}
+}
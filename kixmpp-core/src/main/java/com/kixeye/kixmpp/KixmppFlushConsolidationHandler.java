@@ -0,0 +1,210 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consolidates the flushes of a channel so that a burst of writes goes out in one syscall. Goes at the front of the
+ * pipeline, where every write has already been encoded.
+ * 
+ * <p>Flushes requested while a read is being handled are done when the read completes. Other flushes are done once
+ * the event loop has run the tasks that are already queued (the writes of other dispatch tasks), or after the
+ * configured delay. Writes are flushed right away once the unflushed bytes reach the configured limit, or when the
+ * channel is closed or stops being writable.</p>
+ * 
+ * <p>This handler is NOT sharable.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppFlushConsolidationHandler extends ChannelDuplexHandler {
+	private final long maxFlushDelayNanos;
+	private final int maxPendingBytes;
+	
+	private ChannelHandlerContext ctx;
+	
+	private boolean readInProgress;
+	private boolean flushPending;
+	private boolean flushScheduled;
+	private int pendingBytes;
+	
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flushScheduled = false;
+			
+			if (flushPending) {
+				flushNow();
+			}
+		}
+	};
+	
+	/**
+	 * Creates a handler with the default settings.
+	 */
+	public KixmppFlushConsolidationHandler() {
+		this(new KixmppFlushSettings());
+	}
+	
+	/**
+	 * @param settings
+	 */
+	public KixmppFlushConsolidationHandler(KixmppFlushSettings settings) {
+		this.maxFlushDelayNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, settings.getMaxFlushDelayMicros()));
+		this.maxPendingBytes = settings.getMaxPendingBytes() > 0 ? settings.getMaxPendingBytes() : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelHandlerAdapter#handlerAdded(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelHandlerAdapter#handlerRemoved(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		if (flushPending) {
+			flushNow();
+		}
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelDuplexHandler#write(io.netty.channel.ChannelHandlerContext, java.lang.Object, io.netty.channel.ChannelPromise)
+	 */
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if (msg instanceof ByteBuf) {
+			pendingBytes += ((ByteBuf)msg).readableBytes();
+		} else if (msg instanceof ByteBufHolder) {
+			pendingBytes += ((ByteBufHolder)msg).content().readableBytes();
+		}
+		
+		ctx.write(msg, promise);
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelDuplexHandler#flush(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void flush(ChannelHandlerContext ctx) throws Exception {
+		if (pendingBytes >= maxPendingBytes) {
+			flushNow();
+			return;
+		}
+		
+		flushPending = true;
+		
+		// flushed when the read completes
+		if (readInProgress) {
+			return;
+		}
+		
+		if (!flushScheduled) {
+			flushScheduled = true;
+			
+			if (maxFlushDelayNanos > 0) {
+				ctx.executor().schedule(flushTask, maxFlushDelayNanos, TimeUnit.NANOSECONDS);
+			} else {
+				ctx.executor().execute(flushTask);
+			}
+		}
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelRead(io.netty.channel.ChannelHandlerContext, java.lang.Object)
+	 */
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		readInProgress = true;
+		
+		ctx.fireChannelRead(msg);
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelReadComplete(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+		// flushes requested by the handlers' read complete are part of the read
+		ctx.fireChannelReadComplete();
+		
+		readInProgress = false;
+		
+		if (flushPending) {
+			flushNow();
+		}
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelWritabilityChanged(io.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (!ctx.channel().isWritable() && flushPending) {
+			flushNow();
+		}
+		
+		ctx.fireChannelWritabilityChanged();
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelDuplexHandler#disconnect(io.netty.channel.ChannelHandlerContext, io.netty.channel.ChannelPromise)
+	 */
+	@Override
+	public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+		if (flushPending) {
+			flushNow();
+		}
+		
+		ctx.disconnect(promise);
+	}
+	
+	/**
+	 * @see io.netty.channel.ChannelDuplexHandler#close(io.netty.channel.ChannelHandlerContext, io.netty.channel.ChannelPromise)
+	 */
+	@Override
+	public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+		if (flushPending) {
+			flushNow();
+		}
+		
+		ctx.close(promise);
+	}
+	
+	/**
+	 * Flushes everything that has been written.
+	 */
+	private void flushNow() {
+		flushPending = false;
+		pendingBytes = 0;
+		
+		ctx.flush();
+	}
+}
@@ -0,0 +1,86 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Settings for {@link KixmppFlushConsolidationHandler}. A handler copies the settings when it is created, so changes
+ * only affect new connections.
+ *
+ * @author ebahtijaragic
+ */
+public class KixmppFlushSettings {
+	public static final int DEFAULT_MAX_PENDING_BYTES = 64 * 1024;
+
+	private boolean enabled = true;
+	private long maxFlushDelayMicros = 0;
+	private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+	public KixmppFlushSettings() {
+	}
+
+	public KixmppFlushSettings(KixmppFlushSettings settings) {
+		this.enabled = settings.enabled;
+		this.maxFlushDelayMicros = settings.maxFlushDelayMicros;
+		this.maxPendingBytes = settings.maxPendingBytes;
+	}
+
+	/**
+	 * @return <b>true</b> if flushes are consolidated
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled <b>true</b> if flushes should be consolidated
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return how long a flush can be held back, 0 or less to flush once the event loop has run the tasks that are already queued
+	 */
+	public long getMaxFlushDelayMicros() {
+		return maxFlushDelayMicros;
+	}
+
+	/**
+	 * @param maxFlushDelayMicros how long a flush can be held back, 0 or less to flush once the event loop has run the tasks that are already queued
+	 */
+	public void setMaxFlushDelayMicros(long maxFlushDelayMicros) {
+		this.maxFlushDelayMicros = maxFlushDelayMicros;
+	}
+
+	/**
+	 * @return the number of written bytes that are flushed right away, 0 or less for no limit
+	 */
+	public int getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+
+	/**
+	 * @param maxPendingBytes the number of written bytes that are flushed right away, 0 or less for no limit
+	 */
+	public void setMaxPendingBytes(int maxPendingBytes) {
+		this.maxPendingBytes = maxPendingBytes;
+	}
+}
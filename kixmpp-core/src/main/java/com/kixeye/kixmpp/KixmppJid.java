@@ -21,7 +21,8 @@ package com.kixeye.kixmpp;
  */
 
 /**
- * A JID.
+ * A JID. JIDs are immutable and cache their string forms and hash code, so they are cheap to use as keys and to
+ * write out repeatedly. See {@link KixmppJidCache} to share the JIDs of frequently seen addresses.
  * 
  * @author ebahtijaragic
  */
@@ -30,6 +31,11 @@ public class KixmppJid {
 	private final String domain;
 	private final String resource;
 	
+	// computed on first use, racing threads compute equal values
+	private transient String baseJid;
+	private transient String fullJid;
+	private transient int hashCode;
+	
 	/**
 	 * @param domain
 	 */
@@ -65,14 +71,31 @@ public class KixmppJid {
 	 * @return
 	 */
 	public static KixmppJid fromRawJid(String jid) {
-		String[] jidSplit = jid.split("/", 2);
-		String[] domainSplit = jidSplit[0].split("@", 2);
+		int resourceStart = jid.indexOf('/');
+		int baseEnd = resourceStart < 0 ? jid.length() : resourceStart;
+		
+		int domainStart = jid.indexOf('@');
+		
+		if (domainStart >= baseEnd) {
+			// the @ is in the resource
+			domainStart = -1;
+		}
+		
+		String domain = jid.substring(domainStart + 1, baseEnd);
+		
+		KixmppJid result = new KixmppJid(domainStart < 0 ? null : jid.substring(0, domainStart), domain, 
+				resourceStart < 0 ? null : jid.substring(resourceStart + 1));
 		
-		if (domainSplit.length == 1) {
-			return new KixmppJid(null, domainSplit[0], jidSplit.length == 2 ? jidSplit[1] : null);
-		} else {
-			return new KixmppJid(domainSplit[0], domainSplit[1], jidSplit.length == 2 ? jidSplit[1] : null);
+		if (result.domain == domain) {
+			// the domain was already in lower case, so the raw jid is the full jid
+			result.fullJid = jid;
+			
+			if (resourceStart < 0) {
+				result.baseJid = jid;
+			}
 		}
+		
+		return result;
 	}
 
 	/**
@@ -111,7 +134,14 @@ public class KixmppJid {
 	 * @return
 	 */
 	public KixmppJid withoutResource() {
-		return new KixmppJid(node, domain);
+		if (resource == null) {
+			return this;
+		}
+		
+		KixmppJid jid = new KixmppJid(node, domain);
+		jid.baseJid = jid.fullJid = baseJid;
+		
+		return jid;
 	}
 
 	/**
@@ -141,11 +171,19 @@ public class KixmppJid {
 	 * @return
 	 */
 	public String getBaseJid() {
-		if (node == null) {
-			return domain;
-		} else {
-			return node + "@" + domain;
+		String baseJid = this.baseJid;
+		
+		if (baseJid == null) {
+			if (node == null) {
+				baseJid = domain;
+			} else {
+				baseJid = node + "@" + domain;
+			}
+			
+			this.baseJid = baseJid;
 		}
+		
+		return baseJid;
 	}
 	
 	/**
@@ -154,11 +192,19 @@ public class KixmppJid {
 	 * @return
 	 */
 	public String getFullJid() {
-		if (resource == null) {
-			return getBaseJid();
-		} else {
-			return node + "@" + domain + "/" + resource;
+		String fullJid = this.fullJid;
+		
+		if (fullJid == null) {
+			if (resource == null) {
+				fullJid = getBaseJid();
+			} else {
+				fullJid = getBaseJid() + "/" + resource;
+			}
+			
+			this.fullJid = fullJid;
 		}
+		
+		return fullJid;
 	}
 	
 	/**
@@ -172,12 +218,17 @@ public class KixmppJid {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
+		if (hashCode != 0) {
+			return hashCode;
+		}
+		
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((domain == null) ? 0 : domain.hashCode());
 		result = prime * result + ((node == null) ? 0 : node.hashCode());
 		result = prime * result
 				+ ((resource == null) ? 0 : resource.hashCode());
+		hashCode = result;
 		return result;
 	}
 
@@ -192,6 +243,8 @@ public class KixmppJid {
 		if (getClass() != obj.getClass())
 			return false;
 		KixmppJid other = (KixmppJid) obj;
+		if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode)
+			return false;
 		if (domain == null) {
 			if (other.domain != null)
 				return false;
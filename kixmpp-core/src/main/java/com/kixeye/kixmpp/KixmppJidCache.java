@@ -0,0 +1,96 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of parsed JIDs, keyed by their raw form. Each raw jid has a single slot, so a newly seen jid
+ * replaces the one in its slot and the cache never grows past its size. Lookups and replacements do not lock.
+ * 
+ * <p>Only jids whose raw form is also their full form are cached, jids with an upper case domain are parsed every
+ * time.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppJidCache {
+	private final AtomicReferenceArray<KixmppJid> jids;
+	private final int mask;
+	
+	/**
+	 * @param size the number of jids to keep, rounded up to a power of two
+	 */
+	public KixmppJidCache(int size) {
+		if (size < 1 || size > (1 << 30)) {
+			throw new IllegalArgumentException("size must be between 1 and 2^30");
+		}
+		
+		int capacity = Integer.highestOneBit(size);
+		
+		if (capacity < size) {
+			capacity <<= 1;
+		}
+		
+		this.jids = new AtomicReferenceArray<>(capacity);
+		this.mask = capacity - 1;
+	}
+	
+	/**
+	 * Gets a {@link KixmppJid} from a raw jid, parsing it if it is not cached.
+	 * 
+	 * @param rawJid
+	 * @return
+	 */
+	public KixmppJid fromRawJid(String rawJid) {
+		int hash = rawJid.hashCode();
+		int index = (hash ^ (hash >>> 16)) & mask;
+		
+		KixmppJid jid = jids.get(index);
+		
+		if (jid != null && rawJid.equals(jid.getFullJid())) {
+			return jid;
+		}
+		
+		jid = KixmppJid.fromRawJid(rawJid);
+		
+		if (jid.getFullJid() == rawJid) {
+			jids.lazySet(index, jid);
+		}
+		
+		return jid;
+	}
+	
+	/**
+	 * @return the number of jids that can be cached
+	 */
+	public int getSize() {
+		return jids.length();
+	}
+	
+	/**
+	 * Removes all the jids.
+	 */
+	public void clear() {
+		for (int i = 0; i < jids.length(); i++) {
+			jids.set(i, null);
+		}
+	}
+}
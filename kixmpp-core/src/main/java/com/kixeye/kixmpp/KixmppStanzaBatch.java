@@ -0,0 +1,58 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+import org.jdom2.Element;
+
+import com.kixeye.kixmpp.stanza.CompactStanza;
+
+/**
+ * The stanzas that a single read decoded back to back. Each one is either an {@link Element} or a
+ * {@link CompactStanza}, in the order they were received.
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppStanzaBatch {
+	private final List<Object> stanzas;
+	
+	/**
+	 * @param stanzas
+	 */
+	public KixmppStanzaBatch(List<Object> stanzas) {
+		this.stanzas = stanzas;
+	}
+
+	/**
+	 * @return the stanzas in the order they were received
+	 */
+	public List<Object> getStanzas() {
+		return stanzas;
+	}
+	
+	/**
+	 * @return the number of stanzas
+	 */
+	public int size() {
+		return stanzas.size();
+	}
+}
@@ -0,0 +1,212 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.in.ReaderConfig;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.fasterxml.aalto.util.CharsetNames;
+import com.kixeye.kixmpp.KixmppCodec.XMLStreamReaderConfiguration;
+
+/**
+ * Names that are shared by all connections.
+ * 
+ * <p>Codecs create their readers from one {@link InputFactoryImpl} per {@link XMLStreamReaderConfiguration}. The
+ * factory keeps a name table that every new reader starts from and that a closed reader merges the names it has
+ * seen back into, so names like <i>message</i>, <i>to</i> or <i>jabber:client</i> are resolved once for the
+ * server instead of once per connection. Local names, prefixes and namespace URIs come back interned, so equal
+ * names are the same instance and compare by reference.</p>
+ * 
+ * <p>The factory merges every name a reader has seen, so once its table holds more than a fixed number of names
+ * the factory is replaced by a new one. New factories are seeded with the names of the core XMPP stanzas, and
+ * readers created from the old factory still merge into it when they close, which only keeps it around for them.</p>
+ * 
+ * <p>Qualified names would otherwise be concatenated for every prefixed stanza. They are interned and cached here,
+ * up to a fixed number of prefixes and of names per prefix. Once a prefix is full its other names are concatenated
+ * again, so clients that send made up names can not grow the cache or the interned strings, and can only crowd
+ * out the names of their own prefix.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public final class KixmppSymbols {
+	static final int MAX_PREFIXES = 64;
+	static final int MAX_NAMES_PER_PREFIX = 64;
+	static final int MAX_SHARED_NAMES = 4096;
+	
+	private static final byte[] SEED_DOCUMENT = ("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+			+ " to='' from='' id='' version='' xml:lang=''>"
+			+ "<stream:features><starttls/><mechanisms><mechanism/></mechanisms><bind/><session/></stream:features>"
+			+ "<auth mechanism=''/><challenge/><response/><success/><failure/><proceed/>"
+			+ "<message to='' from='' id='' type=''><body/><subject/><thread/></message>"
+			+ "<presence to='' from='' id='' type=''><show/><status/><priority/></presence>"
+			+ "<iq to='' from='' id='' type=''><query node=''><item jid='' name=''/></query><bind><resource/><jid/></bind></iq>"
+			+ "<x/><error code='' type=''><text/></error><stream:error/>"
+			+ "</stream:stream>").getBytes(StandardCharsets.UTF_8);
+	
+	private static final EnumMap<XMLStreamReaderConfiguration, AtomicReference<InputFactoryImpl>> INPUT_FACTORIES = new EnumMap<>(XMLStreamReaderConfiguration.class);
+	
+	private static final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> QUALIFIED_NAMES = new ConcurrentHashMap<>();
+	
+	static {
+		for (XMLStreamReaderConfiguration configuration : XMLStreamReaderConfiguration.values()) {
+			INPUT_FACTORIES.put(configuration, new AtomicReference<>(newInputFactory(configuration)));
+		}
+	}
+	
+	private KixmppSymbols() {}
+	
+	/**
+	 * Gets the shared input factory for a configuration, replacing it first if its name table is full. Get it again
+	 * for every reader instead of keeping it. The factory must not be reconfigured.
+	 * 
+	 * @param configuration
+	 * @return
+	 */
+	public static InputFactoryImpl getInputFactory(XMLStreamReaderConfiguration configuration) {
+		AtomicReference<InputFactoryImpl> inputFactoryReference = INPUT_FACTORIES.get(configuration);
+		InputFactoryImpl inputFactory = inputFactoryReference.get();
+		
+		if (getSharedNameCount(inputFactory) > MAX_SHARED_NAMES) {
+			InputFactoryImpl newInputFactory = newInputFactory(configuration);
+			
+			if (inputFactoryReference.compareAndSet(inputFactory, newInputFactory)) {
+				inputFactory = newInputFactory;
+			} else {
+				inputFactory = inputFactoryReference.get();
+			}
+		}
+		
+		return inputFactory;
+	}
+	
+	/**
+	 * Gets the number of names in the table that a factory's readers start from.
+	 * 
+	 * @param inputFactory
+	 * @return
+	 */
+	static int getSharedNameCount(InputFactoryImpl inputFactory) {
+		// the async readers only read UTF-8, the config hands out a copy of the table for the actual encoding
+		ReaderConfig config = inputFactory.getNonSharedConfig(null, null, null, false, false);
+		config.setActualEncoding(CharsetNames.CS_UTF8);
+		
+		return config.getBBSymbols().size();
+	}
+	
+	/**
+	 * Creates an input factory for a configuration and seeds its name table by reading the seed document.
+	 * 
+	 * @param configuration
+	 * @return
+	 */
+	private static InputFactoryImpl newInputFactory(XMLStreamReaderConfiguration configuration) {
+		InputFactoryImpl inputFactory = new InputFactoryImpl();
+		
+		switch (configuration) {
+			case CONVENIENCE:
+				inputFactory.configureForConvenience();
+				break;
+			case LOW_MEMORY_USAGE:
+				inputFactory.configureForLowMemUsage();
+				break;
+			case ROUND_TRIPPING:
+				inputFactory.configureForRoundTripping();
+				break;
+			case SPEED:
+				inputFactory.configureForSpeed();
+				break;
+			case XML_CONFORMANCE:
+				inputFactory.configureForXmlConformance();
+				break;
+		}
+		
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		
+		try {
+			streamReader.getInputFeeder().feedInput(SEED_DOCUMENT, 0, SEED_DOCUMENT.length);
+			streamReader.getInputFeeder().endOfInput();
+			
+			while (streamReader.next() != XMLStreamConstants.END_DOCUMENT) {
+				// only the names are kept
+			}
+			
+			// merges the names into the factory
+			streamReader.close();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Unable to read the seed document", e);
+		}
+		
+		return inputFactory;
+	}
+	
+	/**
+	 * Gets the canonical qualified name for a prefix and a local name.
+	 * 
+	 * @param prefix the prefix, null or empty if there is none
+	 * @param localName
+	 * @return the local name if there is no prefix, otherwise <i>prefix:localName</i>, interned while the cache has room for it
+	 */
+	public static String qualifiedName(String prefix, String localName) {
+		if (prefix == null || prefix.isEmpty()) {
+			return localName;
+		}
+		
+		ConcurrentHashMap<String, String> names = QUALIFIED_NAMES.get(prefix);
+		
+		if (names != null) {
+			String qualifiedName = names.get(localName);
+			
+			if (qualifiedName != null) {
+				return qualifiedName;
+			}
+		} else if (QUALIFIED_NAMES.size() < MAX_PREFIXES) {
+			ConcurrentHashMap<String, String> newNames = new ConcurrentHashMap<>();
+			
+			names = QUALIFIED_NAMES.putIfAbsent(prefix, newNames);
+			
+			if (names == null) {
+				names = newNames;
+			}
+		}
+		
+		// the sizes are only checked on a miss, racing threads can go over them by a few names
+		if (names == null || names.size() >= MAX_NAMES_PER_PREFIX) {
+			return prefix + ":" + localName;
+		}
+		
+		String qualifiedName = (prefix + ":" + localName).intern();
+		String existingName = names.putIfAbsent(localName, qualifiedName);
+		
+		if (existingName != null) {
+			qualifiedName = existingName;
+		}
+		
+		return qualifiedName;
+	}
+}
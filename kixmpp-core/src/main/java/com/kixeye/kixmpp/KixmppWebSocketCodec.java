@@ -21,37 +21,65 @@ package com.kixeye.kixmpp;
  */
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 
-import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
 import org.jdom2.Content;
-import org.jdom2.Document;
 import org.jdom2.Element;
+import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.input.sax.XMLReaderSAX2Factory;
-import org.jdom2.output.XMLOutputter;
 import org.jdom2.util.IteratorIterable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.aalto.AsyncInputFeeder;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.kixeye.kixmpp.KixmppCodec.XMLStreamReaderConfiguration;
+import com.kixeye.kixmpp.jdom.ByteBufElementWriter;
+import com.kixeye.kixmpp.jdom.StAXElementBuilder;
+
 /**
  * An XMPP codec for the client.
  * It implements the following spec: http://tools.ietf.org/html/draft-ietf-xmpp-websocket-00
+ * and the &lt;open/&gt; and &lt;close/&gt; framing of RFC 7395.
+ * 
+ * <p>All frames of a connection are parsed by one non-blocking reader. The reader is primed with a synthetic root
+ * element so that the elements of a frame are at depth 2, or at depth 3 inside a &lt;stream:stream&gt; that was
+ * opened by an earlier frame.</p>
  * 
+ * <p>Malformed XML ends the stream with a &lt;not-well-formed/&gt; stream error, followed by a &lt;close/&gt; or a
+ * &lt;/stream:stream&gt; depending on the framing, and closes the connection.</p>
  */
 public class KixmppWebSocketCodec extends MessageToMessageCodec<Object, Object> {
 	private static final Logger logger  = LoggerFactory.getLogger(KixmppWebSocketCodec.class);
 
-	private XMLReaderSAX2Factory readerFactory = new XMLReaderSAX2Factory(false);
+	private static final String FRAMING_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-framing";
+	private static final String STREAMS_NAMESPACE = "http://etherx.jabber.org/streams";
+
+	private static final int FRAME_ELEMENT_DEPTH = 2;
+
+	private static final byte[] FRAMES_ROOT = ("<frames xmlns='jabber:client' xmlns:stream='" + STREAMS_NAMESPACE + "'>").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] XML_DECLARATION_START = "<?xml".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] STREAM_START = "<stream:stream".getBytes(StandardCharsets.UTF_8);
+
+	private final StAXElementBuilder elementBuilder = new StAXElementBuilder(true);
+	private final ByteBufElementWriter elementWriter = new ByteBufElementWriter();
+
+	private AsyncXMLStreamReader streamReader;
+	private AsyncInputFeeder asyncInputFeeder;
+
+	private int stanzaDepth = FRAME_ELEMENT_DEPTH;
+	private boolean framing = false;
+	private boolean closed = false;
 
 	@Override
 	public boolean acceptInboundMessage(Object msg) throws Exception {
@@ -94,36 +122,26 @@ public class KixmppWebSocketCodec extends MessageToMessageCodec<Object, Object>
 			}
 
 			ByteBuf binaryData = ctx.alloc().buffer();
-			new XMLOutputter().output((Element)msg, new ByteBufOutputStream(binaryData));
+			elementWriter.write(element, binaryData);
 
 			frame = new TextWebSocketFrame(binaryData);
 		} else if (msg instanceof KixmppStreamStart) {
-			KixmppStreamStart streamStart = (KixmppStreamStart)msg;
-
-			StringWriter writer = new StringWriter();
+			ByteBuf binaryData = ctx.alloc().buffer();
 
-			if (streamStart.doesIncludeXmlHeader()) {
-				writer.append("<?xml version='1.0' encoding='UTF-8'?>");
-			}
-			writer.append("<stream:stream ");
-			if (streamStart.getId() != null) {
-				writer.append(String.format("id=\"%s\" ", streamStart.getId()));
-			}
-			if (streamStart.getFrom() != null) {
-				writer.append(String.format("from=\"%s\" ", streamStart.getFrom().getFullJid()));
+			if (framing) {
+				KixmppEncodedFrames.writeFramingOpen((KixmppStreamStart)msg, binaryData);
+			} else {
+				KixmppEncodedFrames.writeStreamStart((KixmppStreamStart)msg, binaryData);
 			}
-			if (streamStart.getTo() != null) {
-				writer.append(String.format("to=\"%s\" ", streamStart.getTo()));
-			}
-			writer.append("version=\"1.0\" xmlns=\"jabber:client\" xmlns:stream=\"http://etherx.jabber.org/streams\">");
 
-			frame = new TextWebSocketFrame(writer.toString());
+			frame = new TextWebSocketFrame(binaryData);
 		} else if (msg instanceof KixmppStreamEnd) {
-			frame = new TextWebSocketFrame("</stream:stream>");
+			frame = new TextWebSocketFrame((framing ? KixmppEncodedFrames.FRAMING_CLOSE : KixmppEncodedFrames.STREAM_END).duplicate());
 		} else if (msg instanceof String) {
 			frame = new TextWebSocketFrame((String)msg);
 		} else if (msg instanceof ByteBuf) {
-			frame = new TextWebSocketFrame((ByteBuf)msg);
+			// the encoder releases msg once it has been encoded
+			frame = new TextWebSocketFrame(((ByteBuf)msg).retain());
 		}
 
 		if (frame != null) {
@@ -137,32 +155,216 @@ public class KixmppWebSocketCodec extends MessageToMessageCodec<Object, Object>
 
 	@Override
 	protected void decode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+		if (closed) {
+			// the stream has ended with an error, the decoder still releases the frame
+			return;
+		}
+
 		WebSocketFrame frame = (WebSocketFrame)msg;
 
-		ByteBuf content = frame.retain().content();
-		String frameString = content.toString(StandardCharsets.UTF_8);
+		// the decoder releases the frame once it has been decoded, so nothing may hold on to its content
+		ByteBuf content = frame.content();
 
 		if (logger.isDebugEnabled()) {
-			logger.debug("Received: [{}]", frameString);
+			logger.debug("Received: [{}]", content.toString(StandardCharsets.UTF_8));
+		}
+
+		int readerIndex = skipWhitespace(content, content.readerIndex());
+
+		// a new <stream:stream> is a new document, which may start with an xml declaration
+		if (startsWith(content, readerIndex, XML_DECLARATION_START)) {
+			resetStreamReader();
+
+			readerIndex = skipXmlDeclaration(content, readerIndex);
+		} else if (streamReader == null || startsWith(content, readerIndex, STREAM_START)) {
+			resetStreamReader();
+		}
+
+		int length = content.writerIndex() - readerIndex;
+
+		try {
+			if (content.hasArray()) {
+				feed(content.array(), content.arrayOffset() + readerIndex, length, out);
+			} else {
+				byte[] scratch = KixmppCodec.FEED_SCRATCH.get();
+
+				for (int offset = 0; offset < length; offset += scratch.length) {
+					int chunkLength = Math.min(scratch.length, length - offset);
+
+					content.getBytes(readerIndex + offset, scratch, 0, chunkLength);
+
+					feed(scratch, 0, chunkLength, out);
+				}
+			}
+		} catch (XMLStreamException | JDOMException e) {
+			logger.debug("Closing [{}], received malformed XML: {}", ctx.channel().remoteAddress(), e.getMessage());
+
+			streamError(ctx);
+		}
+	}
+
+	/**
+	 * Drops the reader, sends a not-well-formed stream error and closes the stream. Nothing else is decoded from
+	 * this connection.
+	 *
+	 * @param ctx
+	 */
+	private void streamError(ChannelHandlerContext ctx) {
+		closed = true;
+
+		elementBuilder.reset();
+
+		try {
+			streamReader.close();
+		} catch (XMLStreamException e) {
+			logger.debug("Unable to close the reader", e);
+		}
+
+		streamReader = null;
+		asyncInputFeeder = null;
+
+		// written past this codec's encoder, so the frames are wrapped here
+		ctx.write(new TextWebSocketFrame(KixmppEncodedFrames.FRAMING_STREAM_ERROR_NOT_WELL_FORMED.duplicate()));
+		ctx.writeAndFlush(new TextWebSocketFrame((framing ? KixmppEncodedFrames.FRAMING_CLOSE : KixmppEncodedFrames.STREAM_END).duplicate()))
+				.addListener(ChannelFutureListener.CLOSE);
+	}
+
+	/**
+	 * Feeds a chunk of a frame into the reader and processes all the events it completes.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param out
+	 * @throws Exception
+	 */
+	private void feed(byte[] data, int offset, int length, List<Object> out) throws Exception {
+		asyncInputFeeder.feedInput(data, offset, length);
+
+		int event = -1;
+
+		while ((event = streamReader.next()) != XMLStreamConstants.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			int depth = streamReader.getDepth();
+
+			if (depth == FRAME_ELEMENT_DEPTH && stanzaDepth == FRAME_ELEMENT_DEPTH && event == XMLStreamConstants.START_ELEMENT &&
+					"stream".equals(streamReader.getLocalName()) && STREAMS_NAMESPACE.equals(streamReader.getNamespaceURI())) {
+				// the <stream:stream> of the draft framing stays open across frames
+				elementBuilder.reset();
+				elementBuilder.process(streamReader);
+
+				out.add(new KixmppStreamStart(elementBuilder.getElement(), true));
+
+				elementBuilder.reset();
+
+				stanzaDepth = FRAME_ELEMENT_DEPTH + 1;
+			} else if (depth == FRAME_ELEMENT_DEPTH && stanzaDepth > FRAME_ELEMENT_DEPTH && event == XMLStreamConstants.END_ELEMENT) {
+				out.add(new KixmppStreamEnd());
+
+				stanzaDepth = FRAME_ELEMENT_DEPTH;
+			} else if (depth < stanzaDepth) {
+				// whitespace between stanzas
+				continue;
+			} else if (event == XMLStreamConstants.START_ELEMENT && depth == stanzaDepth) {
+				elementBuilder.reset();
+				elementBuilder.process(streamReader);
+			} else if (event == XMLStreamConstants.END_ELEMENT && depth == stanzaDepth) {
+				elementBuilder.process(streamReader);
+
+				Element element = elementBuilder.getElement();
+
+				elementBuilder.reset();
+
+				if (FRAMING_NAMESPACE.equals(element.getNamespaceURI())) {
+					if ("open".equals(element.getName())) {
+						framing = true;
+
+						out.add(new KixmppStreamStart(element, true));
+					} else if ("close".equals(element.getName())) {
+						out.add(new KixmppStreamEnd());
+					}
+				} else {
+					out.add(element);
+				}
+			} else {
+				elementBuilder.process(streamReader);
+			}
 		}
+	}
+
+	/**
+	 * Starts a new document and feeds it the synthetic root element.
+	 *
+	 * @throws Exception
+	 */
+	private void resetStreamReader() throws Exception {
+		if (streamReader != null) {
+			// hands the names the reader has seen back to the shared factory
+			streamReader.close();
+		}
+		
+		streamReader = KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.SPEED).createAsyncXMLStreamReader();
+		asyncInputFeeder = streamReader.getInputFeeder();
+
+		stanzaDepth = FRAME_ELEMENT_DEPTH;
+
+		asyncInputFeeder.feedInput(FRAMES_ROOT, 0, FRAMES_ROOT.length);
+
+		while (streamReader.next() != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			// skip the start of the document and the root element
+		}
+	}
+
+	/**
+	 * @param buffer
+	 * @param index
+	 * @return the index of the first byte that is not whitespace
+	 */
+	private static int skipWhitespace(ByteBuf buffer, int index) {
+		while (index < buffer.writerIndex()) {
+			byte b = buffer.getByte(index);
 
-		if (frameString.startsWith("<?xml")) {
-			frameString = frameString.replaceFirst("<\\?xml.*?\\?>", "");
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				break;
+			}
+
+			index++;
 		}
 
-		if (frameString.startsWith("<stream:stream")) {
-			out.add(new KixmppStreamStart(null, true));
-		} else if (frameString.startsWith("</stream:stream")) {
-			out.add(new KixmppStreamEnd());
-		} else {
+		return index;
+	}
 
-			SAXBuilder saxBuilder = new SAXBuilder(readerFactory);
-			Document document = saxBuilder.build(new ByteBufInputStream(content));
+	/**
+	 * @param buffer
+	 * @param index
+	 * @return the index after the xml declaration that starts at the given index
+	 */
+	private static int skipXmlDeclaration(ByteBuf buffer, int index) {
+		for (int i = index + XML_DECLARATION_START.length; i < buffer.writerIndex() - 1; i++) {
+			if (buffer.getByte(i) == '?' && buffer.getByte(i + 1) == '>') {
+				return i + 2;
+			}
+		}
 
-			Element element = document.getRootElement();
+		return buffer.writerIndex();
+	}
+
+	/**
+	 * @param buffer
+	 * @param index
+	 * @param prefix
+	 * @return <b>true</b> if the buffer has the prefix at the given index
+	 */
+	private static boolean startsWith(ByteBuf buffer, int index, byte[] prefix) {
+		if (buffer.writerIndex() - index < prefix.length) {
+			return false;
+		}
 
-			out.add(element);
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer.getByte(index + i) != prefix[i]) {
+				return false;
+			}
 		}
 
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -20,19 +20,43 @@ package com.kixeye.kixmpp.date;
  * #L%
  */
 
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 /**
  * Some helpful date utils.
  * 
+ * <p>Dates are formatted and parsed as <code>yyyy-MM-dd'T'HH:mm:ss'Z'</code> in UTC. The common case, a year
+ * between 0 and 9999, is handled without Joda, and each thread keeps the last second it formatted so that the
+ * stamps of the same second are not formatted again.</p>
+ * 
  * @author ebahtijaragic
  */
 public final class XmppDateUtils {
 	private XmppDateUtils() { }
 
-    private static final DateTimeFormatter xmppDateTimeFormatter = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final DateTimeFormatter xmppDateTimeFormatter = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZoneUTC();
+    
+    private static final int LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+    
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    
+    // days from 0000-03-01 to 1970-01-01
+    private static final long EPOCH_DAY_OFFSET = 719468;
+    
+    private static final long DAYS_PER_ERA = 146097;
+    
+    private static final ThreadLocal<FormatCache> formatCache = new ThreadLocal<FormatCache>() {
+    	protected FormatCache initialValue() {
+    		return new FormatCache();
+    	}
+    };
     
     /**
      * Format a long from epoch in UTC to a string.
@@ -41,7 +65,17 @@ public final class XmppDateUtils {
      * @return
      */
 	public static String format(long dateTime) {
-		return xmppDateTimeFormatter.print(dateTime);
+		FormatCache cache = formatCache.get();
+		
+		if (!cache.format(dateTime)) {
+			return xmppDateTimeFormatter.print(dateTime);
+		}
+		
+		if (cache.formatted == null) {
+			cache.formatted = new String(cache.chars);
+		}
+		
+		return cache.formatted;
 	}
     
     /**
@@ -51,7 +85,30 @@ public final class XmppDateUtils {
      * @return
      */
 	public static String format(DateTime dateTime) {
-		return dateTime.toString(xmppDateTimeFormatter);
+		return format(dateTime.getMillis());
+	}
+	
+	/**
+	 * Writes a long from epoch in UTC to a buffer, as ASCII.
+	 * 
+	 * @param dateTime
+	 * @param buffer
+	 */
+	public static void write(long dateTime, ByteBuf buffer) {
+		FormatCache cache = formatCache.get();
+		
+		if (!cache.format(dateTime)) {
+			buffer.writeBytes(xmppDateTimeFormatter.print(dateTime).getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		
+		char[] chars = cache.chars;
+		
+		buffer.ensureWritable(chars.length);
+		
+		for (int i = 0; i < chars.length; i++) {
+			buffer.writeByte(chars[i]);
+		}
 	}
 	
 	/**
@@ -61,6 +118,165 @@ public final class XmppDateUtils {
      * @return
      */
 	public static DateTime parse(String dateTime) {
-		return DateTime.parse(dateTime, xmppDateTimeFormatter);
+		return new DateTime(parseMillis(dateTime), DateTimeZone.UTC);
+	}
+	
+	/**
+     * Parse a string into a long from epoch.
+     * 
+     * @param dateTime
+     * @return
+     * @throws IllegalArgumentException if the string is not a date
+     */
+	public static long parseMillis(String dateTime) {
+		if (dateTime.length() == LENGTH && dateTime.charAt(4) == '-' && dateTime.charAt(7) == '-' && dateTime.charAt(10) == 'T' && 
+				dateTime.charAt(13) == ':' && dateTime.charAt(16) == ':' && dateTime.charAt(19) == 'Z') {
+			int year = parseDigits(dateTime, 0, 4);
+			int month = parseDigits(dateTime, 5, 2);
+			int day = parseDigits(dateTime, 8, 2);
+			int hour = parseDigits(dateTime, 11, 2);
+			int minute = parseDigits(dateTime, 14, 2);
+			int second = parseDigits(dateTime, 17, 2);
+			
+			if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= getDaysInMonth(year, month) &&
+					hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60) {
+				return ((getEpochDay(year, month, day) * SECONDS_PER_DAY) + hour * 3600 + minute * 60 + second) * 1000;
+			}
+		}
+		
+		// let joda explain what is wrong with it
+		return xmppDateTimeFormatter.parseMillis(dateTime);
+	}
+	
+	/**
+	 * @param value
+	 * @param start
+	 * @param length
+	 * @return the number, or -1 if a character is not a digit
+	 */
+	private static int parseDigits(String value, int start, int length) {
+		int result = 0;
+		
+		for (int i = start; i < start + length; i++) {
+			int digit = value.charAt(i) - '0';
+			
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			
+			result = result * 10 + digit;
+		}
+		
+		return result;
+	}
+	
+	private static int getDaysInMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+	
+	/**
+	 * Counts the days since 1970-01-01 in the proleptic Gregorian calendar, with years starting in March so that
+	 * the leap day is the last day of a year.
+	 * 
+	 * @param year
+	 * @param month
+	 * @param day
+	 * @return
+	 */
+	private static long getEpochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		
+		return era * DAYS_PER_ERA + dayOfEra - EPOCH_DAY_OFFSET;
+	}
+	
+	/**
+	 * The last second a thread formatted.
+	 */
+	private static final class FormatCache {
+		private final char[] chars = new char[LENGTH];
+		
+		private long second = Long.MIN_VALUE;
+		private String formatted;
+		
+		/**
+		 * Formats a date into the chars, unless they already hold its second.
+		 * 
+		 * @param dateTime
+		 * @return <b>false</b> if the year is not between 0 and 9999
+		 */
+		public boolean format(long dateTime) {
+			long second = dateTime / 1000;
+			
+			if (dateTime % 1000 < 0) {
+				second--;
+			}
+			
+			if (second == this.second) {
+				return true;
+			}
+			
+			long epochDay = second / SECONDS_PER_DAY;
+			long secondOfDay = second % SECONDS_PER_DAY;
+			
+			if (secondOfDay < 0) {
+				epochDay--;
+				secondOfDay += SECONDS_PER_DAY;
+			}
+			
+			// the inverse of getEpochDay
+			long z = epochDay + EPOCH_DAY_OFFSET;
+			long era = (z >= 0 ? z : z - (DAYS_PER_ERA - 1)) / DAYS_PER_ERA;
+			long dayOfEra = z - era * DAYS_PER_ERA;
+			long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / (DAYS_PER_ERA - 1)) / 365;
+			long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+			long monthOfYear = (5 * dayOfYear + 2) / 153;
+			
+			long day = dayOfYear - (153 * monthOfYear + 2) / 5 + 1;
+			long month = monthOfYear < 10 ? monthOfYear + 3 : monthOfYear - 9;
+			long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+			
+			if (year < 0 || year > 9999) {
+				return false;
+			}
+			
+			writeDigits(year, 0, 4);
+			chars[4] = '-';
+			writeDigits(month, 5, 2);
+			chars[7] = '-';
+			writeDigits(day, 8, 2);
+			chars[10] = 'T';
+			writeDigits(secondOfDay / 3600, 11, 2);
+			chars[13] = ':';
+			writeDigits(secondOfDay / 60 % 60, 14, 2);
+			chars[16] = ':';
+			writeDigits(secondOfDay % 60, 17, 2);
+			chars[19] = 'Z';
+			
+			this.second = second;
+			this.formatted = null;
+			
+			return true;
+		}
+		
+		private void writeDigits(long value, int start, int length) {
+			for (int i = start + length - 1; i >= start; i--) {
+				chars[i] = (char)('0' + value % 10);
+				value /= 10;
+			}
+		}
 	}
 }
@@ -0,0 +1,228 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchPriority;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+
+/**
+ * Gives every address and channel its own HawtDispatch {@link DispatchQueue}, created on demand and released after
+ * it has not been used for a while.
+ * 
+ * <p>A queue is only released once it has run every task it was given and nobody has queued anything since, so
+ * two queues never run tasks of the same key at the same time. Each queue counts the tasks that have started and
+ * finished being queued. Releasing it queues a probe behind the finished ones, which retires the queue only if no
+ * other task has started being queued by the time it runs.
+ * Executors that are still referenced after their queue has been retired pass their tasks on to the key's current
+ * queue.</p>
+ * 
+ * <p>Each lane of an address or channel has a queue of its own. Control queues run on HawtDispatch's high priority
+ * threads and background queues on its low priority threads, so they do not wait for the threads that are busy
+ * with presence and messages.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class DispatchQueueExecutionStrategy implements KixmppExecutionStrategy {
+	private static final long RETIRED = -1;
+	
+	private final ConcurrentHashMap<String, QueueExecutor> queues = new ConcurrentHashMap<>();
+	
+	private final long idleNanos;
+	private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+	
+	/**
+	 * Creates a strategy that releases queues after 30 seconds without use.
+	 */
+	public DispatchQueueExecutionStrategy() {
+		this(30, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * @param idleTime how long a queue can go unused before it is released
+	 * @param unit
+	 */
+	public DispatchQueueExecutionStrategy(long idleTime, TimeUnit unit) {
+		this.idleNanos = unit.toNanos(idleTime);
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getAddressExecutor(java.lang.String, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getAddressExecutor(String address, KixmppPriority priority) {
+		return getExecutor(priority.ordinal() + ":address:" + address, priority);
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getChannelExecutor(io.netty.channel.Channel, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getChannelExecutor(Channel channel, KixmppPriority priority) {
+		return getExecutor(priority.ordinal() + ":channel:" + channel.hashCode(), priority);
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getDefaultExecutor(com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getDefaultExecutor(KixmppPriority priority) {
+		return getExecutor(priority.ordinal() + ":default", priority);
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#shutdown()
+	 */
+	public void shutdown() {
+		// the queues run on HawtDispatch's global threads
+	}
+	
+	/**
+	 * @return the number of queues that have not been released
+	 */
+	int getQueueCount() {
+		return queues.size();
+	}
+	
+	/**
+	 * @param key
+	 * @param priority
+	 * @return the current executor of the key
+	 */
+	private QueueExecutor getExecutor(String key, KixmppPriority priority) {
+		long now = System.nanoTime();
+		
+		QueueExecutor executor = queues.get(key);
+		
+		if (executor == null) {
+			QueueExecutor newExecutor = new QueueExecutor(key, priority);
+			
+			executor = queues.putIfAbsent(key, newExecutor);
+			
+			if (executor == null) {
+				executor = newExecutor;
+			}
+		}
+		
+		executor.lastUsed = now;
+		
+		long lastSweep = this.lastSweep.get();
+		
+		if (now - lastSweep > idleNanos && this.lastSweep.compareAndSet(lastSweep, now)) {
+			sweep(now);
+		}
+		
+		return executor;
+	}
+	
+	/**
+	 * Starts releasing the queues that have not been used for a while.
+	 * 
+	 * @param now
+	 */
+	private void sweep(long now) {
+		for (QueueExecutor executor : queues.values()) {
+			if (now - executor.lastUsed > idleNanos) {
+				executor.release();
+			}
+		}
+	}
+	
+	private final class QueueExecutor implements KixmppSerialExecutor {
+		private final String key;
+		private final KixmppPriority priority;
+		private final DispatchQueue queue;
+		
+		// the number of tasks that have started being queued, or RETIRED
+		private final AtomicLong uses = new AtomicLong();
+		// the number of tasks that have been queued
+		private final AtomicLong queued = new AtomicLong();
+		
+		private volatile long lastUsed;
+		private volatile boolean releasing = false;
+		
+		public QueueExecutor(String key, KixmppPriority priority) {
+			this.key = key;
+			this.priority = priority;
+			this.queue = Dispatch.createQueue(key);
+			
+			switch (priority) {
+				case CONTROL:
+					queue.setTargetQueue(Dispatch.getGlobalQueue(DispatchPriority.HIGH));
+					break;
+				case BACKGROUND:
+					queue.setTargetQueue(Dispatch.getGlobalQueue(DispatchPriority.LOW));
+					break;
+				default:
+					break;
+			}
+		}
+		
+		public void execute(Task task) {
+			long count;
+			
+			do {
+				count = uses.get();
+				
+				if (count == RETIRED) {
+					// every task of this queue has run, the key's new queue takes over once this one is out of
+					// the way, which the probe may not have done yet
+					queues.remove(key, this);
+					
+					getExecutor(key, priority).execute(task);
+					return;
+				}
+			} while (!uses.compareAndSet(count, count + 1));
+			
+			queue.execute(task);
+			
+			queued.incrementAndGet();
+		}
+		
+		/**
+		 * Retires the queue once it has run everything it has been given so far, unless more is queued before then.
+		 */
+		public void release() {
+			if (releasing) {
+				return;
+			}
+			
+			releasing = true;
+			
+			// these tasks are all ahead of the probe
+			final long count = queued.get();
+			
+			queue.execute(new Task() {
+				public void run() {
+					releasing = false;
+					
+					if (uses.compareAndSet(count, RETIRED)) {
+						queues.remove(key, QueueExecutor.this);
+					}
+				}
+			});
+		}
+	}
+}
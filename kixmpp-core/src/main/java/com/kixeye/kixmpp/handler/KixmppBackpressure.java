@@ -0,0 +1,327 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.hawtdispatch.Task;
+
+import com.kixeye.kixmpp.KixmppBackpressureSettings;
+
+/**
+ * Counts the stanza handler tasks that are pending per channel they came from and per address they go to, and turns
+ * off <i>autoRead</i> on the channels that pile up too many of either if backpressure is enabled. The counts are
+ * also kept for {@link KixmppEventEngineMetrics}.
+ * 
+ * <p>A channel is held back for each reason it has, its own count or the count of an address it has sent to, and
+ * reads again once every reason is gone. Water marks are only checked when a count changes, so after each hold or
+ * release the count is checked again in case the tasks ran in the meantime.</p>
+ * 
+ * @author ebahtijaragic
+ */
+class KixmppBackpressure {
+	private static final AttributeKey<ChannelDepth> CHANNEL_DEPTH = AttributeKey.valueOf("KIXMPP_CHANNEL_DEPTH");
+	
+	private static final int RETIRED = Integer.MIN_VALUE;
+	
+	private static final Comparator<Map.Entry<String, Integer>> BY_DEPTH = new Comparator<Map.Entry<String, Integer>>() {
+		public int compare(Map.Entry<String, Integer> entry, Map.Entry<String, Integer> other) {
+			return Integer.compare(entry.getValue(), other.getValue());
+		}
+	};
+	
+	private final ConcurrentHashMap<String, QueueDepth> queues = new ConcurrentHashMap<>();
+	
+	private final KixmppBackpressureSettings settings;
+	
+	/**
+	 * @param settings
+	 */
+	public KixmppBackpressure(KixmppBackpressureSettings settings) {
+		this.settings = settings;
+	}
+	
+	/**
+	 * @param channel
+	 * @return the depth of the channel
+	 */
+	public ChannelDepth getChannelDepth(Channel channel) {
+		Attribute<ChannelDepth> attribute = channel.attr(CHANNEL_DEPTH);
+		
+		ChannelDepth depth = attribute.get();
+		
+		if (depth == null) {
+			ChannelDepth newDepth = new ChannelDepth(channel);
+			
+			depth = attribute.setIfAbsent(newDepth);
+			
+			if (depth == null) {
+				depth = newDepth;
+			}
+		}
+		
+		return depth;
+	}
+	
+	/**
+	 * Counts in a task that a channel sent to an address, or to itself.
+	 * 
+	 * @param task
+	 * @param channelDepth
+	 * @param address the address or null
+	 * @return the task, wrapped so that it is counted out once it has run
+	 */
+	public Task countIn(Task task, ChannelDepth channelDepth, String address) {
+		channelDepth.increment();
+		
+		QueueDepth queueDepth = null;
+		
+		if (address != null) {
+			do {
+				queueDepth = queues.get(address);
+				
+				if (queueDepth == null) {
+					QueueDepth newDepth = new QueueDepth(address);
+					
+					queueDepth = queues.putIfAbsent(address, newDepth);
+					
+					if (queueDepth == null) {
+						queueDepth = newDepth;
+					}
+				}
+			} while (!queueDepth.increment(channelDepth));
+		}
+		
+		return new CountedTask(task, channelDepth, queueDepth);
+	}
+	
+	/**
+	 * @return the number of addresses with pending tasks
+	 */
+	int getQueueCount() {
+		return queues.size();
+	}
+	
+	/**
+	 * @param count
+	 * @return the addresses with the most pending tasks and their counts, most first
+	 */
+	Map<String, Integer> getDeepestQueues(int count) {
+		PriorityQueue<Map.Entry<String, Integer>> deepest = new PriorityQueue<>(Math.max(count, 1), BY_DEPTH);
+		
+		for (QueueDepth queueDepth : queues.values()) {
+			int pending = queueDepth.pending.get();
+			
+			if (pending <= 0) {
+				continue;
+			}
+			
+			if (deepest.size() < count) {
+				deepest.add(new AbstractMap.SimpleImmutableEntry<>(queueDepth.address, pending));
+			} else if (count > 0 && deepest.peek().getValue() < pending) {
+				deepest.poll();
+				deepest.add(new AbstractMap.SimpleImmutableEntry<>(queueDepth.address, pending));
+			}
+		}
+		
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(deepest);
+		Collections.sort(entries, Collections.reverseOrder(BY_DEPTH));
+		
+		Map<String, Integer> result = new LinkedHashMap<>();
+		
+		for (Map.Entry<String, Integer> entry : entries) {
+			result.put(entry.getKey(), entry.getValue());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @param address
+	 * @return the number of pending tasks for the address
+	 */
+	int getQueueDepth(String address) {
+		QueueDepth queueDepth = queues.get(address);
+		
+		return queueDepth == null ? 0 : Math.max(queueDepth.pending.get(), 0);
+	}
+	
+	/**
+	 * The pending tasks of a channel.
+	 */
+	final class ChannelDepth {
+		private final Channel channel;
+		
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicBoolean full = new AtomicBoolean();
+		
+		// the number of reasons the channel is held back for
+		private int holds = 0;
+		
+		public ChannelDepth(Channel channel) {
+			this.channel = channel;
+		}
+		
+		/**
+		 * @return the number of pending tasks
+		 */
+		public int getPending() {
+			return pending.get();
+		}
+		
+		private void increment() {
+			if (pending.incrementAndGet() >= settings.getChannelHighWaterMark() && settings.isEnabled() && full.compareAndSet(false, true)) {
+				hold();
+				
+				if (pending.get() <= settings.getChannelLowWaterMark() && full.compareAndSet(true, false)) {
+					release();
+				}
+			}
+		}
+		
+		private void decrement() {
+			if (pending.decrementAndGet() <= settings.getChannelLowWaterMark() && full.compareAndSet(true, false)) {
+				release();
+				
+				if (pending.get() >= settings.getChannelHighWaterMark() && full.compareAndSet(false, true)) {
+					hold();
+				}
+			}
+		}
+		
+		private synchronized void hold() {
+			if (holds++ == 0) {
+				channel.config().setAutoRead(false);
+			}
+		}
+		
+		private synchronized void release() {
+			if (--holds == 0) {
+				channel.config().setAutoRead(true);
+			}
+		}
+	}
+	
+	/**
+	 * The pending tasks of an address. Addresses are only tracked while they have pending tasks.
+	 */
+	private final class QueueDepth {
+		private final String address;
+		
+		// the number of pending tasks, or RETIRED
+		private final AtomicInteger pending = new AtomicInteger();
+		
+		// the channels that are held back by this address
+		private final Set<ChannelDepth> held = Collections.newSetFromMap(new ConcurrentHashMap<ChannelDepth, Boolean>());
+		
+		public QueueDepth(String address) {
+			this.address = address;
+		}
+		
+		/**
+		 * @param channelDepth the channel that sent the task
+		 * @return <b>false</b> if this depth has been retired and the address has to be looked up again
+		 */
+		private boolean increment(ChannelDepth channelDepth) {
+			int count;
+			
+			do {
+				count = pending.get();
+				
+				if (count == RETIRED) {
+					queues.remove(address, this);
+					return false;
+				}
+			} while (!pending.compareAndSet(count, count + 1));
+			
+			if (count + 1 >= settings.getQueueHighWaterMark() && settings.isEnabled() && !held.contains(channelDepth) && held.add(channelDepth)) {
+				channelDepth.hold();
+				
+				if (pending.get() <= settings.getQueueLowWaterMark()) {
+					releaseAll();
+				}
+			}
+			
+			return true;
+		}
+		
+		private void decrement() {
+			int count = pending.decrementAndGet();
+			
+			if (count <= settings.getQueueLowWaterMark() && !held.isEmpty()) {
+				releaseAll();
+			}
+			
+			if (count == 0 && pending.compareAndSet(0, RETIRED)) {
+				queues.remove(address, this);
+				
+				releaseAll();
+			}
+		}
+		
+		private void releaseAll() {
+			for (ChannelDepth channelDepth : held) {
+				if (held.remove(channelDepth)) {
+					channelDepth.release();
+				}
+			}
+		}
+	}
+	
+	private static final class CountedTask extends KixmppTask {
+		private final Task task;
+		private final ChannelDepth channelDepth;
+		private final QueueDepth queueDepth;
+		
+		public CountedTask(Task task, ChannelDepth channelDepth, QueueDepth queueDepth) {
+			this.task = task;
+			this.channelDepth = channelDepth;
+			this.queueDepth = queueDepth;
+		}
+		
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				if (queueDepth != null) {
+					queueDepth.decrement();
+				}
+				
+				channelDepth.decrement();
+			}
+		}
+	}
+}
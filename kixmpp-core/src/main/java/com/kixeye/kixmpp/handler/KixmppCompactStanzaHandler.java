@@ -0,0 +1,42 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+
+import com.kixeye.kixmpp.stanza.CompactStanza;
+
+/**
+ * Handles stanzas without needing a JDOM tree. The engine calls {@link #handle(Channel, CompactStanza)} for
+ * compact stanzas and {@link #handle(Channel, org.jdom2.Element)} for everything else, so implementations
+ * usually read the few values they need from either form and share the rest.
+ * 
+ * @author ebahtijaragic
+ */
+public interface KixmppCompactStanzaHandler extends KixmppStanzaHandler {
+	/**
+	 * Handles a compact stanza.
+	 * 
+	 * @param channel
+	 * @param stanza
+	 */
+	public void handle(Channel channel, CompactStanza stanza);
+}
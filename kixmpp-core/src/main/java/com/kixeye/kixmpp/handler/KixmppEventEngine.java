@@ -22,45 +22,85 @@ package com.kixeye.kixmpp.handler;
 
 import io.netty.channel.Channel;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
-import org.fusesource.hawtdispatch.Dispatch;
-import org.fusesource.hawtdispatch.DispatchQueue;
 import org.fusesource.hawtdispatch.Task;
 import org.jdom2.Element;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.kixeye.kixmpp.KixmppBackpressureSettings;
 import com.kixeye.kixmpp.KixmppJid;
+import com.kixeye.kixmpp.KixmppJidCache;
+import com.kixeye.kixmpp.KixmppStanzaBatch;
 import com.kixeye.kixmpp.KixmppStreamEnd;
 import com.kixeye.kixmpp.KixmppStreamStart;
+import com.kixeye.kixmpp.KixmppSymbols;
+import com.kixeye.kixmpp.handler.KixmppBackpressure.ChannelDepth;
+import com.kixeye.kixmpp.stanza.CompactStanza;
 import com.kixeye.kixmpp.tuple.Tuple;
 
 /**
- * An event engine that uses a {@link DispatchQueue}.
+ * An event engine that runs the handlers of each address and channel in order, on the executors of a
+ * {@link KixmppExecutionStrategy}. By default every address and channel gets its own HawtDispatch queue.
+ * 
+ * <p>Stanza handlers are published from an immutable dispatch table that is rebuilt whenever a stanza handler is
+ * registered or unregistered, so that routing a stanza does not allocate lookup keys. Handlers registered with a
+ * {@link KixmppStanzaRoute} are looked up by the type or the child namespaces of the stanza, so they never see the
+ * stanzas of their name that are meant for other handlers.</p>
+ * 
+ * <p>Stanzas to an address run in the lane of their {@link KixmppPriority}: presence stanzas in
+ * {@link KixmppPriority#PRESENCE}, messages in {@link KixmppPriority#MESSAGING} and everything else in
+ * {@link KixmppPriority#CONTROL}, unless set otherwise with {@link #setStanzaPriority(String, KixmppPriority)}.
+ * Ordering only holds within a lane. Stanzas without an address all run in the {@link KixmppPriority#CONTROL} lane
+ * of their channel, so a stream is handled in the order it was sent.</p>
+ * 
+ * <p>Stanzas and their handlers are measured while {@link KixmppEventEngineMetrics} are set. Nothing is measured
+ * or allocated for it otherwise.</p>
+ * 
+ * <p>With backpressure enabled, channels whose stanzas pile up stop reading until the handlers catch up. See
+ * {@link KixmppBackpressureSettings}.</p>
  * 
  * @author ebahtijaragic
  */
 public class KixmppEventEngine {
-	private static final String HANDLER_WILDCARD = "*";
-	
 	private final ConcurrentHashMap<Tuple, Set<KixmppStanzaHandler>> stanzaHandlers = new ConcurrentHashMap<>();
 	private final Set<KixmppConnectionHandler> connectionHandlers = Collections.newSetFromMap(new ConcurrentHashMap<KixmppConnectionHandler, Boolean>());
 	private final Set<KixmppStreamHandler> streamHandlers = Collections.newSetFromMap(new ConcurrentHashMap<KixmppStreamHandler, Boolean>());
 	private final Set<KixmppSessionHandler> sessionHandlers = Collections.newSetFromMap(new ConcurrentHashMap<KixmppSessionHandler, Boolean>());
+	private final ConcurrentHashMap<String, KixmppPriority> stanzaPriorities = new ConcurrentHashMap<>();
+	
+	private volatile DispatchTable dispatchTable;
+	private final KixmppJidCache recipientCache = new KixmppJidCache(1024);
+	private volatile KixmppEventEngineMetrics metrics;
 
-	private final LoadingCache<String, DispatchQueue> queues = CacheBuilder.newBuilder()
-			.expireAfterAccess(30, TimeUnit.SECONDS)
-			.build(new CacheLoader<String, DispatchQueue>() {
-				public DispatchQueue load(String key) throws Exception {
-					return Dispatch.createQueue(key);
-				}
-			});
+	private final KixmppExecutionStrategy executionStrategy;
+	
+	private final KixmppBackpressureSettings backpressureSettings = new KixmppBackpressureSettings();
+	private final KixmppBackpressure backpressure = new KixmppBackpressure(backpressureSettings);
+	
+	/**
+	 * Creates an engine with a HawtDispatch queue per address and channel.
+	 */
+	public KixmppEventEngine() {
+		this(new DispatchQueueExecutionStrategy());
+	}
+	
+	/**
+	 * @param executionStrategy
+	 */
+	public KixmppEventEngine(KixmppExecutionStrategy executionStrategy) {
+		this.executionStrategy = executionStrategy;
+		
+		stanzaPriorities.put("presence", KixmppPriority.PRESENCE);
+		stanzaPriorities.put("message", KixmppPriority.MESSAGING);
+		
+		rebuildDispatchTable();
+	}
 	
 	/**
 	 * Publishes a stanza.
@@ -69,91 +109,313 @@ public class KixmppEventEngine {
 	 * @param stanza
 	 */
 	public void publishStanza(Channel channel, Element stanza) {
-		String to = stanza.getAttributeValue("to");
+		publishStanza(channel, stanza.getAttributeValue("to"), KixmppSymbols.qualifiedName(stanza.getNamespacePrefix(), stanza.getName()), stanza, null, null);
+	}
+	
+	/**
+	 * Publishes a compact stanza. {@link KixmppCompactStanzaHandler}s get the stanza as is, other handlers get
+	 * its JDOM form.
+	 * 
+	 * @param channel
+	 * @param stanza
+	 */
+	public void publishStanza(Channel channel, CompactStanza stanza) {
+		publishStanza(channel, stanza.getAttributeValue("to"), stanza.getQualifiedName(), null, stanza, null);
+	}
+	
+	/**
+	 * Publishes the stanzas that were received together. The handler calls for each queue are collected into a single
+	 * task, which runs them in the order of the stanzas.
+	 * 
+	 * @param channel
+	 * @param batch
+	 */
+	public void publishStanzas(Channel channel, KixmppStanzaBatch batch) {
+		StanzaBatch tasks = new StanzaBatch();
 		
-		DispatchQueue queue;
+		for (Object stanza : batch.getStanzas()) {
+			if (stanza instanceof CompactStanza) {
+				CompactStanza compactStanza = (CompactStanza)stanza;
+				
+				publishStanza(channel, compactStanza.getAttributeValue("to"), compactStanza.getQualifiedName(), null, compactStanza, tasks);
+			} else {
+				Element element = (Element)stanza;
+				
+				publishStanza(channel, element.getAttributeValue("to"), KixmppSymbols.qualifiedName(element.getNamespacePrefix(), element.getName()), element, null, tasks);
+			}
+		}
 		
-		try {
+		tasks.execute();
+	}
+	
+	/**
+	 * Publishes a stanza in either form.
+	 * 
+	 * @param channel
+	 * @param to
+	 * @param qualifiedName
+	 * @param stanza
+	 * @param compactStanza
+	 * @param batch collects the tasks instead of executing them, null to execute them right away
+	 */
+	private void publishStanza(Channel channel, String to, String qualifiedName, Element stanza, CompactStanza compactStanza, StanzaBatch batch) {
+		DispatchTable dispatchTable = this.dispatchTable;
+		
+		KixmppPriority priority = to == null ? KixmppPriority.CONTROL : dispatchTable.getPriority(qualifiedName);
+		KixmppSerialExecutor queue;
+		
+		if (batch != null && batch.hasQueue(to, priority)) {
+			// consecutive stanzas usually go to the same queue
+			queue = batch.getQueue();
+		} else {
 			if (to != null) {
-				queue = queues.get("address:" + to);
+				queue = executionStrategy.getAddressExecutor(to, priority);
 			} else {
-				queue = queues.get("channel:" + channel.hashCode());
+				queue = executionStrategy.getChannelExecutor(channel, priority);
+			}
+			
+			if (batch != null) {
+				batch.setQueue(to, priority, queue);
 			}
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
 		}
 		
-		if (to != null) {
-			Set<KixmppStanzaHandler> recipientHandlers = stanzaHandlers.get(Tuple.from(stanza.getQualifiedName(), KixmppJid.fromRawJid(to)));
+		KixmppEventEngineMetrics metrics = this.metrics;
+		
+		if (metrics != null) {
+			metrics.stanzaPublished(qualifiedName, priority);
+		}
+		
+		ChannelDepth channelDepth = backpressureSettings.isEnabled() || metrics != null ? backpressure.getChannelDepth(channel) : null;
+		
+		if (to != null && dispatchTable.hasRecipientHandlers()) {
+			StanzaRoutes recipientRoutes = dispatchTable.getRecipientRoutes(recipientCache.fromRawJid(to), qualifiedName);
 			
-			if (recipientHandlers != null) {
-				for (KixmppStanzaHandler handler : recipientHandlers) {
-					queue.execute(new ExecuteStanzaHandler(handler, channel, stanza));
+			publishStanza(recipientRoutes, channel, to, qualifiedName, stanza, compactStanza, queue, channelDepth, metrics, batch);
+		}
+		
+		StanzaRoutes globalRoutes = dispatchTable.getGlobalRoutes(qualifiedName);
+		
+		publishStanza(globalRoutes, channel, to, qualifiedName, stanza, compactStanza, queue, channelDepth, metrics, batch);
+	}
+	
+	/**
+	 * Publishes a stanza to the handlers of the routes it matches: the ones that are not keyed, then the ones keyed
+	 * by its type and then the ones keyed by the namespaces of its child elements.
+	 * 
+	 * @param routes
+	 * @param channel
+	 * @param to
+	 * @param qualifiedName
+	 * @param stanza
+	 * @param compactStanza
+	 * @param queue
+	 * @param channelDepth
+	 * @param metrics
+	 * @param batch
+	 */
+	private void publishStanza(StanzaRoutes routes, Channel channel, String to, String qualifiedName, Element stanza, CompactStanza compactStanza,
+			KixmppSerialExecutor queue, ChannelDepth channelDepth, KixmppEventEngineMetrics metrics, StanzaBatch batch) {
+		String type = null;
+		
+		if (routes.hasTypes()) {
+			type = compactStanza == null ? stanza.getAttributeValue("type") : compactStanza.getAttributeValue("type");
+		}
+		
+		publishStanza(routes.getRoutes(), type, channel, to, qualifiedName, stanza, compactStanza, queue, channelDepth, metrics, batch);
+		
+		if (type != null) {
+			publishStanza(routes.getRoutesByType(type), type, channel, to, qualifiedName, stanza, compactStanza, queue, channelDepth, metrics, batch);
+		}
+		
+		if (routes.hasNamespaces()) {
+			if (compactStanza == null) {
+				List<Element> children = stanza.getChildren();
+				
+				for (int i = 0; i < children.size(); i++) {
+					String namespace = children.get(i).getNamespaceURI();
+					
+					if (!isNamespaceBefore(children, i, namespace)) {
+						publishStanza(routes.getRoutesByNamespace(namespace), type, channel, to, qualifiedName, stanza, compactStanza, queue, channelDepth, metrics, batch);
+					}
+				}
+			} else {
+				for (int i = 0, count = compactStanza.getChildCount(); i < count; i++) {
+					String namespace = compactStanza.getChildNamespaceURI(i);
+					
+					if (!isNamespaceBefore(compactStanza, i, namespace)) {
+						publishStanza(routes.getRoutesByNamespace(namespace), type, channel, to, qualifiedName, stanza, compactStanza, queue, channelDepth, metrics, batch);
+					}
 				}
 			}
+		}
+	}
+	
+	/**
+	 * Publishes a stanza to the handlers of the routes whose type and predicate match it.
+	 * 
+	 * @param routes
+	 * @param type
+	 * @param channel
+	 * @param to
+	 * @param qualifiedName
+	 * @param stanza
+	 * @param compactStanza
+	 * @param queue
+	 * @param channelDepth
+	 * @param metrics
+	 * @param batch
+	 */
+	private void publishStanza(Route[] routes, String type, Channel channel, String to, String qualifiedName, Element stanza, CompactStanza compactStanza,
+			KixmppSerialExecutor queue, ChannelDepth channelDepth, KixmppEventEngineMetrics metrics, StanzaBatch batch) {
+		for (int i = 0; i < routes.length; i++) {
+			Route route = routes[i];
 			
-			recipientHandlers = stanzaHandlers.get(Tuple.from(HANDLER_WILDCARD, KixmppJid.fromRawJid(to)));
-			
-			if (recipientHandlers != null) {
-				for (KixmppStanzaHandler handler : recipientHandlers) {
-					queue.execute(new ExecuteStanzaHandler(handler, channel, stanza));
-				}
+			if (route.matches(type, channel, stanza, compactStanza)) {
+				execute(queue, createStanzaTask(route.getHandler(), channel, to, qualifiedName, stanza, compactStanza, channelDepth, metrics), batch);
+			}
+		}
+	}
+	
+	/**
+	 * @param children
+	 * @param index
+	 * @param namespace
+	 * @return <b>true</b> if a child before the index has the namespace, so its handlers already got the stanza
+	 */
+	private static boolean isNamespaceBefore(List<Element> children, int index, String namespace) {
+		for (int i = 0; i < index; i++) {
+			if (namespace.equals(children.get(i).getNamespaceURI())) {
+				return true;
 			}
 		}
 		
-		Set<KixmppStanzaHandler> globalHandlers = stanzaHandlers.get(Tuple.from(stanza.getQualifiedName()));
-		
-		if (globalHandlers != null) {
-			for (KixmppStanzaHandler handler : globalHandlers) {
-				queue.execute(new ExecuteStanzaHandler(handler, channel, stanza));
+		return false;
+	}
+	
+	/**
+	 * @param stanza
+	 * @param index
+	 * @param namespace
+	 * @return <b>true</b> if a child before the index has the namespace, so its handlers already got the stanza
+	 */
+	private static boolean isNamespaceBefore(CompactStanza stanza, int index, String namespace) {
+		for (int i = 0; i < index; i++) {
+			if (namespace.equals(stanza.getChildNamespaceURI(i))) {
+				return true;
 			}
 		}
 		
-		globalHandlers = stanzaHandlers.get(Tuple.from(HANDLER_WILDCARD));
+		return false;
+	}
+	
+	/**
+	 * Creates the task that runs a handler, measured and counted in if needed.
+	 * 
+	 * @param handler
+	 * @param channel
+	 * @param to
+	 * @param qualifiedName
+	 * @param stanza
+	 * @param compactStanza
+	 * @param channelDepth the depth of the channel the stanza came from, null if nothing is counted
+	 * @param metrics null if nothing is measured
+	 * @return
+	 */
+	private Task createStanzaTask(KixmppStanzaHandler handler, Channel channel, String to, String qualifiedName, Element stanza, CompactStanza compactStanza,
+			ChannelDepth channelDepth, KixmppEventEngineMetrics metrics) {
+		Task task = createStanzaTask(handler, channel, stanza, compactStanza);
 		
-		if (globalHandlers != null) {
-			for (KixmppStanzaHandler handler : globalHandlers) {
-				queue.execute(new ExecuteStanzaHandler(handler, channel, stanza));
-			}
+		if (metrics != null) {
+			task = new MeasuredStanzaHandler(task, metrics, qualifiedName, handler);
 		}
+		
+		if (channelDepth != null) {
+			task = backpressure.countIn(task, channelDepth, to);
+		}
+		
+		return task;
 	}
 	
 	/**
-	 * Published an arbitrary task for serial execution.
+	 * @param queue
+	 * @param task
+	 * @param batch collects the task instead of executing it, null to execute it right away
+	 */
+	private static void execute(KixmppSerialExecutor queue, Task task, StanzaBatch batch) {
+		if (batch == null) {
+			queue.execute(task);
+		} else {
+			batch.add(queue, task);
+		}
+	}
+	
+	/**
+	 * Creates the task that runs a handler for either form of a stanza.
+	 * 
+	 * @param handler
+	 * @param channel
+	 * @param stanza
+	 * @param compactStanza
+	 * @return
+	 */
+	private static Task createStanzaTask(KixmppStanzaHandler handler, Channel channel, Element stanza, CompactStanza compactStanza) {
+		if (compactStanza == null) {
+			return new ExecuteStanzaHandler(handler, channel, stanza);
+		} else if (handler instanceof KixmppCompactStanzaHandler) {
+			return new ExecuteCompactStanzaHandler((KixmppCompactStanzaHandler)handler, channel, compactStanza);
+		} else {
+			return new ExecuteMaterializedStanzaHandler(handler, channel, compactStanza);
+		}
+	}
+	
+	/**
+	 * Published an arbitrary task for serial execution, in the {@link KixmppPriority#MESSAGING} lane.
 	 * 
 	 * @param jid
 	 * @param task
 	 */
 	public void publishTask(KixmppJid jid, Task task) {
-		DispatchQueue queue;
+		publishTask(jid, KixmppPriority.MESSAGING, task);
+	}
+	
+	/**
+	 * Published an arbitrary task for serial execution.
+	 * 
+	 * @param jid
+	 * @param priority
+	 * @param task
+	 */
+	public void publishTask(KixmppJid jid, KixmppPriority priority, Task task) {
+		KixmppSerialExecutor queue;
 		
-		try {
-            if (jid != null) {
-                queue = queues.get("address:" + jid.getFullJid());
-            } else {
-                queue = queues.get("default");
-            }
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
+		if (jid != null) {
+			queue = executionStrategy.getAddressExecutor(jid.getFullJid(), priority);
+		} else {
+			queue = executionStrategy.getDefaultExecutor(priority);
 		}
 		
 		queue.execute(task);
 	}
 	
 	/**
-	 * Published an arbitrary task for serial execution.
+	 * Published an arbitrary task for serial execution, in the {@link KixmppPriority#CONTROL} lane.
 	 * 
 	 * @param channel
 	 * @param task
 	 */
 	public void publishTask(Channel channel, Task task) {
-		DispatchQueue queue;
-		
-		try {
-			queue = queues.get("channel:" + channel.hashCode());
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		publishTask(channel, KixmppPriority.CONTROL, task);
+	}
+	
+	/**
+	 * Published an arbitrary task for serial execution.
+	 * 
+	 * @param channel
+	 * @param priority
+	 * @param task
+	 */
+	public void publishTask(Channel channel, KixmppPriority priority, Task task) {
+		KixmppSerialExecutor queue = executionStrategy.getChannelExecutor(channel, priority);
 
 		queue.execute(task);
 	}
@@ -164,13 +426,7 @@ public class KixmppEventEngine {
 	 * @param channel
 	 */
 	public void publishConnected(Channel channel) {
-		DispatchQueue queue;
-		
-		try {
-			queue = queues.get("channel:" + channel.hashCode());
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		KixmppSerialExecutor queue = executionStrategy.getChannelExecutor(channel, KixmppPriority.CONTROL);
 		
 		for (KixmppConnectionHandler handler : connectionHandlers) {
 			queue.execute(new ExecuteConnectionConnectedHandler(handler, channel));
@@ -183,13 +439,7 @@ public class KixmppEventEngine {
 	 * @param channel
 	 */
 	public void publishDisconnected(Channel channel) {
-		DispatchQueue queue;
-		
-		try {
-			queue = queues.get("channel:" + channel.hashCode());
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		KixmppSerialExecutor queue = executionStrategy.getChannelExecutor(channel, KixmppPriority.CONTROL);
 		
 		for (KixmppConnectionHandler handler : connectionHandlers) {
 			queue.execute(new ExecuteConnectionDisconnectedHandler(handler, channel));
@@ -203,13 +453,7 @@ public class KixmppEventEngine {
 	 * @param streamStart
 	 */
 	public void publishStreamStart(Channel channel, KixmppStreamStart streamStart) {
-		DispatchQueue queue;
-		
-		try {
-			queue = queues.get("channel:" + channel.hashCode());
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		KixmppSerialExecutor queue = executionStrategy.getChannelExecutor(channel, KixmppPriority.CONTROL);
 		
 		for (KixmppStreamHandler handler : streamHandlers) {
 			queue.execute(new ExecuteStreamStartHandler(handler, channel, streamStart));
@@ -223,13 +467,7 @@ public class KixmppEventEngine {
 	 * @param streamEnd
 	 */
 	public void publishStreamEnd(Channel channel, KixmppStreamEnd streamEnd) {
-		DispatchQueue queue;
-		
-		try {
-			queue = queues.get("channel:" + channel.hashCode());
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		KixmppSerialExecutor queue = executionStrategy.getChannelExecutor(channel, KixmppPriority.CONTROL);
 		
 		for (KixmppStreamHandler handler : streamHandlers) {
 			queue.execute(new ExecuteStreamEndHandler(handler, channel, streamEnd));
@@ -242,13 +480,7 @@ public class KixmppEventEngine {
 	 * @param channel
 	 */
 	public void publishSessionStart(Channel channel) {
-		DispatchQueue queue;
-
-		try {
-			queue = queues.get("channel:" + channel.hashCode());
-		} catch (ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		KixmppSerialExecutor queue = executionStrategy.getChannelExecutor(channel, KixmppPriority.CONTROL);
 
 		for (KixmppSessionHandler handler : sessionHandlers) {
 			queue.execute(new ExecuteSessionStartHandler(handler, channel));
@@ -309,6 +541,17 @@ public class KixmppEventEngine {
 		sessionHandlers.remove(handler);
 	}
 
+	/**
+	 * Registers a stanza handler for the stanzas to a recipient that match a route.
+	 * 
+	 * @param jid
+	 * @param route
+	 * @param handler
+	 */
+	public void registerStanzaHandler(KixmppJid jid, KixmppStanzaRoute route, KixmppStanzaHandler handler) {
+		registerStanzaHandler(Tuple.from(route, jid), handler);
+	}
+	
 	/**
 	 * Registers a stanza handler.
 	 * 
@@ -317,21 +560,7 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void registerStanzaHandler(KixmppJid jid, String qualifiedName, KixmppStanzaHandler handler) {
-		Tuple key = Tuple.from(qualifiedName, jid);
-		
-		Set<KixmppStanzaHandler> handlers = stanzaHandlers.get(key);
-		
-		if (handlers == null) {
-			Set<KixmppStanzaHandler> newHandlers = Collections.newSetFromMap(new ConcurrentHashMap<KixmppStanzaHandler, Boolean>());
-			
-			handlers = stanzaHandlers.putIfAbsent(key, newHandlers);
-			
-			if (handlers == null) {
-				handlers = newHandlers;
-			}
-        }
-		
-		handlers.add(handler);
+		registerStanzaHandler(jid, new KixmppStanzaRoute(qualifiedName), handler);
 	}
 	
 	/**
@@ -341,7 +570,17 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void registerStanzaHandler(KixmppJid jid, KixmppStanzaHandler handler) {
-		registerStanzaHandler(jid, HANDLER_WILDCARD, handler);
+		registerStanzaHandler(jid, KixmppStanzaRoute.ANY, handler);
+	}
+	
+	/**
+	 * Registers a stanza handler for the stanzas that match a route.
+	 * 
+	 * @param route
+	 * @param handler
+	 */
+	public void registerGlobalStanzaHandler(KixmppStanzaRoute route, KixmppStanzaHandler handler) {
+		registerStanzaHandler(Tuple.from(route), handler);
 	}
 	
 	/**
@@ -350,8 +589,25 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void registerGlobalStanzaHandler(String qualifiedName, KixmppStanzaHandler handler) {
-		Tuple key = Tuple.from(qualifiedName);
-		
+		registerGlobalStanzaHandler(new KixmppStanzaRoute(qualifiedName), handler);
+	}
+	
+	/**
+	 * Registers a stanza handler.
+	 * 
+	 * @param handler
+	 */
+	public void registerGlobalStanzaHandler(KixmppStanzaHandler handler) {
+		registerGlobalStanzaHandler(KixmppStanzaRoute.ANY, handler);
+	}
+	
+	/**
+	 * Registers a stanza handler.
+	 * 
+	 * @param key the route and, for a recipient, the jid
+	 * @param handler
+	 */
+	private void registerStanzaHandler(Tuple key, KixmppStanzaHandler handler) {
 		Set<KixmppStanzaHandler> handlers = stanzaHandlers.get(key);
 		
 		if (handlers == null) {
@@ -365,15 +621,19 @@ public class KixmppEventEngine {
         }
 		
 		handlers.add(handler);
+		
+		rebuildDispatchTable();
 	}
-	
+
 	/**
-	 * Registers a stanza handler.
+	 * Unregisters a stanza handler from a route.
 	 * 
+	 * @param jid
+	 * @param route
 	 * @param handler
 	 */
-	public void registerGlobalStanzaHandler(KixmppStanzaHandler handler) {
-		registerGlobalStanzaHandler(HANDLER_WILDCARD, handler);
+	public void unregisterStanzaHandler(KixmppJid jid, KixmppStanzaRoute route, KixmppStanzaHandler handler) {
+		unregisterStanzaHandler(Tuple.from(route, jid), handler);
 	}
 
 	/**
@@ -384,11 +644,7 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void unregisterStanzaHandler(KixmppJid jid, String qualifiedName, KixmppStanzaHandler handler) {
-		Set<KixmppStanzaHandler> handlers = stanzaHandlers.get(Tuple.from(qualifiedName, jid));
-		
-		if (handlers != null) {
-			handlers.remove(handler);
-		}
+		unregisterStanzaHandler(jid, new KixmppStanzaRoute(qualifiedName), handler);
 	}
 	
 	/**
@@ -398,7 +654,17 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void unregisterStanzaHandler(KixmppJid jid, KixmppStanzaHandler handler) {
-		unregisterStanzaHandler(jid, HANDLER_WILDCARD, handler);
+		unregisterStanzaHandler(jid, KixmppStanzaRoute.ANY, handler);
+	}
+	
+	/**
+	 * Unregisters a stanza handler from a route.
+	 * 
+	 * @param route
+	 * @param handler
+	 */
+	public void unregisterGlobalStanzaHandler(KixmppStanzaRoute route, KixmppStanzaHandler handler) {
+		unregisterStanzaHandler(Tuple.from(route), handler);
 	}
 	
 	/**
@@ -408,11 +674,7 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void unregisterGlobalStanzaHandler(String qualifiedName, KixmppStanzaHandler handler) {
-		Set<KixmppStanzaHandler> handlers = stanzaHandlers.get(Tuple.from(qualifiedName));
-		
-		if (handlers != null) {
-			handlers.remove(handler);
-		}
+		unregisterGlobalStanzaHandler(new KixmppStanzaRoute(qualifiedName), handler);
 	}
 	
 	/**
@@ -421,7 +683,97 @@ public class KixmppEventEngine {
 	 * @param handler
 	 */
 	public void unregisterGlobalStanzaHandler(KixmppStanzaHandler handler) {
-		unregisterGlobalStanzaHandler(HANDLER_WILDCARD, handler);
+		unregisterGlobalStanzaHandler(KixmppStanzaRoute.ANY, handler);
+	}
+	
+	/**
+	 * Unregisters a stanza handler.
+	 * 
+	 * @param key the route and, for a recipient, the jid
+	 * @param handler
+	 */
+	private void unregisterStanzaHandler(Tuple key, KixmppStanzaHandler handler) {
+		Set<KixmppStanzaHandler> handlers = stanzaHandlers.get(key);
+		
+		if (handlers != null && handlers.remove(handler)) {
+			rebuildDispatchTable();
+		}
+	}
+	
+	/**
+	 * Sets the lane that the stanzas with a qualified name run in when they are sent to an address.
+	 * 
+	 * @param qualifiedName
+	 * @param priority
+	 */
+	public void setStanzaPriority(String qualifiedName, KixmppPriority priority) {
+		stanzaPriorities.put(qualifiedName, priority);
+		
+		rebuildDispatchTable();
+	}
+	
+	/**
+	 * @param qualifiedName
+	 * @return the lane that the stanzas with the qualified name run in when they are sent to an address
+	 */
+	public KixmppPriority getStanzaPriority(String qualifiedName) {
+		return dispatchTable.getPriority(qualifiedName);
+	}
+	
+	/**
+	 * @param metrics the metrics to measure stanzas with, null to stop measuring
+	 */
+	public void setMetrics(KixmppEventEngineMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @return the metrics that stanzas are measured with, null if they are not measured
+	 */
+	public KixmppEventEngineMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Gets the number of addresses that have stanza handlers waiting or running. Addresses are only tracked while
+	 * metrics are set or backpressure is enabled.
+	 * 
+	 * @return
+	 */
+	public int getQueueCount() {
+		return backpressure.getQueueCount();
+	}
+	
+	/**
+	 * Gets the addresses with the most stanza handlers waiting or running. Addresses are only tracked while metrics
+	 * are set or backpressure is enabled.
+	 * 
+	 * @param count the number of addresses to return
+	 * @return the addresses and their number of handlers, most first
+	 */
+	public Map<String, Integer> getDeepestQueues(int count) {
+		return backpressure.getDeepestQueues(count);
+	}
+	
+	/**
+	 * @return the backpressure settings, which apply to stanzas published after they are changed
+	 */
+	public KixmppBackpressureSettings getBackpressureSettings() {
+		return backpressureSettings;
+	}
+	
+	/**
+	 * @return the backpressure tracker
+	 */
+	KixmppBackpressure getBackpressure() {
+		return backpressure;
+	}
+	
+	/**
+	 * @return the strategy that decides which executor runs the handlers
+	 */
+	public KixmppExecutionStrategy getExecutionStrategy() {
+		return executionStrategy;
 	}
 	
 	/**
@@ -432,9 +784,345 @@ public class KixmppEventEngine {
 		connectionHandlers.clear();
 		streamHandlers.clear();
 		sessionHandlers.clear();
+		
+		rebuildDispatchTable();
+	}
+	
+	/**
+	 * Rebuilds the dispatch table from the registered stanza handlers. Every rebuild reads the handlers after its own
+	 * change was made, so the last table to be published has all the changes.
+	 */
+	private synchronized void rebuildDispatchTable() {
+		Map<String, List<Route>> globalRoutes = new HashMap<>();
+		Map<KixmppJid, Map<String, List<Route>>> recipientRoutes = new HashMap<>();
+		
+		for (Map.Entry<Tuple, Set<KixmppStanzaHandler>> entry : stanzaHandlers.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				continue;
+			}
+			
+			Tuple key = entry.getKey();
+			KixmppStanzaRoute route = key.get(0);
+			
+			Map<String, List<Route>> routesByName;
+			
+			if (key.size() == 1) {
+				routesByName = globalRoutes;
+			} else {
+				KixmppJid jid = key.get(1);
+				
+				routesByName = recipientRoutes.get(jid);
+				
+				if (routesByName == null) {
+					recipientRoutes.put(jid, routesByName = new HashMap<>());
+				}
+			}
+			
+			List<Route> routes = routesByName.get(route.getQualifiedName());
+			
+			if (routes == null) {
+				routesByName.put(route.getQualifiedName(), routes = new ArrayList<>());
+			}
+			
+			for (KixmppStanzaHandler handler : entry.getValue()) {
+				routes.add(new Route(route, handler));
+			}
+		}
+		
+		HashMap<KixmppJid, RoutesByName> recipientTable = new HashMap<>();
+		
+		for (Map.Entry<KixmppJid, Map<String, List<Route>>> entry : recipientRoutes.entrySet()) {
+			recipientTable.put(entry.getKey(), new RoutesByName(entry.getValue()));
+		}
+		
+		dispatchTable = new DispatchTable(new RoutesByName(globalRoutes), recipientTable, new HashMap<>(stanzaPriorities));
+	}
+	
+	/**
+	 * An immutable snapshot of the registered stanza handlers.
+	 */
+	private static class DispatchTable {
+		private final RoutesByName globalRoutes;
+		private final HashMap<KixmppJid, RoutesByName> recipientRoutes;
+		private final HashMap<String, KixmppPriority> priorities;
+		
+		public DispatchTable(RoutesByName globalRoutes, HashMap<KixmppJid, RoutesByName> recipientRoutes, HashMap<String, KixmppPriority> priorities) {
+			this.globalRoutes = globalRoutes;
+			this.recipientRoutes = recipientRoutes;
+			this.priorities = priorities;
+		}
+		
+		public KixmppPriority getPriority(String qualifiedName) {
+			KixmppPriority priority = priorities.get(qualifiedName);
+			
+			return priority == null ? KixmppPriority.CONTROL : priority;
+		}
+		
+		/**
+		 * @return <b>true</b> if any handler is registered for a recipient, otherwise the recipient need not be parsed
+		 */
+		public boolean hasRecipientHandlers() {
+			return !recipientRoutes.isEmpty();
+		}
+		
+		public StanzaRoutes getRecipientRoutes(KixmppJid jid, String qualifiedName) {
+			RoutesByName routes = recipientRoutes.get(jid);
+			
+			return routes == null ? StanzaRoutes.NO_ROUTES : routes.get(qualifiedName);
+		}
+		
+		public StanzaRoutes getGlobalRoutes(String qualifiedName) {
+			return globalRoutes.get(qualifiedName);
+		}
 	}
 	
-	private static class ExecuteStanzaHandler extends Task {
+	/**
+	 * The routes of one recipient, or the global ones. The routes for each qualified name are stored together with
+	 * the wildcard routes, which follow them, so that a stanza needs a single lookup.
+	 */
+	private static class RoutesByName {
+		private final HashMap<String, StanzaRoutes> routes = new HashMap<>();
+		private final StanzaRoutes wildcardRoutes;
+		
+		public RoutesByName(Map<String, List<Route>> routesByName) {
+			List<Route> wildcardRoutes = routesByName.get(KixmppStanzaRoute.ANY);
+			
+			if (wildcardRoutes == null) {
+				wildcardRoutes = Collections.emptyList();
+			}
+			
+			this.wildcardRoutes = new StanzaRoutes(wildcardRoutes);
+			
+			for (Map.Entry<String, List<Route>> entry : routesByName.entrySet()) {
+				if (KixmppStanzaRoute.ANY.equals(entry.getKey())) {
+					continue;
+				}
+				
+				List<Route> routes = new ArrayList<>(entry.getValue());
+				routes.addAll(wildcardRoutes);
+				
+				this.routes.put(entry.getKey(), new StanzaRoutes(routes));
+			}
+		}
+		
+		public StanzaRoutes get(String qualifiedName) {
+			StanzaRoutes routes = this.routes.get(qualifiedName);
+			
+			return routes == null ? wildcardRoutes : routes;
+		}
+	}
+	
+	/**
+	 * The routes for one qualified name, keyed by namespace if they have one, otherwise by type if they have one.
+	 */
+	private static class StanzaRoutes {
+		public static final Route[] NONE = new Route[0];
+		public static final StanzaRoutes NO_ROUTES = new StanzaRoutes(Collections.<Route>emptyList());
+		
+		private final Route[] routes;
+		private final HashMap<String, Route[]> routesByType = new HashMap<>();
+		private final HashMap<String, Route[]> routesByNamespace = new HashMap<>();
+		private final boolean hasTypes;
+		
+		public StanzaRoutes(List<Route> routes) {
+			List<Route> unkeyedRoutes = new ArrayList<>();
+			Map<String, List<Route>> routesByType = new HashMap<>();
+			Map<String, List<Route>> routesByNamespace = new HashMap<>();
+			boolean hasTypes = false;
+			
+			for (Route route : routes) {
+				if (route.getNamespace() != null) {
+					add(routesByNamespace, route.getNamespace(), route);
+				} else if (route.getType() != null) {
+					add(routesByType, route.getType(), route);
+				} else {
+					unkeyedRoutes.add(route);
+				}
+				
+				hasTypes |= route.getType() != null;
+			}
+			
+			this.routes = unkeyedRoutes.toArray(NONE);
+			
+			for (Map.Entry<String, List<Route>> entry : routesByType.entrySet()) {
+				this.routesByType.put(entry.getKey(), entry.getValue().toArray(NONE));
+			}
+			
+			for (Map.Entry<String, List<Route>> entry : routesByNamespace.entrySet()) {
+				this.routesByNamespace.put(entry.getKey(), entry.getValue().toArray(NONE));
+			}
+			
+			this.hasTypes = hasTypes;
+		}
+		
+		private static void add(Map<String, List<Route>> routesByKey, String key, Route route) {
+			List<Route> routes = routesByKey.get(key);
+			
+			if (routes == null) {
+				routesByKey.put(key, routes = new ArrayList<>());
+			}
+			
+			routes.add(route);
+		}
+		
+		/**
+		 * @return <b>true</b> if any route matches on the type, otherwise the type need not be read
+		 */
+		public boolean hasTypes() {
+			return hasTypes;
+		}
+		
+		/**
+		 * @return <b>true</b> if any route is keyed by namespace, otherwise the children need not be read
+		 */
+		public boolean hasNamespaces() {
+			return !routesByNamespace.isEmpty();
+		}
+		
+		/**
+		 * @return the routes that are not keyed
+		 */
+		public Route[] getRoutes() {
+			return routes;
+		}
+		
+		public Route[] getRoutesByType(String type) {
+			Route[] routes = routesByType.get(type);
+			
+			return routes == null ? NONE : routes;
+		}
+		
+		public Route[] getRoutesByNamespace(String namespace) {
+			Route[] routes = routesByNamespace.get(namespace);
+			
+			return routes == null ? NONE : routes;
+		}
+	}
+	
+	/**
+	 * A handler and the route it was registered with.
+	 */
+	private static class Route {
+		private final KixmppStanzaHandler handler;
+		private final String type;
+		private final String namespace;
+		private final KixmppStanzaPredicate predicate;
+		
+		public Route(KixmppStanzaRoute route, KixmppStanzaHandler handler) {
+			this.handler = handler;
+			this.type = route.getType();
+			this.namespace = route.getNamespace();
+			this.predicate = route.getPredicate();
+		}
+		
+		public KixmppStanzaHandler getHandler() {
+			return handler;
+		}
+		
+		public String getType() {
+			return type;
+		}
+		
+		public String getNamespace() {
+			return namespace;
+		}
+		
+		/**
+		 * Matches the type and predicate of a stanza. The name and namespace are matched by the lookup.
+		 * 
+		 * @param type
+		 * @param channel
+		 * @param stanza
+		 * @param compactStanza
+		 * @return
+		 */
+		public boolean matches(String type, Channel channel, Element stanza, CompactStanza compactStanza) {
+			if (this.type != null && !this.type.equals(type)) {
+				return false;
+			}
+			
+			if (predicate == null) {
+				return true;
+			} else if (compactStanza == null) {
+				return predicate.matches(channel, stanza);
+			} else if (predicate instanceof KixmppCompactStanzaPredicate) {
+				return ((KixmppCompactStanzaPredicate)predicate).matches(channel, compactStanza);
+			} else {
+				return predicate.matches(channel, compactStanza.toElement());
+			}
+		}
+	}
+	
+	/**
+	 * The tasks of a stanza batch, grouped by queue. A batch rarely spans more than a couple of queues, so they are
+	 * looked up by identity in a list.
+	 */
+	private static class StanzaBatch {
+		private final ArrayList<KixmppSerialExecutor> queues = new ArrayList<>(2);
+		private final ArrayList<ExecuteTasks> tasks = new ArrayList<>(2);
+		
+		private String lastTo;
+		private KixmppPriority lastPriority;
+		private KixmppSerialExecutor lastQueue;
+		
+		/**
+		 * @param to
+		 * @param priority
+		 * @return <b>true</b> if the last stanza went to the same address, or to the channel like this one, in the same lane
+		 */
+		public boolean hasQueue(String to, KixmppPriority priority) {
+			return lastQueue != null && priority == lastPriority && (to == null ? lastTo == null : to.equals(lastTo));
+		}
+		
+		public KixmppSerialExecutor getQueue() {
+			return lastQueue;
+		}
+		
+		public void setQueue(String to, KixmppPriority priority, KixmppSerialExecutor queue) {
+			this.lastTo = to;
+			this.lastPriority = priority;
+			this.lastQueue = queue;
+		}
+		
+		public void add(KixmppSerialExecutor queue, Task task) {
+			for (int i = 0; i < queues.size(); i++) {
+				if (queues.get(i) == queue) {
+					tasks.get(i).tasks.add(task);
+					return;
+				}
+			}
+			
+			ExecuteTasks queueTasks = new ExecuteTasks();
+			queueTasks.tasks.add(task);
+			
+			queues.add(queue);
+			tasks.add(queueTasks);
+		}
+		
+		public void execute() {
+			for (int i = 0; i < queues.size(); i++) {
+				queues.get(i).execute(tasks.get(i));
+			}
+		}
+	}
+	
+	private static class ExecuteTasks extends KixmppTask {
+		private final ArrayList<Task> tasks = new ArrayList<>(4);
+		
+		public void run() {
+			for (Task task : tasks) {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					// same as the queue does for a single task, the rest of the batch still runs
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+			}
+		}
+	}
+	
+	private static class ExecuteStanzaHandler extends KixmppTask {
 		private final KixmppStanzaHandler handler;
 		private final Channel channel;
 		private final Element stanza;
@@ -450,7 +1138,64 @@ public class KixmppEventEngine {
 		}
 	}
 	
-	private static class ExecuteConnectionConnectedHandler extends Task {
+	private static class MeasuredStanzaHandler extends KixmppTask {
+		private final Task task;
+		private final KixmppEventEngineMetrics metrics;
+		private final String qualifiedName;
+		private final KixmppStanzaHandler handler;
+		private final long publishedNanos = System.nanoTime();
+		
+		public MeasuredStanzaHandler(Task task, KixmppEventEngineMetrics metrics, String qualifiedName, KixmppStanzaHandler handler) {
+			this.task = task;
+			this.metrics = metrics;
+			this.qualifiedName = qualifiedName;
+			this.handler = handler;
+		}
+
+		public void run() {
+			long startNanos = System.nanoTime();
+			
+			try {
+				task.run();
+			} finally {
+				metrics.stanzaHandled(qualifiedName, handler, startNanos - publishedNanos, System.nanoTime() - startNanos);
+			}
+		}
+	}
+	
+	private static class ExecuteCompactStanzaHandler extends KixmppTask {
+		private final KixmppCompactStanzaHandler handler;
+		private final Channel channel;
+		private final CompactStanza stanza;
+		
+		public ExecuteCompactStanzaHandler(KixmppCompactStanzaHandler handler, Channel channel, CompactStanza stanza) {
+			this.handler = handler;
+			this.channel = channel;
+			this.stanza = stanza;
+		}
+
+		public void run() {
+			handler.handle(channel, stanza);
+		}
+	}
+	
+	private static class ExecuteMaterializedStanzaHandler extends KixmppTask {
+		private final KixmppStanzaHandler handler;
+		private final Channel channel;
+		private final CompactStanza stanza;
+		
+		public ExecuteMaterializedStanzaHandler(KixmppStanzaHandler handler, Channel channel, CompactStanza stanza) {
+			this.handler = handler;
+			this.channel = channel;
+			this.stanza = stanza;
+		}
+
+		public void run() {
+			handler.handle(channel, stanza.toElement());
+		}
+	}
+	
+	private static class ExecuteConnectionConnectedHandler extends KixmppTask {
 		private final KixmppConnectionHandler handler;
 		private final Channel channel;
 		
@@ -464,7 +1209,7 @@ public class KixmppEventEngine {
 		}
 	}
 	
-	private static class ExecuteConnectionDisconnectedHandler extends Task {
+	private static class ExecuteConnectionDisconnectedHandler extends KixmppTask {
 		private final KixmppConnectionHandler handler;
 		private final Channel channel;
 		
@@ -478,7 +1223,7 @@ public class KixmppEventEngine {
 		}
 	}
 	
-	private static class ExecuteStreamStartHandler extends Task {
+	private static class ExecuteStreamStartHandler extends KixmppTask {
 		private final KixmppStreamHandler handler;
 		private final Channel channel;
 		private final KixmppStreamStart start;
@@ -494,7 +1239,7 @@ public class KixmppEventEngine {
 		}
 	}
 	
-	private static class ExecuteStreamEndHandler extends Task {
+	private static class ExecuteStreamEndHandler extends KixmppTask {
 		private final KixmppStreamHandler handler;
 		private final Channel channel;
 		private final KixmppStreamEnd end;
@@ -510,7 +1255,7 @@ public class KixmppEventEngine {
 		}
 	}
 
-	private static class ExecuteSessionStartHandler extends Task {
+	private static class ExecuteSessionStartHandler extends KixmppTask {
 		private final KixmppSessionHandler handler;
 		private final Channel channel;
 
@@ -0,0 +1,51 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Receives measurements from a {@link KixmppEventEngine}. Set one with
+ * {@link KixmppEventEngine#setMetrics(KixmppEventEngineMetrics)}, the engine does not take any measurements while
+ * there is none.
+ * 
+ * <p>Methods are called from the threads that publish and run the stanzas, so they have to be thread safe and
+ * should not block.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public interface KixmppEventEngineMetrics {
+	/**
+	 * Called when a stanza is published.
+	 * 
+	 * @param qualifiedName
+	 * @param priority the lane the stanza runs in
+	 */
+	public void stanzaPublished(String qualifiedName, KixmppPriority priority);
+	
+	/**
+	 * Called after a stanza handler has run.
+	 * 
+	 * @param qualifiedName
+	 * @param handler
+	 * @param waitNanos the time between the stanza being published and the handler starting
+	 * @param runNanos the time the handler took
+	 */
+	public void stanzaHandled(String qualifiedName, KixmppStanzaHandler handler, long waitNanos, long runNanos);
+}
@@ -0,0 +1,57 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+
+/**
+ * Decides which {@link KixmppSerialExecutor} runs the events of an address or a channel. Events of the same address
+ * (or channel) and {@link KixmppPriority} always get the same executor, so they are handled one at a time and in
+ * order. Events of different priorities have separate executors.
+ * 
+ * @author ebahtijaragic
+ */
+public interface KixmppExecutionStrategy {
+	/**
+	 * @param address a raw or full JID
+	 * @param priority
+	 * @return the executor of the address in the priority's lane
+	 */
+	public KixmppSerialExecutor getAddressExecutor(String address, KixmppPriority priority);
+	
+	/**
+	 * @param channel
+	 * @param priority
+	 * @return the executor of the channel in the priority's lane
+	 */
+	public KixmppSerialExecutor getChannelExecutor(Channel channel, KixmppPriority priority);
+	
+	/**
+	 * @param priority
+	 * @return the executor of events that belong to no address or channel, in the priority's lane
+	 */
+	public KixmppSerialExecutor getDefaultExecutor(KixmppPriority priority);
+	
+	/**
+	 * Stops the threads of this strategy, if it has any. Tasks that have not started are dropped.
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,153 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with log-linear buckets, like HdrHistogram: values below 16 are
+ * counted exactly and every power of two above is split into 16 buckets, so a value is off by at most 1/16th.
+ * Recording a value does not allocate.
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 * 
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		
+		counts.incrementAndGet(getIndex(value));
+		totalCount.incrementAndGet();
+		total.addAndGet(value);
+		
+		long currentMax;
+		
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// try again
+		}
+	}
+	
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+	
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @return the mean of the recorded values
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		
+		return count == 0 ? 0 : (double)total.get() / count;
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the value below which the given percentage of the recorded values are, within the precision of a bucket
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		
+		if (count == 0) {
+			return 0;
+		}
+		
+		long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			
+			if (seen >= target) {
+				return Math.min(getHighestValue(i), max.get());
+			}
+		}
+		
+		return max.get();
+	}
+	
+	/**
+	 * Clears all the recorded values. Values recorded while resetting may be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		
+		totalCount.set(0);
+		total.set(0);
+		max.set(0);
+	}
+	
+	/**
+	 * @param value
+	 * @return the bucket of the value
+	 */
+	static int getIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int)value;
+		}
+		
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS;
+		
+		return (shift + 1) * SUB_BUCKET_COUNT + (int)(value >>> shift) - SUB_BUCKET_COUNT;
+	}
+	
+	/**
+	 * @param index
+	 * @return the highest value that goes in the bucket
+	 */
+	static long getHighestValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,154 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps {@link KixmppHistogram}s of the wait and run times of stanza handlers, per qualified name and per handler
+ * class, and counts the published stanzas per qualified name. Times are in nanoseconds. Once a name or class has been
+ * seen, recording does not allocate.
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppHistogramMetrics implements KixmppEventEngineMetrics {
+	private final ConcurrentHashMap<String, StanzaMetrics> stanzaMetrics = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Class<?>, KixmppHistogram> handlerRunTimes = new ConcurrentHashMap<>();
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppEventEngineMetrics#stanzaPublished(java.lang.String, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public void stanzaPublished(String qualifiedName, KixmppPriority priority) {
+		getStanzaMetrics(qualifiedName).published.incrementAndGet();
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppEventEngineMetrics#stanzaHandled(java.lang.String, com.kixeye.kixmpp.handler.KixmppStanzaHandler, long, long)
+	 */
+	public void stanzaHandled(String qualifiedName, KixmppStanzaHandler handler, long waitNanos, long runNanos) {
+		StanzaMetrics metrics = getStanzaMetrics(qualifiedName);
+		metrics.waitTimes.record(waitNanos);
+		metrics.runTimes.record(runNanos);
+		
+		KixmppHistogram runTimes = handlerRunTimes.get(handler.getClass());
+		
+		if (runTimes == null) {
+			KixmppHistogram newRunTimes = new KixmppHistogram();
+			
+			runTimes = handlerRunTimes.putIfAbsent(handler.getClass(), newRunTimes);
+			
+			if (runTimes == null) {
+				runTimes = newRunTimes;
+			}
+		}
+		
+		runTimes.record(runNanos);
+	}
+	
+	/**
+	 * @return the qualified names of the stanzas that have been published
+	 */
+	public Set<String> getQualifiedNames() {
+		return Collections.unmodifiableSet(stanzaMetrics.keySet());
+	}
+	
+	/**
+	 * @return the classes of the handlers that have run
+	 */
+	public Set<Class<?>> getHandlerClasses() {
+		return Collections.unmodifiableSet(handlerRunTimes.keySet());
+	}
+	
+	/**
+	 * @param qualifiedName
+	 * @return the number of stanzas with the qualified name that have been published
+	 */
+	public long getPublishedCount(String qualifiedName) {
+		StanzaMetrics metrics = stanzaMetrics.get(qualifiedName);
+		
+		return metrics == null ? 0 : metrics.published.get();
+	}
+	
+	/**
+	 * @param qualifiedName
+	 * @return the times between stanzas with the qualified name being published and their handlers starting, null if none have run
+	 */
+	public KixmppHistogram getWaitTimes(String qualifiedName) {
+		StanzaMetrics metrics = stanzaMetrics.get(qualifiedName);
+		
+		return metrics == null ? null : metrics.waitTimes;
+	}
+	
+	/**
+	 * @param qualifiedName
+	 * @return the times the handlers of stanzas with the qualified name took, null if none have run
+	 */
+	public KixmppHistogram getRunTimes(String qualifiedName) {
+		StanzaMetrics metrics = stanzaMetrics.get(qualifiedName);
+		
+		return metrics == null ? null : metrics.runTimes;
+	}
+	
+	/**
+	 * @param handlerClass
+	 * @return the times the handlers of the class took, null if none have run
+	 */
+	public KixmppHistogram getRunTimes(Class<?> handlerClass) {
+		return handlerRunTimes.get(handlerClass);
+	}
+	
+	/**
+	 * Clears everything that has been measured.
+	 */
+	public void reset() {
+		stanzaMetrics.clear();
+		handlerRunTimes.clear();
+	}
+	
+	/**
+	 * @param qualifiedName
+	 * @return the metrics of the qualified name
+	 */
+	private StanzaMetrics getStanzaMetrics(String qualifiedName) {
+		StanzaMetrics metrics = stanzaMetrics.get(qualifiedName);
+		
+		if (metrics == null) {
+			StanzaMetrics newMetrics = new StanzaMetrics();
+			
+			metrics = stanzaMetrics.putIfAbsent(qualifiedName, newMetrics);
+			
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		
+		return metrics;
+	}
+	
+	private static class StanzaMetrics {
+		private final AtomicLong published = new AtomicLong();
+		private final KixmppHistogram waitTimes = new KixmppHistogram();
+		private final KixmppHistogram runTimes = new KixmppHistogram();
+	}
+}
@@ -0,0 +1,63 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The classes of events, each with its own lane in a {@link KixmppExecutionStrategy}. Events are kept in order
+ * within a lane, so a busy lane does not hold up the others. Strategies that share threads between lanes take up to
+ * a lane's weight in tasks from it before moving on to the next lane.
+ * 
+ * @author ebahtijaragic
+ */
+public enum KixmppPriority {
+	/**
+	 * Connections, streams, authentication, binding, sessions and other IQs.
+	 */
+	CONTROL(8),
+	
+	/**
+	 * Presence stanzas.
+	 */
+	PRESENCE(4),
+	
+	/**
+	 * Message stanzas and the tasks of rooms.
+	 */
+	MESSAGING(2),
+	
+	/**
+	 * Work that nobody is waiting on, such as map/reduce requests from the cluster.
+	 */
+	BACKGROUND(1);
+	
+	private final int weight;
+	
+	private KixmppPriority(int weight) {
+		this.weight = weight;
+	}
+	
+	/**
+	 * @return the number of tasks that are taken from this lane in a row
+	 */
+	public int getWeight() {
+		return weight;
+	}
+}
@@ -0,0 +1,37 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.fusesource.hawtdispatch.Task;
+
+/**
+ * Runs tasks one at a time, in the order they were executed.
+ * 
+ * @author ebahtijaragic
+ */
+public interface KixmppSerialExecutor {
+	/**
+	 * Executes a task after the ones that were executed before it.
+	 * 
+	 * @param task
+	 */
+	public void execute(Task task);
+}
@@ -0,0 +1,41 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+
+import org.jdom2.Element;
+
+/**
+ * Decides whether a stanza goes to a handler, see {@link KixmppStanzaRoute#withPredicate(KixmppStanzaPredicate)}.
+ * Predicates are called on the I/O thread that publishes the stanza, so they should only look at the stanza and
+ * must not block.
+ * 
+ * @author ebahtijaragic
+ */
+public interface KixmppStanzaPredicate {
+	/**
+	 * @param channel
+	 * @param stanza
+	 * @return <b>true</b> if the stanza goes to the handler
+	 */
+	public boolean matches(Channel channel, Element stanza);
+}
@@ -0,0 +1,169 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Selects the stanzas that a handler gets. A route matches stanzas by qualified name, or all of them for
+ * {@link #ANY}, and can narrow them down with any of:
+ * 
+ * <ul>
+ * <li>the <code>type</code> attribute, see {@link #withType(String)}</li>
+ * <li>the namespace of a child element, such as the payload of an iq, see {@link #withNamespace(String)}</li>
+ * <li>a {@link KixmppStanzaPredicate}, see {@link #withPredicate(KixmppStanzaPredicate)}</li>
+ * </ul>
+ * 
+ * <p>The engine looks up the handlers by namespace or type, so narrowing a route down by them costs nothing for the
+ * stanzas it does not match. Predicates are called for every stanza with the qualified name.</p>
+ * 
+ * <p>Routes are immutable. Two routes are equal if they match on the same values and the same predicate.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppStanzaRoute {
+	/**
+	 * The qualified name that matches all stanzas.
+	 */
+	public static final String ANY = "*";
+	
+	private final String qualifiedName;
+	private final String type;
+	private final String namespace;
+	private final KixmppStanzaPredicate predicate;
+	
+	/**
+	 * Creates a route for all the stanzas with a qualified name.
+	 * 
+	 * @param qualifiedName the qualified name, or {@link #ANY}
+	 */
+	public KixmppStanzaRoute(String qualifiedName) {
+		this(qualifiedName, null, null, null);
+	}
+	
+	/**
+	 * @param qualifiedName
+	 * @param type
+	 * @param namespace
+	 * @param predicate
+	 */
+	private KixmppStanzaRoute(String qualifiedName, String type, String namespace, KixmppStanzaPredicate predicate) {
+		if (qualifiedName == null) {
+			throw new IllegalArgumentException("qualifiedName cannot be null");
+		}
+		
+		this.qualifiedName = qualifiedName;
+		this.type = type;
+		this.namespace = namespace;
+		this.predicate = predicate;
+	}
+	
+	/**
+	 * @param type the value of the <code>type</code> attribute
+	 * @return a route that only matches the stanzas of this route with the type
+	 */
+	public KixmppStanzaRoute withType(String type) {
+		return new KixmppStanzaRoute(qualifiedName, type, namespace, predicate);
+	}
+	
+	/**
+	 * @param namespace the namespace URI of a child element
+	 * @return a route that only matches the stanzas of this route with a child element in the namespace
+	 */
+	public KixmppStanzaRoute withNamespace(String namespace) {
+		return new KixmppStanzaRoute(qualifiedName, type, namespace, predicate);
+	}
+	
+	/**
+	 * @param predicate
+	 * @return a route that only matches the stanzas of this route that the predicate matches
+	 */
+	public KixmppStanzaRoute withPredicate(KixmppStanzaPredicate predicate) {
+		return new KixmppStanzaRoute(qualifiedName, type, namespace, predicate);
+	}
+
+	/**
+	 * @return the qualified name, or {@link #ANY}
+	 */
+	public String getQualifiedName() {
+		return qualifiedName;
+	}
+
+	/**
+	 * @return the type, null if any
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return the namespace of a child element, null if any
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * @return the predicate, null if none
+	 */
+	public KixmppStanzaPredicate getPredicate() {
+		return predicate;
+	}
+
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + qualifiedName.hashCode();
+		result = prime * result + ((type == null) ? 0 : type.hashCode());
+		result = prime * result + ((namespace == null) ? 0 : namespace.hashCode());
+		result = prime * result + ((predicate == null) ? 0 : predicate.hashCode());
+		return result;
+	}
+
+	/**
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		KixmppStanzaRoute other = (KixmppStanzaRoute) obj;
+		return qualifiedName.equals(other.qualifiedName) && equals(type, other.type) && equals(namespace, other.namespace) && equals(predicate, other.predicate);
+	}
+	
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "KixmppStanzaRoute [qualifiedName=" + qualifiedName + ", type=" + type + ", namespace=" + namespace + ", predicate=" + predicate + "]";
+	}
+}
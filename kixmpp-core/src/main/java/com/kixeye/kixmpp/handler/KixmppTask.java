@@ -0,0 +1,54 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.fusesource.hawtdispatch.Task;
+
+/**
+ * A task that a {@link StripedExecutionStrategy} can queue without wrapping it in a node. A task is linked into one
+ * queue at a time: executing it again while it is still queued wraps it like any other {@link Task}.
+ * 
+ * @author ebahtijaragic
+ */
+public abstract class KixmppTask extends Task {
+	private static final AtomicIntegerFieldUpdater<KixmppTask> QUEUED = AtomicIntegerFieldUpdater.newUpdater(KixmppTask.class, "queued");
+	
+	volatile KixmppTask next;
+	
+	private volatile int queued = 0;
+	
+	/**
+	 * @return <b>true</b> if the task was not queued, so it can be linked into a queue now
+	 */
+	boolean link() {
+		return queued == 0 && QUEUED.compareAndSet(this, 0, 1);
+	}
+	
+	/**
+	 * Clears the link once the queue is done with the task, so it can be queued again.
+	 */
+	void unlink() {
+		next = null;
+		queued = 0;
+	}
+}
@@ -0,0 +1,282 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fusesource.hawtdispatch.Task;
+
+/**
+ * Hashes addresses and channels onto a fixed set of stripes, by default one per core. Each stripe is a thread that
+ * drains a lock-free multi-producer, single-consumer queue, so the events of an address run in order without a
+ * queue per address, a string key or a cache lookup.
+ * 
+ * <p>{@link KixmppTask}s are linked into the queue directly, so executing one does not allocate. Other tasks, and
+ * {@link KixmppTask}s that are still queued, are wrapped. A task that blocks holds up every address on its
+ * stripe.</p>
+ * 
+ * <p>A stripe has a queue per {@link KixmppPriority}. Its thread goes round the queues and runs up to the priority's
+ * weight in tasks from each, so a backlog of messages only slows down control events instead of queueing them.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class StripedExecutionStrategy implements KixmppExecutionStrategy {
+	private final Stripe[] stripes;
+	
+	/**
+	 * Creates a stripe per core.
+	 */
+	public StripedExecutionStrategy() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param stripeCount
+	 */
+	public StripedExecutionStrategy(int stripeCount) {
+		if (stripeCount < 1) {
+			throw new IllegalArgumentException("stripeCount must be at least 1");
+		}
+		
+		this.stripes = new Stripe[stripeCount];
+		
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe("kixmpp-stripe-" + i);
+		}
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getAddressExecutor(java.lang.String, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getAddressExecutor(String address, KixmppPriority priority) {
+		return getStripe(address.hashCode()).lanes[priority.ordinal()];
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getChannelExecutor(io.netty.channel.Channel, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getChannelExecutor(Channel channel, KixmppPriority priority) {
+		return getStripe(channel.hashCode()).lanes[priority.ordinal()];
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getDefaultExecutor(com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getDefaultExecutor(KixmppPriority priority) {
+		return stripes[0].lanes[priority.ordinal()];
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#shutdown()
+	 */
+	public void shutdown() {
+		for (Stripe stripe : stripes) {
+			stripe.shutdown();
+		}
+	}
+	
+	/**
+	 * @param hash
+	 * @return the stripe of the hash
+	 */
+	private Stripe getStripe(int hash) {
+		// spread the bits, identity and string hashes are weak in the low bits
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		
+		return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+	}
+	
+	/**
+	 * A thread and the task queues of its lanes.
+	 */
+	private static final class Stripe implements Runnable {
+		private final Lane[] lanes;
+		private final Thread thread;
+		
+		private volatile boolean parked = false;
+		private volatile boolean running = true;
+		
+		public Stripe(String name) {
+			KixmppPriority[] priorities = KixmppPriority.values();
+			
+			this.lanes = new Lane[priorities.length];
+			
+			for (int i = 0; i < priorities.length; i++) {
+				lanes[i] = new Lane(this, priorities[i].getWeight());
+			}
+			
+			this.thread = new Thread(this, name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		
+		public void run() {
+			while (running) {
+				boolean ran = false;
+				
+				for (Lane lane : lanes) {
+					for (int i = 0; i < lane.weight; i++) {
+						KixmppTask task = lane.poll();
+						
+						if (task == null) {
+							break;
+						}
+						
+						ran = true;
+						
+						try {
+							task.run();
+						} catch (Throwable e) {
+							thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+						}
+					}
+				}
+				
+				if (!ran) {
+					parked = true;
+					
+					// checked again after parked is set, so an execute that missed it has already linked its task
+					if (running && isEmpty()) {
+						LockSupport.park(this);
+					}
+					
+					parked = false;
+				}
+			}
+		}
+		
+		public void shutdown() {
+			running = false;
+			
+			LockSupport.unpark(thread);
+		}
+		
+		/**
+		 * Wakes up the thread if it is parked.
+		 */
+		private void signal() {
+			if (parked) {
+				LockSupport.unpark(thread);
+			}
+		}
+		
+		/**
+		 * @return <b>true</b> if none of the lanes have tasks
+		 */
+		private boolean isEmpty() {
+			for (Lane lane : lanes) {
+				if (!lane.isEmpty()) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * The task queue of a lane. The queue is an intrusive linked list: producers swap themselves in as the tail and
+	 * then link the old tail to themselves, the stripe's thread follows the links from the head.
+	 */
+	private static final class Lane implements KixmppSerialExecutor {
+		private final Stripe stripe;
+		private final int weight;
+		
+		private final AtomicReference<KixmppTask> tail;
+		
+		// only used by the stripe's thread, the last task it has taken (or the stub)
+		private KixmppTask head;
+		
+		public Lane(Stripe stripe, int weight) {
+			KixmppTask stub = new WrappedTask(null);
+			
+			this.stripe = stripe;
+			this.weight = weight;
+			this.head = stub;
+			this.tail = new AtomicReference<>(stub);
+		}
+		
+		public void execute(Task task) {
+			KixmppTask node;
+			
+			if (task instanceof KixmppTask && ((KixmppTask)task).link()) {
+				node = (KixmppTask)task;
+			} else {
+				node = new WrappedTask(task);
+			}
+			
+			tail.getAndSet(node).next = node;
+			
+			stripe.signal();
+		}
+		
+		/**
+		 * @return the next task or null if the queue is empty
+		 */
+		private KixmppTask poll() {
+			KixmppTask next = head.next;
+			
+			if (next == null) {
+				if (head == tail.get()) {
+					return null;
+				}
+				
+				// a producer has swapped in its task but not linked it yet
+				while ((next = head.next) == null) {
+					Thread.yield();
+				}
+			}
+			
+			KixmppTask previous = head;
+			
+			head = next;
+			
+			// no producer links to the previous head anymore, it can be queued again
+			previous.unlink();
+			
+			return next;
+		}
+		
+		/**
+		 * @return <b>true</b> if no task has been executed since the last one was taken
+		 */
+		private boolean isEmpty() {
+			return head == tail.get();
+		}
+	}
+	
+	private static final class WrappedTask extends KixmppTask {
+		private final Task task;
+		
+		public WrappedTask(Task task) {
+			this.task = task;
+		}
+		
+		public void run() {
+			task.run();
+		}
+	}
+}
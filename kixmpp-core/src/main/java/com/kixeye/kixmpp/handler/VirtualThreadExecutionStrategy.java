@@ -0,0 +1,245 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.hawtdispatch.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the events of each address and channel on a virtual thread of their own, so handlers can call blocking
+ * backends (an authentication service, a roster store) without holding up the events of anyone else.
+ * 
+ * <p>A key gets a thread while it has events and lets it end once they have all run, so idle keys cost nothing. Its
+ * executor is then retired. Executors that are still referenced after that pass their tasks on to the key's
+ * current executor, which keeps the events of a key in order and one at a time. Each lane of an address or channel
+ * is a key of its own, there is no weighting between lanes since every key has its own thread.</p>
+ * 
+ * <p>Virtual threads need Java 21. On older runtimes the keys take turns on a bounded pool of daemon threads, which
+ * still keeps blocking handlers away from HawtDispatch's threads. Keys that have events while every thread is busy
+ * wait for one to free up.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class VirtualThreadExecutionStrategy implements KixmppExecutionStrategy {
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreadExecutionStrategy.class);
+	
+	private static final int RETIRED = -1;
+	
+	private static final int PLATFORM_THREADS_PER_CORE = 16;
+	
+	private final ConcurrentHashMap<String, KeyExecutor> executors = new ConcurrentHashMap<>();
+	
+	private final ExecutorService threads;
+	
+	/**
+	 * Creates a strategy that runs each key on a virtual thread, if the runtime has them.
+	 */
+	public VirtualThreadExecutionStrategy() {
+		this(createThreads());
+	}
+	
+	/**
+	 * @param threads runs the keys that have events, a task per key at a time
+	 */
+	public VirtualThreadExecutionStrategy(ExecutorService threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * @return <b>true</b> if the runtime has virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getAddressExecutor(java.lang.String, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getAddressExecutor(String address, KixmppPriority priority) {
+		return getExecutor(priority.ordinal() + ":address:" + address);
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getChannelExecutor(io.netty.channel.Channel, com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getChannelExecutor(Channel channel, KixmppPriority priority) {
+		return getExecutor(priority.ordinal() + ":channel:" + channel.hashCode());
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#getDefaultExecutor(com.kixeye.kixmpp.handler.KixmppPriority)
+	 */
+	public KixmppSerialExecutor getDefaultExecutor(KixmppPriority priority) {
+		return getExecutor(priority.ordinal() + ":default");
+	}
+	
+	/**
+	 * @see com.kixeye.kixmpp.handler.KixmppExecutionStrategy#shutdown()
+	 */
+	public void shutdown() {
+		threads.shutdownNow();
+	}
+	
+	/**
+	 * @return the number of keys that have events queued or running
+	 */
+	int getExecutorCount() {
+		return executors.size();
+	}
+	
+	/**
+	 * @param key
+	 * @return the current executor of the key
+	 */
+	private KeyExecutor getExecutor(String key) {
+		KeyExecutor executor = executors.get(key);
+		
+		if (executor == null) {
+			KeyExecutor newExecutor = new KeyExecutor(key);
+			
+			executor = executors.putIfAbsent(key, newExecutor);
+			
+			if (executor == null) {
+				executor = newExecutor;
+			}
+		}
+		
+		return executor;
+	}
+	
+	/**
+	 * @return an executor that starts a virtual thread per task, or a bounded pool of daemon threads
+	 */
+	private static ExecutorService createThreads() {
+		if (isVirtualThreadSupported()) {
+			try {
+				return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				logger.warn("Unable to create virtual threads, using platform threads instead", e);
+			}
+		}
+		
+		final AtomicInteger threadCount = new AtomicInteger();
+		
+		int maxThreads = Runtime.getRuntime().availableProcessors() * PLATFORM_THREADS_PER_CORE;
+		
+		ThreadPoolExecutor threads = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "kixmpp-worker-" + threadCount.getAndIncrement());
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		});
+		
+		// idle threads end like the virtual ones would
+		threads.allowCoreThreadTimeOut(true);
+		
+		return threads;
+	}
+	
+	private final class KeyExecutor implements KixmppSerialExecutor, Runnable {
+		private final String key;
+		
+		private final ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<>();
+		
+		// the number of tasks that have been counted in but not run yet, or RETIRED
+		private final AtomicInteger pending = new AtomicInteger();
+		
+		public KeyExecutor(String key) {
+			this.key = key;
+		}
+		
+		public void execute(Task task) {
+			int count;
+			
+			do {
+				count = pending.get();
+				
+				if (count == RETIRED) {
+					// every task of this executor has run, the key's new executor takes over once this one is out of
+					// the way, which the retiring thread may not have done yet
+					executors.remove(key, this);
+					
+					getExecutor(key).execute(task);
+					return;
+				}
+			} while (!pending.compareAndSet(count, count + 1));
+			
+			tasks.add(task);
+			
+			if (count == 0) {
+				try {
+					threads.execute(this);
+				} catch (RejectedExecutionException e) {
+					// nothing is going to run the task, take it back so that the key does not wait for a thread forever
+					tasks.remove(task);
+					pending.decrementAndGet();
+					
+					throw e;
+				}
+			}
+		}
+		
+		public void run() {
+			do {
+				Task task;
+				
+				// a producer has counted its task in but not added it yet
+				while ((task = tasks.poll()) == null) {
+					Thread.yield();
+				}
+				
+				try {
+					task.run();
+				} catch (Throwable e) {
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+			} while (pending.decrementAndGet() > 0);
+			
+			// nothing is left to run, unless a task is counted in first and runs on a new thread
+			if (pending.compareAndSet(0, RETIRED)) {
+				executors.remove(key, this);
+			}
+		}
+	}
+}
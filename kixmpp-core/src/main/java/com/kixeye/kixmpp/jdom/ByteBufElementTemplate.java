@@ -0,0 +1,80 @@
+package com.kixeye.kixmpp.jdom;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+
+/**
+ * An element that is encoded once and sent to many recipients that only differ by one attribute of the root
+ * element, usually <code>to</code>. Each frame is a composite of the shared part before the attribute value, the
+ * escaped value and the shared part after it. This class is thread safe once created.
+ *
+ * @author ebahtijaragic
+ */
+public class ByteBufElementTemplate {
+	private final ByteBuf prefix;
+	private final ByteBuf suffix;
+
+	/**
+	 * Encodes the element. The current value of the attribute is not kept.
+	 *
+	 * @param element
+	 * @param attributeName the name of an attribute of the root element that is not in a namespace
+	 */
+	public ByteBufElementTemplate(Element element, String attributeName) {
+		Attribute attribute = element.getAttribute(attributeName);
+
+		if (attribute == null) {
+			throw new IllegalArgumentException("Element [" + element.getQualifiedName() + "] has no attribute [" + attributeName + "]");
+		}
+
+		ByteBuf encoded = Unpooled.buffer();
+
+		ByteBufElementWriter elementWriter = new ByteBufElementWriter();
+		elementWriter.write(element, encoded, attribute);
+
+		// the buffer is only read through duplicates so it is never released, the GC takes care of it
+		encoded = Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(encoded));
+
+		this.prefix = encoded.slice(0, elementWriter.getMarkedValueStart());
+		this.suffix = encoded.slice(elementWriter.getMarkedValueEnd(), encoded.readableBytes() - elementWriter.getMarkedValueEnd());
+	}
+
+	/**
+	 * Creates a frame with the given attribute value.
+	 *
+	 * @param alloc the allocator for the attribute value
+	 * @param attributeValue
+	 * @return
+	 */
+	public ByteBuf newFrame(ByteBufAllocator alloc, String attributeValue) {
+		ByteBuf value = alloc.buffer(attributeValue.length() + 16);
+
+		ByteBufElementWriter.writeAttributeValue(attributeValue, value);
+
+		return Unpooled.wrappedBuffer(prefix.duplicate(), value, suffix.duplicate());
+	}
+}
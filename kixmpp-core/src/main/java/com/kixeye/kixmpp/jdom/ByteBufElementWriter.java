@@ -0,0 +1,485 @@
+package com.kixeye.kixmpp.jdom;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Attribute;
+import org.jdom2.Comment;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.EntityRef;
+import org.jdom2.Namespace;
+import org.jdom2.ProcessingInstruction;
+import org.jdom2.Text;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * Writes JDOM elements as UTF-8 straight into a {@link ByteBuf}. The output is the same as a raw formatted
+ * {@link XMLOutputter}. This class is NOT thread safe, use one writer per channel.
+ *
+ * @author ebahtijaragic
+ */
+public class ByteBufElementWriter {
+	private static final String[] COMMON_NAMES = new String[] {
+		"message", "presence", "iq", "body", "subject", "thread", "error", "query", "item", "x", "show", "status",
+		"priority", "delay", "bind", "session", "jid", "resource", "features", "success", "failure", "text",
+		"to", "from", "type", "id", "xmlns", "lang", "affiliation", "role", "nick", "code", "var", "name",
+		"stamp", "category", "identity", "feature", "mechanisms", "mechanism", "subscription", "group"
+	};
+
+	private static final Map<String, byte[]> COMMON_NAME_BYTES = new HashMap<>();
+
+	static {
+		for (String name : COMMON_NAMES) {
+			COMMON_NAME_BYTES.put(name, name.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static final byte[][] TEXT_ESCAPES = new byte[128][];
+	private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+
+	static {
+		TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = "&amp;".getBytes(StandardCharsets.UTF_8);
+		TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = "&lt;".getBytes(StandardCharsets.UTF_8);
+		TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = "&gt;".getBytes(StandardCharsets.UTF_8);
+		TEXT_ESCAPES['\r'] = ATTRIBUTE_ESCAPES['\r'] = "&#xD;".getBytes(StandardCharsets.UTF_8);
+
+		// XMLOutputter writes new lines in text as the line separator of the format
+		String lineSeparator = Format.getRawFormat().getLineSeparator();
+
+		if (lineSeparator != null && !"\n".equals(lineSeparator)) {
+			TEXT_ESCAPES['\n'] = lineSeparator.getBytes(StandardCharsets.UTF_8);
+		}
+
+		ATTRIBUTE_ESCAPES['"'] = "&quot;".getBytes(StandardCharsets.UTF_8);
+		ATTRIBUTE_ESCAPES['\t'] = "&#x9;".getBytes(StandardCharsets.UTF_8);
+		ATTRIBUTE_ESCAPES['\n'] = "&#xA;".getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static final byte[] XMLNS = " xmlns".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ATTRIBUTE_VALUE_START = "=\"".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] EMPTY_ELEMENT_END = " />".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] END_ELEMENT_START = "</".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] CDATA_START = "<![CDATA[".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] COMMENT_START = "<!--".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PROCESSING_INSTRUCTION_START = "<?".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PROCESSING_INSTRUCTION_END = "?>".getBytes(StandardCharsets.UTF_8);
+
+	private static final Comparator<Namespace> PREFIX_COMPARATOR = new Comparator<Namespace>() {
+		public int compare(Namespace o1, Namespace o2) {
+			return o1.getPrefix().compareTo(o2.getPrefix());
+		}
+	};
+
+	private String[] scopePrefixes = new String[16];
+	private String[] scopeUris = new String[16];
+	private int scopeSize = 0;
+
+	private final List<Namespace> addedNamespaces = new ArrayList<>();
+
+	private Attribute markedAttribute;
+	private int markedValueStart = -1;
+	private int markedValueEnd = -1;
+
+	/**
+	 * Writes an element and its content.
+	 *
+	 * @param element
+	 * @param out
+	 */
+	public void write(Element element, ByteBuf out) {
+		scopeSize = 0;
+
+		bind(Namespace.NO_NAMESPACE);
+		bind(Namespace.XML_NAMESPACE);
+
+		writeElement(element, out);
+	}
+
+	/**
+	 * Writes an element and records where the value of the given attribute starts and ends in the buffer.
+	 *
+	 * @param element
+	 * @param out
+	 * @param markedAttribute
+	 */
+	void write(Element element, ByteBuf out, Attribute markedAttribute) {
+		this.markedAttribute = markedAttribute;
+		this.markedValueStart = -1;
+		this.markedValueEnd = -1;
+
+		try {
+			write(element, out);
+		} finally {
+			this.markedAttribute = null;
+		}
+	}
+
+	/**
+	 * @return the writer index at which the value of the last marked attribute starts, or -1
+	 */
+	int getMarkedValueStart() {
+		return markedValueStart;
+	}
+
+	/**
+	 * @return the writer index at which the value of the last marked attribute ends, or -1
+	 */
+	int getMarkedValueEnd() {
+		return markedValueEnd;
+	}
+
+	/**
+	 * Writes an attribute value, escaped the same way as the attributes of elements.
+	 *
+	 * @param value
+	 * @param out
+	 */
+	public static void writeAttributeValue(String value, ByteBuf out) {
+		writeEscaped(value, ATTRIBUTE_ESCAPES, out);
+	}
+
+	/**
+	 * Writes an element with the namespaces in the current scope.
+	 *
+	 * @param element
+	 * @param out
+	 */
+	private void writeElement(Element element, ByteBuf out) {
+		int scopeMark = scopeSize;
+		int addedMark = addedNamespaces.size();
+
+		// same order as XMLOutputter: the element's namespace first, then the rest sorted by prefix
+		declare(element.getNamespace());
+
+		int sortFrom = addedNamespaces.size();
+
+		if (element.hasAdditionalNamespaces()) {
+			for (Namespace namespace : element.getAdditionalNamespaces()) {
+				declare(namespace);
+			}
+		}
+
+		if (element.hasAttributes()) {
+			for (Attribute attribute : element.getAttributes()) {
+				Namespace namespace = attribute.getNamespace();
+
+				if (namespace != Namespace.NO_NAMESPACE) {
+					declare(namespace);
+				}
+			}
+		}
+
+		if (addedNamespaces.size() - sortFrom > 1) {
+			Collections.sort(addedNamespaces.subList(sortFrom, addedNamespaces.size()), PREFIX_COMPARATOR);
+		}
+
+		out.writeByte('<');
+		writeName(element.getNamespacePrefix(), element.getName(), out);
+
+		for (int i = addedMark, size = addedNamespaces.size(); i < size; i++) {
+			Namespace namespace = addedNamespaces.get(i);
+
+			out.writeBytes(XMLNS);
+
+			if (!namespace.getPrefix().isEmpty()) {
+				out.writeByte(':');
+				writeName(namespace.getPrefix(), out);
+			}
+
+			out.writeBytes(ATTRIBUTE_VALUE_START);
+			writeEscaped(namespace.getURI(), ATTRIBUTE_ESCAPES, out);
+			out.writeByte('"');
+		}
+
+		while (addedNamespaces.size() > addedMark) {
+			addedNamespaces.remove(addedNamespaces.size() - 1);
+		}
+
+		if (element.hasAttributes()) {
+			for (Attribute attribute : element.getAttributes()) {
+				out.writeByte(' ');
+				writeName(attribute.getNamespacePrefix(), attribute.getName(), out);
+				out.writeBytes(ATTRIBUTE_VALUE_START);
+
+				if (attribute == markedAttribute) {
+					markedValueStart = out.writerIndex();
+					writeEscaped(attribute.getValue(), ATTRIBUTE_ESCAPES, out);
+					markedValueEnd = out.writerIndex();
+				} else {
+					writeEscaped(attribute.getValue(), ATTRIBUTE_ESCAPES, out);
+				}
+
+				out.writeByte('"');
+			}
+		}
+
+		List<Content> contents = element.getContent();
+
+		if (contents.isEmpty()) {
+			out.writeBytes(EMPTY_ELEMENT_END);
+		} else {
+			out.writeByte('>');
+
+			for (int i = 0, size = contents.size(); i < size; i++) {
+				writeContent(contents.get(i), out);
+			}
+
+			out.writeBytes(END_ELEMENT_START);
+			writeName(element.getNamespacePrefix(), element.getName(), out);
+			out.writeByte('>');
+		}
+
+		scopeSize = scopeMark;
+	}
+
+	/**
+	 * Writes a piece of element content.
+	 *
+	 * @param content
+	 * @param out
+	 */
+	private void writeContent(Content content, ByteBuf out) {
+		switch (content.getCType()) {
+			case Element:
+				writeElement((Element)content, out);
+				break;
+			case Text:
+				writeEscaped(((Text)content).getText(), TEXT_ESCAPES, out);
+				break;
+			case CDATA:
+				out.writeBytes(CDATA_START);
+				writeEscaped(((Text)content).getText(), null, out);
+				out.writeBytes(CDATA_END);
+				break;
+			case Comment:
+				out.writeBytes(COMMENT_START);
+				writeEscaped(((Comment)content).getText(), null, out);
+				out.writeBytes(COMMENT_END);
+				break;
+			case ProcessingInstruction:
+				ProcessingInstruction processingInstruction = (ProcessingInstruction)content;
+
+				out.writeBytes(PROCESSING_INSTRUCTION_START);
+				writeEscaped(processingInstruction.getTarget(), null, out);
+
+				if (!processingInstruction.getData().isEmpty()) {
+					out.writeByte(' ');
+					writeEscaped(processingInstruction.getData(), null, out);
+				}
+
+				out.writeBytes(PROCESSING_INSTRUCTION_END);
+				break;
+			case EntityRef:
+				out.writeByte('&');
+				writeEscaped(((EntityRef)content).getName(), null, out);
+				out.writeByte(';');
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Adds a namespace to the scope and to the declarations of the current element unless it is already bound.
+	 *
+	 * @param namespace
+	 */
+	private void declare(Namespace namespace) {
+		String prefix = namespace.getPrefix();
+
+		for (int i = scopeSize - 1; i >= 0; i--) {
+			if (prefix.equals(scopePrefixes[i])) {
+				if (namespace.getURI().equals(scopeUris[i])) {
+					return;
+				}
+
+				break;
+			}
+		}
+
+		bind(namespace);
+
+		addedNamespaces.add(namespace);
+	}
+
+	/**
+	 * Binds a namespace in the current scope.
+	 *
+	 * @param namespace
+	 */
+	private void bind(Namespace namespace) {
+		if (scopeSize == scopePrefixes.length) {
+			String[] prefixes = new String[scopeSize * 2];
+			String[] uris = new String[scopeSize * 2];
+
+			System.arraycopy(scopePrefixes, 0, prefixes, 0, scopeSize);
+			System.arraycopy(scopeUris, 0, uris, 0, scopeSize);
+
+			scopePrefixes = prefixes;
+			scopeUris = uris;
+		}
+
+		scopePrefixes[scopeSize] = namespace.getPrefix();
+		scopeUris[scopeSize] = namespace.getURI();
+		scopeSize++;
+	}
+
+	/**
+	 * Writes a possibly prefixed name.
+	 *
+	 * @param prefix
+	 * @param name
+	 * @param out
+	 */
+	private static void writeName(String prefix, String name, ByteBuf out) {
+		if (!prefix.isEmpty()) {
+			writeName(prefix, out);
+			out.writeByte(':');
+		}
+
+		writeName(name, out);
+	}
+
+	/**
+	 * Writes a name, using the precomputed bytes if it is a common one.
+	 *
+	 * @param name
+	 * @param out
+	 */
+	private static void writeName(String name, ByteBuf out) {
+		byte[] bytes = COMMON_NAME_BYTES.get(name);
+
+		if (bytes != null) {
+			out.writeBytes(bytes);
+		} else {
+			writeEscaped(name, null, out);
+		}
+	}
+
+	/**
+	 * Writes a string as UTF-8, replacing the ASCII characters that have an escape. Supplementary characters are
+	 * written as character references like {@link XMLOutputter} does.
+	 *
+	 * @param value
+	 * @param escapes the escapes for ASCII characters, or null to write the value as is
+	 * @param out
+	 */
+	private static void writeEscaped(String value, byte[][] escapes, ByteBuf out) {
+		int length = value.length();
+		int i = writeAscii(value, 0, escapes, out);
+
+		while (i < length) {
+			char c = value.charAt(i++);
+
+			if (c < 0x80) {
+				out.writeBytes(escapes[c]);
+			} else if (c < 0x800) {
+				out.writeByte(0xc0 | (c >> 6));
+				out.writeByte(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(value.charAt(i))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(i++));
+
+				if (escapes != null) {
+					out.writeByte('&');
+					out.writeByte('#');
+					out.writeByte('x');
+					writeEscaped(Integer.toHexString(codePoint), null, out);
+					out.writeByte(';');
+				} else {
+					out.writeByte(0xf0 | (codePoint >> 18));
+					out.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+					out.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+					out.writeByte(0x80 | (codePoint & 0x3f));
+				}
+			} else if (Character.isSurrogate(c)) {
+				out.writeByte('?');
+			} else {
+				out.writeByte(0xe0 | (c >> 12));
+				out.writeByte(0x80 | ((c >> 6) & 0x3f));
+				out.writeByte(0x80 | (c & 0x3f));
+			}
+
+			i = writeAscii(value, i, escapes, out);
+		}
+	}
+
+	/**
+	 * Writes the run of ASCII characters that need no escaping starting at the given index.
+	 *
+	 * @param value
+	 * @param start
+	 * @param escapes
+	 * @param out
+	 * @return the index of the first character that was not written
+	 */
+	private static int writeAscii(String value, int start, byte[][] escapes, ByteBuf out) {
+		int length = value.length();
+
+		out.ensureWritable(length - start);
+
+		int writerIndex = out.writerIndex();
+		int i = start;
+
+		if (out.hasArray()) {
+			byte[] array = out.array();
+			int offset = out.arrayOffset() + writerIndex - start;
+
+			for (; i < length; i++) {
+				char c = value.charAt(i);
+
+				if (c >= 0x80 || (escapes != null && escapes[c] != null)) {
+					break;
+				}
+
+				array[offset + i] = (byte)c;
+			}
+		} else {
+			int offset = writerIndex - start;
+
+			for (; i < length; i++) {
+				char c = value.charAt(i);
+
+				if (c >= 0x80 || (escapes != null && escapes[c] != null)) {
+					break;
+				}
+
+				out.setByte(offset + i, c);
+			}
+		}
+
+		out.writerIndex(writerIndex + (i - start));
+
+		return i;
+	}
+}
@@ -32,12 +32,15 @@ import org.jdom2.Namespace;
 import org.jdom2.input.stax.DTDParser;
 
 /**
- * Builds a JDOM {@link Document} from a StAX Stream. This class is NOT thread safe.
+ * Builds a JDOM {@link Document} from a StAX Stream. This class is NOT thread safe, but can be reused for
+ * consecutive elements by calling {@link #reset()}.
  * 
  * @author ebahtijaragic
  */
 public class StAXElementBuilder {
-	private JDOMFactory builderFactory = new DefaultJDOMFactory();
+	private static final JDOMFactory SHARED_FACTORY = new DefaultJDOMFactory();
+	
+	private final JDOMFactory builderFactory;
 	
 	private final boolean ignoreInvalidNamespaces;
 
@@ -49,7 +52,16 @@ public class StAXElementBuilder {
 	 * @param ignoreInvalidNamespaces
 	 */
 	public StAXElementBuilder(boolean ignoreInvalidNamespaces) {
+		this(ignoreInvalidNamespaces, SHARED_FACTORY);
+	}
+	
+	/**
+	 * @param ignoreInvalidNamespaces
+	 * @param builderFactory
+	 */
+	StAXElementBuilder(boolean ignoreInvalidNamespaces, JDOMFactory builderFactory) {
 		this.ignoreInvalidNamespaces = ignoreInvalidNamespaces;
+		this.builderFactory = builderFactory;
 	}
 
 	/**
@@ -89,13 +101,13 @@ public class StAXElementBuilder {
 						attribute = builderFactory.attribute(
 								streamReader.getAttributeLocalName(i),
 								streamReader.getAttributeValue(i), 
-								AttributeType.getAttributeType(streamReader.getAttributeType(i)),
-								getNamespace(streamReader.getAttributePrefix(i), streamReader.getAttributeNamespace(i)));
+								AttributeType.getAttributeType(streamReader.getAttributeType(i)));
 					} else {
 						attribute = builderFactory.attribute(
 								streamReader.getAttributeLocalName(i),
 								streamReader.getAttributeValue(i), 
-								AttributeType.getAttributeType(streamReader.getAttributeType(i)));
+								AttributeType.getAttributeType(streamReader.getAttributeType(i)),
+								namespace);
 					}
 					
 					builderFactory.setAttribute(element, attribute);
@@ -177,6 +189,14 @@ public class StAXElementBuilder {
 		return namespace;
 	}
 	
+	/**
+	 * Clears the current state so that the next processed event starts a new element.
+	 */
+	public void reset() {
+		rootElement = null;
+		currentElement = null;
+	}
+	
 	/**
 	 * Gets the element in the current state.
 	 * 
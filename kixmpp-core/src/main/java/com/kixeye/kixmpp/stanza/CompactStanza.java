@@ -0,0 +1,448 @@
+package com.kixeye.kixmpp.stanza;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.jdom2.Attribute;
+import org.jdom2.CDATA;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.Text;
+import org.jdom2.output.XMLOutputter;
+
+import com.kixeye.kixmpp.KixmppSymbols;
+
+/**
+ * A read-only stanza stored as flat arrays instead of a JDOM tree.
+ *
+ * <p>Nodes (elements and text) are kept in document order in a single int array, attributes and namespace
+ * declarations in another, and all names and values in one string table. Names come straight from the parser
+ * so they are interned. JDOM elements are only built when a handler asks for them.</p>
+ *
+ * <p>Comments, processing instructions and entity references are not kept.</p>
+ *
+ * @author ebahtijaragic
+ */
+public class CompactStanza {
+	static final int NODE_TYPE = 0;
+	static final int NODE_PARENT = 1;
+	static final int NODE_END = 2;
+	static final int NODE_NAME = 3;
+	static final int NODE_NAMESPACE_URI = 4;
+	static final int NODE_NAMESPACE_PREFIX = 5;
+	static final int NODE_ATTRIBUTE_START = 6;
+	static final int NODE_ATTRIBUTE_COUNT = 7;
+	static final int NODE_NAMESPACE_COUNT = 8;
+	static final int NODE_SIZE = 9;
+
+	static final int ATTRIBUTE_NAME = 0;
+	static final int ATTRIBUTE_VALUE = 1;
+	static final int ATTRIBUTE_NAMESPACE_URI = 2;
+	static final int ATTRIBUTE_NAMESPACE_PREFIX = 3;
+	static final int ATTRIBUTE_SIZE = 4;
+
+	static final int TYPE_ELEMENT = 1;
+	static final int TYPE_TEXT = 2;
+	static final int TYPE_CDATA = 3;
+
+	static final int EMPTY_STRING = 0;
+
+	private final int[] nodes;
+	private final int[] attributes;
+	private final String[] strings;
+
+	private String qualifiedName;
+	private volatile Element element;
+
+	/**
+	 * @param nodes
+	 * @param attributes
+	 * @param strings
+	 */
+	CompactStanza(int[] nodes, int[] attributes, String[] strings) {
+		this.nodes = nodes;
+		this.attributes = attributes;
+		this.strings = strings;
+	}
+
+	/**
+	 * Creates a compact stanza from a JDOM element. The element is kept as this stanza's JDOM form.
+	 *
+	 * @param element
+	 * @return
+	 */
+	public static CompactStanza fromElement(Element element) {
+		StAXCompactStanzaBuilder builder = new StAXCompactStanzaBuilder();
+
+		addElement(builder, element);
+
+		CompactStanza stanza = builder.getStanza();
+		stanza.element = element;
+
+		return stanza;
+	}
+
+	/**
+	 * Adds an element and its content to a builder.
+	 *
+	 * @param builder
+	 * @param element
+	 */
+	private static void addElement(StAXCompactStanzaBuilder builder, Element element) {
+		builder.startElement(element.getName(), element.getNamespaceURI(), element.getNamespacePrefix());
+
+		if (element.hasAttributes()) {
+			for (Attribute attribute : element.getAttributes()) {
+				builder.attribute(attribute.getName(), attribute.getValue(), attribute.getNamespaceURI(), attribute.getNamespacePrefix());
+			}
+		}
+
+		for (Namespace namespace : element.getAdditionalNamespaces()) {
+			builder.namespace(namespace.getPrefix(), namespace.getURI());
+		}
+
+		for (Content content : element.getContent()) {
+			switch (content.getCType()) {
+				case Element:
+					addElement(builder, (Element)content);
+					break;
+				case Text:
+					builder.text(TYPE_TEXT, ((Text)content).getText());
+					break;
+				case CDATA:
+					builder.text(TYPE_CDATA, ((CDATA)content).getText());
+					break;
+				default:
+					break;
+			}
+		}
+
+		builder.endElement();
+	}
+
+	/**
+	 * @return the local name of the stanza
+	 */
+	public String getName() {
+		return strings[nodes[NODE_NAME]];
+	}
+
+	/**
+	 * @return the namespace URI of the stanza, empty if it has none
+	 */
+	public String getNamespaceURI() {
+		return strings[nodes[NODE_NAMESPACE_URI]];
+	}
+
+	/**
+	 * @return the namespace prefix of the stanza, empty if it has none
+	 */
+	public String getNamespacePrefix() {
+		return strings[nodes[NODE_NAMESPACE_PREFIX]];
+	}
+
+	/**
+	 * @return the qualified name of the stanza, same as {@link Element#getQualifiedName()}
+	 */
+	public String getQualifiedName() {
+		if (qualifiedName == null) {
+			qualifiedName = KixmppSymbols.qualifiedName(getNamespacePrefix(), getName());
+		}
+
+		return qualifiedName;
+	}
+
+	/**
+	 * Gets the value of an attribute that is not in a namespace.
+	 *
+	 * @param name
+	 * @return the value or null if the stanza does not have the attribute
+	 */
+	public String getAttributeValue(String name) {
+		return getAttributeValue(name, "");
+	}
+
+	/**
+	 * Gets the value of an attribute.
+	 *
+	 * @param name
+	 * @param namespaceURI
+	 * @return the value or null if the stanza does not have the attribute
+	 */
+	public String getAttributeValue(String name, String namespaceURI) {
+		for (int i = nodes[NODE_ATTRIBUTE_START], end = i + nodes[NODE_ATTRIBUTE_COUNT]; i < end; i++) {
+			int attribute = i * ATTRIBUTE_SIZE;
+
+			if (name.equals(strings[attributes[attribute + ATTRIBUTE_NAME]]) &&
+					namespaceURI.equals(strings[attributes[attribute + ATTRIBUTE_NAMESPACE_URI]])) {
+				return strings[attributes[attribute + ATTRIBUTE_VALUE]];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the text directly under the stanza, same as {@link Element#getText()}
+	 */
+	public String getText() {
+		return getText(0);
+	}
+
+	/**
+	 * Gets the text of a child element that is in the same namespace as the stanza.
+	 *
+	 * @param name
+	 * @return the text or null if there is no such child
+	 */
+	public String getChildText(String name) {
+		return getChildText(name, getNamespaceURI());
+	}
+
+	/**
+	 * Gets the text of a child element.
+	 *
+	 * @param name
+	 * @param namespaceURI
+	 * @return the text or null if there is no such child
+	 */
+	public String getChildText(String name, String namespaceURI) {
+		int child = findChild(name, namespaceURI);
+
+		return child < 0 ? null : getText(child);
+	}
+
+	/**
+	 * @param name
+	 * @param namespaceURI
+	 * @return <b>true</b> if the stanza has a child element with the given name and namespace
+	 */
+	public boolean hasChild(String name, String namespaceURI) {
+		return findChild(name, namespaceURI) >= 0;
+	}
+
+	/**
+	 * @return the number of child elements of the stanza
+	 */
+	public int getChildCount() {
+		int count = 0;
+
+		for (int child = 1, end = nodes[NODE_END]; child < end; child = nextSibling(child)) {
+			if (nodes[child * NODE_SIZE + NODE_TYPE] == TYPE_ELEMENT) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @param index the index of the child among the child elements
+	 * @return the namespace URI of the child element, empty if it has none
+	 */
+	public String getChildNamespaceURI(int index) {
+		int remaining = index;
+
+		for (int child = 1, end = nodes[NODE_END]; child < end; child = nextSibling(child)) {
+			int node = child * NODE_SIZE;
+
+			if (nodes[node + NODE_TYPE] == TYPE_ELEMENT && remaining-- == 0) {
+				return strings[nodes[node + NODE_NAMESPACE_URI]];
+			}
+		}
+
+		throw new IndexOutOfBoundsException("Index: " + index);
+	}
+
+	/**
+	 * Gets a child element as JDOM. The child is built on each call unless the whole stanza has already been
+	 * materialized by {@link #toElement()}.
+	 *
+	 * @param name
+	 * @param namespaceURI
+	 * @return the child or null if there is no such child
+	 */
+	public Element getChild(String name, String namespaceURI) {
+		Element element = this.element;
+
+		if (element != null) {
+			return element.getChild(name, Namespace.getNamespace(namespaceURI));
+		}
+
+		int child = findChild(name, namespaceURI);
+
+		return child < 0 ? null : buildElement(child);
+	}
+
+	/**
+	 * Gets this stanza as a JDOM element. The element is built once and shared by all callers.
+	 *
+	 * @return
+	 */
+	public Element toElement() {
+		Element element = this.element;
+
+		if (element == null) {
+			this.element = element = buildElement(0);
+		}
+
+		return element;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new XMLOutputter().outputString(toElement());
+	}
+
+	/**
+	 * Finds a child element of the stanza.
+	 *
+	 * @param name
+	 * @param namespaceURI
+	 * @return the node index or -1
+	 */
+	private int findChild(String name, String namespaceURI) {
+		for (int child = 1, end = nodes[NODE_END]; child < end; child = nextSibling(child)) {
+			int node = child * NODE_SIZE;
+
+			if (nodes[node + NODE_TYPE] == TYPE_ELEMENT &&
+					name.equals(strings[nodes[node + NODE_NAME]]) &&
+					namespaceURI.equals(strings[nodes[node + NODE_NAMESPACE_URI]])) {
+				return child;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param node
+	 * @return the index of the node that follows the given node and all its descendants
+	 */
+	private int nextSibling(int node) {
+		return nodes[node * NODE_SIZE + NODE_END];
+	}
+
+	/**
+	 * Gets the text nodes directly under an element.
+	 *
+	 * @param element
+	 * @return
+	 */
+	private String getText(int element) {
+		String text = null;
+		StringBuilder builder = null;
+
+		for (int child = element + 1, end = nextSibling(element); child < end; child = nextSibling(child)) {
+			int node = child * NODE_SIZE;
+
+			if (nodes[node + NODE_TYPE] != TYPE_ELEMENT) {
+				String value = strings[nodes[node + NODE_NAME]];
+
+				if (text == null) {
+					text = value;
+				} else {
+					if (builder == null) {
+						builder = new StringBuilder(text);
+					}
+
+					builder.append(value);
+				}
+			}
+		}
+
+		if (builder != null) {
+			return builder.toString();
+		}
+
+		return text == null ? "" : text;
+	}
+
+	/**
+	 * Builds a JDOM element for an element node.
+	 *
+	 * @param element
+	 * @return
+	 */
+	private Element buildElement(int element) {
+		int node = element * NODE_SIZE;
+
+		Element result = new Element(strings[nodes[node + NODE_NAME]],
+				getNamespace(strings[nodes[node + NODE_NAMESPACE_PREFIX]], strings[nodes[node + NODE_NAMESPACE_URI]]));
+
+		int attributeStart = nodes[node + NODE_ATTRIBUTE_START];
+		int attributeEnd = attributeStart + nodes[node + NODE_ATTRIBUTE_COUNT];
+
+		for (int i = attributeStart; i < attributeEnd; i++) {
+			int attribute = i * ATTRIBUTE_SIZE;
+
+			result.setAttribute(new Attribute(strings[attributes[attribute + ATTRIBUTE_NAME]],
+					strings[attributes[attribute + ATTRIBUTE_VALUE]],
+					getNamespace(strings[attributes[attribute + ATTRIBUTE_NAMESPACE_PREFIX]], strings[attributes[attribute + ATTRIBUTE_NAMESPACE_URI]])));
+		}
+
+		for (int i = attributeEnd, end = attributeEnd + nodes[node + NODE_NAMESPACE_COUNT]; i < end; i++) {
+			int declaration = i * ATTRIBUTE_SIZE;
+
+			Namespace namespace = getNamespace(strings[attributes[declaration + ATTRIBUTE_NAMESPACE_PREFIX]], strings[attributes[declaration + ATTRIBUTE_NAMESPACE_URI]]);
+
+			if (namespace != null) {
+				result.addNamespaceDeclaration(namespace);
+			}
+		}
+
+		for (int child = element + 1, end = nextSibling(element); child < end; child = nextSibling(child)) {
+			int childNode = child * NODE_SIZE;
+
+			switch (nodes[childNode + NODE_TYPE]) {
+				case TYPE_ELEMENT:
+					result.addContent(buildElement(child));
+					break;
+				case TYPE_TEXT:
+					result.addContent(new Text(strings[nodes[childNode + NODE_NAME]]));
+					break;
+				case TYPE_CDATA:
+					result.addContent(new CDATA(strings[nodes[childNode + NODE_NAME]]));
+					break;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the namespace, ignoring invalid ones.
+	 *
+	 * @param prefix
+	 * @param uri
+	 * @return
+	 */
+	private static Namespace getNamespace(String prefix, String uri) {
+		try {
+			return Namespace.getNamespace(prefix, uri);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.kixeye.kixmpp.stanza;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static com.kixeye.kixmpp.stanza.CompactStanza.*;
+
+import java.util.Arrays;
+
+import org.codehaus.stax2.XMLStreamReader2;
+
+/**
+ * Builds a {@link CompactStanza} from a StAX Stream. This class is NOT thread safe, but can be reused for
+ * consecutive stanzas by calling {@link #reset()}.
+ *
+ * @author ebahtijaragic
+ */
+public class StAXCompactStanzaBuilder {
+	private int[] nodes = new int[NODE_SIZE * 8];
+	private int nodeCount = 0;
+
+	private int[] attributes = new int[ATTRIBUTE_SIZE * 8];
+	private int attributeCount = 0;
+
+	private String[] strings = new String[32];
+	private int stringCount = 1;
+
+	private int currentNode = -1;
+
+	public StAXCompactStanzaBuilder() {
+		strings[EMPTY_STRING] = "";
+	}
+
+	/**
+	 * Processes the current event on a stream reader.
+	 *
+	 * @param streamReader
+	 */
+	public void process(XMLStreamReader2 streamReader) {
+		switch (streamReader.getEventType()) {
+			case XMLStreamReader2.START_ELEMENT:
+			{
+				startElement(streamReader.getLocalName(), streamReader.getNamespaceURI(), streamReader.getPrefix());
+
+				for (int i = 0, len = streamReader.getAttributeCount(); i < len; i++) {
+					attribute(streamReader.getAttributeLocalName(i), streamReader.getAttributeValue(i),
+							streamReader.getAttributeNamespace(i), streamReader.getAttributePrefix(i));
+				}
+
+				for (int i = 0, len = streamReader.getNamespaceCount(); i < len; i++) {
+					namespace(streamReader.getNamespacePrefix(i), streamReader.getNamespaceURI(i));
+				}
+			}
+			break;
+			case XMLStreamReader2.END_ELEMENT:
+			{
+				endElement();
+			}
+			break;
+			case XMLStreamReader2.SPACE:
+			case XMLStreamReader2.CHARACTERS:
+			{
+				text(TYPE_TEXT, streamReader.getText());
+			}
+			break;
+			case XMLStreamReader2.CDATA:
+			{
+				text(TYPE_CDATA, streamReader.getText());
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Clears the current state so that the next processed event starts a new stanza.
+	 */
+	public void reset() {
+		Arrays.fill(strings, 1, stringCount, null);
+
+		nodeCount = 0;
+		attributeCount = 0;
+		stringCount = 1;
+		currentNode = -1;
+	}
+
+	/**
+	 * Gets the stanza in the current state. Only the used part of the internal arrays is copied.
+	 *
+	 * @return the stanza or null if no element has been started
+	 */
+	public CompactStanza getStanza() {
+		if (nodeCount == 0) {
+			return null;
+		}
+
+		return new CompactStanza(Arrays.copyOf(nodes, nodeCount * NODE_SIZE),
+				Arrays.copyOf(attributes, attributeCount * ATTRIBUTE_SIZE),
+				Arrays.copyOf(strings, stringCount));
+	}
+
+	/**
+	 * Starts an element.
+	 *
+	 * @param name
+	 * @param namespaceURI
+	 * @param prefix
+	 */
+	void startElement(String name, String namespaceURI, String prefix) {
+		int node = addNode(TYPE_ELEMENT, addString(name));
+
+		nodes[node + NODE_NAMESPACE_URI] = addString(namespaceURI);
+		nodes[node + NODE_NAMESPACE_PREFIX] = addString(prefix);
+		nodes[node + NODE_ATTRIBUTE_START] = attributeCount;
+		nodes[node + NODE_ATTRIBUTE_COUNT] = 0;
+		nodes[node + NODE_NAMESPACE_COUNT] = 0;
+
+		currentNode = nodeCount - 1;
+	}
+
+	/**
+	 * Adds an attribute to the element that was just started.
+	 *
+	 * @param name
+	 * @param value
+	 * @param namespaceURI
+	 * @param prefix
+	 */
+	void attribute(String name, String value, String namespaceURI, String prefix) {
+		addAttribute(addString(name), addString(value), addString(namespaceURI), addString(prefix));
+
+		nodes[currentNode * NODE_SIZE + NODE_ATTRIBUTE_COUNT]++;
+	}
+
+	/**
+	 * Adds a namespace declaration to the element that was just started. Must follow its attributes.
+	 *
+	 * @param prefix
+	 * @param namespaceURI
+	 */
+	void namespace(String prefix, String namespaceURI) {
+		addAttribute(EMPTY_STRING, EMPTY_STRING, addString(namespaceURI), addString(prefix));
+
+		nodes[currentNode * NODE_SIZE + NODE_NAMESPACE_COUNT]++;
+	}
+
+	/**
+	 * Ends the current element.
+	 */
+	void endElement() {
+		if (currentNode < 0) {
+			return;
+		}
+
+		int node = currentNode * NODE_SIZE;
+
+		nodes[node + NODE_END] = nodeCount;
+
+		currentNode = nodes[node + NODE_PARENT];
+	}
+
+	/**
+	 * Adds text to the current element.
+	 *
+	 * @param type
+	 * @param text
+	 */
+	void text(int type, String text) {
+		if (currentNode < 0) {
+			return;
+		}
+
+		int node = addNode(type, addString(text));
+
+		nodes[node + NODE_END] = nodeCount;
+	}
+
+	/**
+	 * @param type
+	 * @param name
+	 * @return the offset of the new node in the node array
+	 */
+	private int addNode(int type, int name) {
+		int node = nodeCount * NODE_SIZE;
+
+		if (node + NODE_SIZE > nodes.length) {
+			nodes = Arrays.copyOf(nodes, nodes.length * 2);
+		}
+
+		nodes[node + NODE_TYPE] = type;
+		nodes[node + NODE_PARENT] = currentNode;
+		nodes[node + NODE_END] = 0;
+		nodes[node + NODE_NAME] = name;
+
+		nodeCount++;
+
+		return node;
+	}
+
+	/**
+	 * @param name
+	 * @param value
+	 * @param namespaceURI
+	 * @param prefix
+	 */
+	private void addAttribute(int name, int value, int namespaceURI, int prefix) {
+		int attribute = attributeCount * ATTRIBUTE_SIZE;
+
+		if (attribute + ATTRIBUTE_SIZE > attributes.length) {
+			attributes = Arrays.copyOf(attributes, attributes.length * 2);
+		}
+
+		attributes[attribute + ATTRIBUTE_NAME] = name;
+		attributes[attribute + ATTRIBUTE_VALUE] = value;
+		attributes[attribute + ATTRIBUTE_NAMESPACE_URI] = namespaceURI;
+		attributes[attribute + ATTRIBUTE_NAMESPACE_PREFIX] = prefix;
+
+		attributeCount++;
+	}
+
+	/**
+	 * @param value
+	 * @return the index of the value in the string table
+	 */
+	private int addString(String value) {
+		if (value == null || value.isEmpty()) {
+			return EMPTY_STRING;
+		}
+
+		if (stringCount == strings.length) {
+			strings = Arrays.copyOf(strings, strings.length * 2);
+		}
+
+		strings[stringCount] = value;
+
+		return stringCount++;
+	}
+}
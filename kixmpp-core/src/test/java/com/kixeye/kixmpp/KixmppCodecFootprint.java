@@ -0,0 +1,100 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the heap that a {@link KixmppCodec} keeps per connection, with a live reader and after hibernation.
+ *
+ * <p>Run {@link #main(String[])} from the test classpath with a fixed heap (e.g. <code>-Xms1g -Xmx1g</code>), the first
+ * argument is the number of connections.</p>
+ *
+ * @author ebahtijaragic
+ */
+public class KixmppCodecFootprint {
+	private static final byte[] STREAM_START = ("<?xml version='1.0'?><stream:stream xmlns='jabber:client' " +
+			"xmlns:stream='http://etherx.jabber.org/streams' to='kixeye.com' version='1.0'>").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] STANZA = ("<message to='room@conference.kixeye.com' type='groupchat' id='1'>" +
+			"<body>Hello World!</body></message>").getBytes(StandardCharsets.UTF_8);
+
+	public static void main(String[] args) throws Exception {
+		int connectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setHibernateAfterMillis(1000);
+
+		EmbeddedChannel[] channels = new EmbeddedChannel[connectionCount];
+
+		long baseline = usedHeap();
+
+		for (int i = 0; i < connectionCount; i++) {
+			channels[i] = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		}
+
+		long bare = usedHeap();
+
+		for (EmbeddedChannel channel : channels) {
+			channel.pipeline().addFirst(new KixmppCodec(settings));
+			channel.writeInbound(Unpooled.wrappedBuffer(STREAM_START));
+			channel.writeInbound(Unpooled.wrappedBuffer(STANZA));
+
+			while (channel.readInbound() != null) {
+				// drop the decoded stream start and stanza
+			}
+		}
+
+		long awake = usedHeap();
+
+		for (EmbeddedChannel channel : channels) {
+			channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+		}
+
+		long hibernated = usedHeap();
+
+		System.out.printf("%d connections, bytes per connection:%n", connectionCount);
+		System.out.printf("  channel:             %8d%n", (bare - baseline) / connectionCount);
+		System.out.printf("  codec, awake:        %8d%n", (awake - bare) / connectionCount);
+		System.out.printf("  codec, hibernated:   %8d%n", (hibernated - bare) / connectionCount);
+
+		// keep the channels reachable until everything has been measured
+		System.out.println(channels.length);
+	}
+
+	/**
+	 * @return the heap in use after a full collection
+	 * @throws InterruptedException
+	 */
+	private static long usedHeap() throws InterruptedException {
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -20,9 +20,12 @@ package com.kixeye.kixmpp;
  * #L%
  */
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
@@ -36,6 +39,9 @@ import org.jdom2.Element;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.io.ByteStreams;
+import com.kixeye.kixmpp.stanza.CompactStanza;
+
 /**
  * Tests the {@link KixmppCodec}
  * 
@@ -139,6 +145,119 @@ public class KixmppCodecTest {
 		Assert.assertEquals("iq", elements.get(4).getName());
 	}
 	
+	@Test
+	public void testSampleXmppClientSessionMixedBuffers() throws Exception {
+		final AtomicReference<KixmppStreamStart> start = new AtomicReference<>();
+		final AtomicReference<KixmppStreamEnd> end = new AtomicReference<>();
+		final ArrayList<Element> elements = new ArrayList<>();
+		
+		ChannelInboundHandlerAdapter handler = new ChannelInboundHandlerAdapter() {
+			@Override
+			public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+				if (msg instanceof KixmppStreamStart) {
+					start.set((KixmppStreamStart)msg);
+				} else if (msg instanceof KixmppStreamEnd) {
+					end.set((KixmppStreamEnd)msg);
+				} else if (msg instanceof Element) {
+					elements.add((Element)msg);
+				}
+			}
+		};
+		
+		EmbeddedChannel channel = new EmbeddedChannel(
+				new KixmppCodec(),
+				handler);
+		
+		byte[] data;
+		
+		try (InputStream inputStream = this.getClass().getResourceAsStream("/sampleXmppClientSession.xml")) {
+			data = ByteStreams.toByteArray(inputStream);
+		}
+		
+		// write heap, direct and composite buffers in turn
+		int offset = 0;
+		int packet = 0;
+		
+		while (offset < data.length) {
+			int length = Math.min(64, data.length - offset);
+			
+			switch (packet++ % 3) {
+				case 0:
+					channel.writeInbound(Unpooled.buffer(length).writeBytes(data, offset, length));
+					break;
+				case 1:
+					channel.writeInbound(Unpooled.directBuffer(length).writeBytes(data, offset, length));
+					break;
+				default:
+					int half = length / 2;
+					
+					channel.writeInbound(Unpooled.wrappedBuffer(
+							Unpooled.buffer(half).writeBytes(data, offset, half), 
+							Unpooled.directBuffer(length - half).writeBytes(data, offset + half, length - half)));
+					break;
+			}
+			
+			offset += length;
+		}
+		
+		Assert.assertNotNull(start.get());
+		Assert.assertNotNull(end.get());
+		
+		Assert.assertEquals(5, elements.size());
+
+		Assert.assertEquals("starttls", elements.get(0).getName());
+		Assert.assertEquals("auth", elements.get(1).getName());
+		Assert.assertEquals("iq", elements.get(2).getName());
+		Assert.assertEquals("iq", elements.get(3).getName());
+		Assert.assertEquals("iq", elements.get(4).getName());
+	}
+	
+	@Test
+	public void testSampleXmppClientSessionCompactStanzas() throws Exception {
+		final AtomicReference<KixmppStreamStart> start = new AtomicReference<>();
+		final AtomicReference<KixmppStreamEnd> end = new AtomicReference<>();
+		final ArrayList<CompactStanza> stanzas = new ArrayList<>();
+		
+		ChannelInboundHandlerAdapter handler = new ChannelInboundHandlerAdapter() {
+			@Override
+			public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+				if (msg instanceof KixmppStreamStart) {
+					start.set((KixmppStreamStart)msg);
+				} else if (msg instanceof KixmppStreamEnd) {
+					end.set((KixmppStreamEnd)msg);
+				} else if (msg instanceof CompactStanza) {
+					stanzas.add((CompactStanza)msg);
+				}
+			}
+		};
+		
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setCompactStanzas(true);
+		
+		EmbeddedChannel channel = new EmbeddedChannel(
+				new KixmppCodec(settings),
+				handler);
+		
+		try (InputStream inputStream = this.getClass().getResourceAsStream("/sampleXmppClientSession.xml")) {
+			channel.writeInbound(Unpooled.wrappedBuffer(ByteStreams.toByteArray(inputStream)));
+		}
+		
+		Assert.assertNotNull(start.get());
+		Assert.assertNotNull(end.get());
+		
+		Assert.assertEquals(5, stanzas.size());
+
+		Assert.assertEquals("starttls", stanzas.get(0).getName());
+		Assert.assertEquals("auth", stanzas.get(1).getName());
+		Assert.assertEquals("X-YANDEX-OAUTH", stanzas.get(1).getAttributeValue("mechanism"));
+		Assert.assertEquals("iq", stanzas.get(2).getName());
+		Element bind = stanzas.get(2).getChild("bind", "urn:ietf:params:xml:ns:xmpp-bind");
+		Assert.assertEquals("test", bind.getChildText("resource", bind.getNamespace()));
+		Assert.assertEquals("iq", stanzas.get(3).getName());
+		Assert.assertEquals("iq", stanzas.get(4).getName());
+		Assert.assertEquals("ping_1", stanzas.get(4).getAttributeValue("id"));
+	}
+	
 	@Test
 	public void testSampleXmppServerSession() throws Exception {
 		final AtomicReference<KixmppStreamStart> start = new AtomicReference<>();
@@ -184,4 +303,336 @@ public class KixmppCodecTest {
 		Assert.assertEquals("iq", elements.get(4).getName());
 		Assert.assertEquals("iq", elements.get(5).getName());
 	}
+	
+	@Test
+	public void testEncodeConstantFrames() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec());
+		
+		channel.writeOutbound(new KixmppStreamStart(new KixmppJid("kixeye.com"), KixmppJid.fromRawJid("user@kixeye.com/web"), true, "1234"));
+		channel.writeOutbound(KixmppEncodedFrames.SASL_SUCCESS.duplicate());
+		channel.writeOutbound(KixmppEncodedFrames.SASL_SUCCESS.duplicate());
+		channel.writeOutbound(new KixmppStreamEnd());
+		
+		Assert.assertEquals("<?xml version='1.0' encoding='UTF-8'?><stream:stream id=\"1234\" from=\"kixeye.com\" to=\"user@kixeye.com/web\" "
+				+ "version=\"1.0\" xmlns=\"jabber:client\" xmlns:stream=\"http://etherx.jabber.org/streams\">", readOutbound(channel));
+		Assert.assertEquals("<success xmlns=\"urn:ietf:params:xml:ns:xmpp-sasl\" />", readOutbound(channel));
+		Assert.assertEquals("<success xmlns=\"urn:ietf:params:xml:ns:xmpp-sasl\" />", readOutbound(channel));
+		Assert.assertEquals("</stream:stream>", readOutbound(channel));
+		
+		Assert.assertEquals(1, KixmppEncodedFrames.SASL_SUCCESS.refCnt());
+		Assert.assertEquals(0, KixmppEncodedFrames.SASL_SUCCESS.readerIndex());
+	}
+	
+	@Test
+	public void testStanzaSizeLimit() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setMaxStanzaSize(100);
+		
+		StringBuilder body = new StringBuilder();
+		
+		for (int i = 0; i < 200; i++) {
+			body.append('a');
+		}
+		
+		assertPolicyViolation(settings, "<message><body>" + body + "</body></message>", 32);
+		assertPolicyViolation(settings, "<message><body>" + body + "</body></message>", 1024);
+		assertPolicyViolation(settings, "<message to='" + body + "'/>", 32);
+	}
+	
+	@Test
+	public void testStanzaSizeLimitWithArrayOffsets() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setMaxStanzaSize(100);
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec(settings));
+		
+		StringBuilder stream = new StringBuilder("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+		
+		for (int i = 0; i < 20; i++) {
+			stream.append("<message to='x' id='").append(i).append("'><body>hello world</body></message>");
+		}
+		
+		// every stanza is split across reads whose heap buffers start at different offsets in their arrays
+		writeInbound(channel, stream.toString().getBytes(StandardCharsets.UTF_8), 16, 4096);
+		
+		Assert.assertTrue(channel.isOpen());
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals("" + i, ((Element)channel.readInbound()).getAttributeValue("id"));
+		}
+		
+		Assert.assertNull(channel.readInbound());
+		Assert.assertNull(channel.readOutbound());
+	}
+	
+	@Test
+	public void testStanzaDepthLimit() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setMaxStanzaDepth(3);
+		
+		assertPolicyViolation(settings, "<message><a><b><c/></b></a></message>", 1024);
+	}
+	
+	@Test
+	public void testAttributeCountLimit() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setMaxAttributeCount(2);
+		
+		assertPolicyViolation(settings, "<message a='1' b='2' c='3'/>", 1024);
+		assertPolicyViolation(settings, "<message><body xmlns:a='a' xmlns:b='b' a:c='c'/></message>", 1024);
+	}
+	
+	@Test
+	public void testStreamRestarts() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec());
+		
+		writeInbound(channel, "<?xml version='1.0'?><stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+		writeInbound(channel, "<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'/>");
+		
+		// a restart with an xml declaration
+		writeInbound(channel, " <?xml version='1.0'?><stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'><iq id='1'/>");
+		
+		// a restart that is split in front of the stream name
+		writeInbound(channel, "<str");
+		writeInbound(channel, "eam:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+		writeInbound(channel, "<message id='2'/>");
+		
+		// a restart in the middle of a chunk
+		writeInbound(channel, "<message id='3'/><stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'><iq id='4'/>");
+		writeInbound(channel, "</stream:stream>");
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("auth", ((Element)channel.readInbound()).getName());
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("1", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("2", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertEquals("3", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("4", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamEnd);
+		Assert.assertNull(channel.readInbound());
+		
+		Assert.assertNull(channel.readOutbound());
+		Assert.assertTrue(channel.isOpen());
+	}
+	
+	@Test
+	public void testHibernation() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setHibernateAfterMillis(1000);
+		
+		KixmppCodec codec = new KixmppCodec(settings);
+		EmbeddedChannel channel = new EmbeddedChannel(codec);
+		
+		writeInbound(channel, "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' xmlns:k='urn:kixeye'>");
+		writeInbound(channel, "<message id='1'/> \n");
+		
+		channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+		
+		Assert.assertTrue(codec.isHibernating());
+		
+		// the bindings of the stream element are still in scope after the reader has been created again
+		writeInbound(channel, "<message id='2'><k:x/></message>");
+		
+		Assert.assertFalse(codec.isHibernating());
+		
+		channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+		
+		Assert.assertTrue(codec.isHibernating());
+		
+		writeInbound(channel, "</stream:stream>");
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("1", ((Element)channel.readInbound()).getAttributeValue("id"));
+		
+		Element message = (Element)channel.readInbound();
+		
+		Assert.assertEquals("2", message.getAttributeValue("id"));
+		Assert.assertEquals("jabber:client", message.getNamespaceURI());
+		Assert.assertEquals("urn:kixeye", message.getChildren().get(0).getNamespaceURI());
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamEnd);
+		Assert.assertNull(channel.readInbound());
+		
+		Assert.assertNull(channel.readOutbound());
+		Assert.assertTrue(channel.isOpen());
+	}
+	
+	@Test
+	public void testHibernationWaitsForStanzaEnd() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setHibernateAfterMillis(1000);
+		
+		KixmppCodec codec = new KixmppCodec(settings);
+		EmbeddedChannel channel = new EmbeddedChannel(codec);
+		
+		writeInbound(channel, "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+		
+		// a partial tag is buffered by the reader
+		writeInbound(channel, "<message id='1'/><mess");
+		channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+		
+		Assert.assertFalse(codec.isHibernating());
+		
+		// an open stanza
+		writeInbound(channel, "age id='2'><body>");
+		channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+		
+		Assert.assertFalse(codec.isHibernating());
+		
+		writeInbound(channel, "</body></message>");
+		
+		// hibernation is off by default
+		KixmppCodec defaultCodec = new KixmppCodec();
+		EmbeddedChannel defaultChannel = new EmbeddedChannel(defaultCodec);
+		
+		writeInbound(defaultChannel, "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+		defaultChannel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+		
+		Assert.assertFalse(defaultCodec.isHibernating());
+		
+		channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+		
+		Assert.assertTrue(codec.isHibernating());
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("1", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertEquals("2", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertNull(channel.readInbound());
+	}
+	
+	@Test
+	public void testBatchStanzas() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setBatchStanzas(true);
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec(settings));
+		
+		writeInbound(channel, "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'><iq id='1'/><presence id='2'/>");
+		writeInbound(channel, "<message id='3'/><message id='4'/><message id='5'/>");
+		writeInbound(channel, "<message id='6'/>");
+		writeInbound(channel, "<message id='7'/></stream:stream>");
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		
+		KixmppStanzaBatch batch = (KixmppStanzaBatch)channel.readInbound();
+		
+		Assert.assertEquals(2, batch.size());
+		Assert.assertEquals("1", ((Element)batch.getStanzas().get(0)).getAttributeValue("id"));
+		Assert.assertEquals("2", ((Element)batch.getStanzas().get(1)).getAttributeValue("id"));
+		
+		batch = (KixmppStanzaBatch)channel.readInbound();
+		
+		Assert.assertEquals(3, batch.size());
+		Assert.assertEquals("5", ((Element)batch.getStanzas().get(2)).getAttributeValue("id"));
+		
+		// a stanza on its own is not wrapped
+		Assert.assertEquals("6", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertEquals("7", ((Element)channel.readInbound()).getAttributeValue("id"));
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamEnd);
+		Assert.assertNull(channel.readInbound());
+	}
+	
+	@Test
+	public void testMalformedXml() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec());
+		
+		writeInbound(channel, "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+		writeInbound(channel, "<message><body>Hi</bdy></message>");
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertNull(channel.readInbound());
+		
+		Assert.assertEquals("<stream:error><not-well-formed xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>", readOutbound(channel));
+		Assert.assertEquals("</stream:stream>", readOutbound(channel));
+		Assert.assertFalse(channel.isOpen());
+	}
+	
+	/**
+	 * Sends a stanza that is within the limits followed by one that exceeds them and checks that only the first
+	 * is decoded and that the stream is closed with a policy-violation.
+	 * 
+	 * @param settings
+	 * @param stanza
+	 * @param packetSize
+	 * @throws Exception
+	 */
+	private static void assertPolicyViolation(KixmppCodecSettings settings, String stanza, int packetSize) throws Exception {
+		byte[] data = ("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>"
+				+ "<presence a='1'/>" + stanza + "<presence/>").getBytes(StandardCharsets.UTF_8);
+		
+		// once in buffers that start their arrays, once at varying offsets in them
+		assertPolicyViolation(settings, data, packetSize, 0);
+		assertPolicyViolation(settings, data, packetSize, 4096);
+	}
+	
+	/**
+	 * @param settings
+	 * @param data
+	 * @param packetSize
+	 * @param arrayOffsetStep
+	 * @throws Exception
+	 */
+	private static void assertPolicyViolation(KixmppCodecSettings settings, byte[] data, int packetSize, int arrayOffsetStep) throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec(settings));
+		
+		writeInbound(channel, data, packetSize, arrayOffsetStep);
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("presence", ((Element)channel.readInbound()).getName());
+		Assert.assertNull(channel.readInbound());
+		
+		Assert.assertEquals("<stream:error><policy-violation xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>", readOutbound(channel));
+		Assert.assertEquals("</stream:stream>", readOutbound(channel));
+		Assert.assertFalse(channel.isOpen());
+	}
+	
+	/**
+	 * Writes a string as an inbound buffer.
+	 * 
+	 * @param channel
+	 * @param data
+	 */
+	private static void writeInbound(EmbeddedChannel channel, String data) {
+		channel.writeInbound(Unpooled.buffer().writeBytes(data.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Writes data as inbound heap buffers of a packet size, until the channel closes. Each buffer is a slice of a
+	 * larger array, at an offset that goes round a few multiples of the step.
+	 * 
+	 * @param channel
+	 * @param data
+	 * @param packetSize
+	 * @param arrayOffsetStep 0 for buffers that start their arrays
+	 */
+	private static void writeInbound(EmbeddedChannel channel, byte[] data, int packetSize, int arrayOffsetStep) {
+		for (int offset = 0, packet = 0; offset < data.length && channel.isOpen(); offset += packetSize, packet++) {
+			int length = Math.min(packetSize, data.length - offset);
+			int arrayOffset = (packet % 3) * arrayOffsetStep;
+			
+			byte[] array = new byte[arrayOffset + length];
+			System.arraycopy(data, offset, array, arrayOffset, length);
+			
+			channel.writeInbound(Unpooled.wrappedBuffer(array, arrayOffset, length));
+		}
+	}
+	
+	/**
+	 * Reads an outbound buffer as a string and releases it.
+	 * 
+	 * @param channel
+	 * @return
+	 */
+	private static String readOutbound(EmbeddedChannel channel) {
+		ByteBuf buffer = (ByteBuf)channel.readOutbound();
+		
+		try {
+			return buffer.toString(StandardCharsets.UTF_8);
+		} finally {
+			buffer.release();
+		}
+	}
 }
@@ -0,0 +1,151 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link KixmppFlushConsolidationHandler}
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppFlushConsolidationHandlerTest {
+	@Test
+	public void testFlushesOnceAfterRead() throws Exception {
+		AtomicInteger flushes = new AtomicInteger();
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new FlushCounter(flushes), new KixmppFlushConsolidationHandler(), new ChannelInboundHandlerAdapter() {
+			@Override
+			public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+				for (int i = 0; i < 3; i++) {
+					ctx.writeAndFlush(buffer("<message id='" + i + "'/>"));
+				}
+			}
+		});
+		
+		channel.writeInbound(buffer("<iq/>"));
+		
+		Assert.assertEquals(1, flushes.get());
+		Assert.assertEquals(3, countOutbound(channel));
+	}
+	
+	@Test
+	public void testFlushesOnceAfterQueuedTasks() throws Exception {
+		AtomicInteger flushes = new AtomicInteger();
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new FlushCounter(flushes), new KixmppFlushConsolidationHandler());
+		
+		for (int i = 0; i < 3; i++) {
+			channel.writeAndFlush(buffer("<message id='" + i + "'/>"));
+		}
+		
+		Assert.assertEquals(0, flushes.get());
+		Assert.assertNull(channel.readOutbound());
+		
+		channel.runPendingTasks();
+		
+		Assert.assertEquals(1, flushes.get());
+		Assert.assertEquals(3, countOutbound(channel));
+	}
+	
+	@Test
+	public void testFlushesAtByteLimit() throws Exception {
+		KixmppFlushSettings settings = new KixmppFlushSettings();
+		settings.setMaxPendingBytes(32);
+		
+		AtomicInteger flushes = new AtomicInteger();
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new FlushCounter(flushes), new KixmppFlushConsolidationHandler(settings));
+		
+		channel.writeAndFlush(buffer("<message id='1'/>"));
+		
+		Assert.assertEquals(0, flushes.get());
+		
+		channel.writeAndFlush(buffer("<message id='2'/>"));
+		
+		Assert.assertEquals(1, flushes.get());
+		Assert.assertEquals(2, countOutbound(channel));
+		
+		// nothing is left to flush
+		channel.runPendingTasks();
+		
+		Assert.assertEquals(1, flushes.get());
+	}
+	
+	@Test
+	public void testFlushesOnClose() throws Exception {
+		AtomicInteger flushes = new AtomicInteger();
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new FlushCounter(flushes), new KixmppFlushConsolidationHandler());
+		
+		channel.writeAndFlush(buffer("<message id='1'/>"));
+		channel.close();
+		
+		Assert.assertEquals(1, flushes.get());
+		Assert.assertEquals(1, countOutbound(channel));
+	}
+	
+	private static ByteBuf buffer(String data) {
+		return Unpooled.copiedBuffer(data, StandardCharsets.UTF_8);
+	}
+	
+	private static int countOutbound(EmbeddedChannel channel) {
+		int count = 0;
+		
+		ByteBuf buffer;
+		
+		while ((buffer = (ByteBuf)channel.readOutbound()) != null) {
+			buffer.release();
+			count++;
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Counts the flushes that reach the socket.
+	 */
+	private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+		private final AtomicInteger flushes;
+		
+		public FlushCounter(AtomicInteger flushes) {
+			this.flushes = flushes;
+		}
+		
+		@Override
+		public void flush(ChannelHandlerContext ctx) throws Exception {
+			flushes.incrementAndGet();
+			
+			ctx.flush();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares parsing a jid and writing it out the way it used to be done, with split and concatenation, with the
+ * indexOf parser and cached string forms, and with a {@link KixmppJidCache}.
+ *
+ * <p>Run {@link #main(String[])} from the test classpath, the gc profiler reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code> is bytes per jid).</p>
+ *
+ * @author ebahtijaragic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KixmppJidBenchmark {
+	private String rawJid;
+	
+	private KixmppJidCache cache;
+	
+	@Setup
+	public void setup() {
+		// not a constant, so that its hash code has to be computed once like a parsed attribute's
+		rawJid = new StringBuilder("user1234@kixeye.com/web").toString();
+		
+		cache = new KixmppJidCache(1024);
+	}
+	
+	/**
+	 * Parses with split and writes the full jid out three times, as a stanza's trip through the server does.
+	 */
+	@Benchmark
+	public void split(Blackhole blackhole) {
+		String[] jidSplit = rawJid.split("/", 2);
+		String[] domainSplit = jidSplit[0].split("@", 2);
+		
+		String node = domainSplit.length == 1 ? null : domainSplit[0];
+		String domain = (domainSplit.length == 1 ? domainSplit[0] : domainSplit[1]).toLowerCase();
+		String resource = jidSplit.length == 2 ? jidSplit[1] : null;
+		
+		for (int i = 0; i < 3; i++) {
+			blackhole.consume(node + "@" + domain + "/" + resource);
+		}
+	}
+	
+	@Benchmark
+	public void indexOf(Blackhole blackhole) {
+		KixmppJid jid = KixmppJid.fromRawJid(rawJid);
+		
+		for (int i = 0; i < 3; i++) {
+			blackhole.consume(jid.getFullJid());
+		}
+	}
+	
+	@Benchmark
+	public void cached(Blackhole blackhole) {
+		KixmppJid jid = cache.fromRawJid(rawJid);
+		
+		for (int i = 0; i < 3; i++) {
+			blackhole.consume(jid.getFullJid());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(KixmppJidBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
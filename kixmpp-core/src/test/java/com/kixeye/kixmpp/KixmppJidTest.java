@@ -0,0 +1,118 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link KixmppJid}
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppJidTest {
+	private static final String[] RAW_JIDS = {
+		"kixeye.com",
+		"user@kixeye.com",
+		"user@kixeye.com/web",
+		"kixeye.com/web",
+		"user@Kixeye.COM/Web",
+		"room@conference.kixeye.com/nick@name/with/slashes",
+		"kixeye.com/res@ource",
+		"@kixeye.com",
+		"user@kixeye.com/",
+	};
+	
+	@Test
+	public void testFromRawJid() {
+		for (String rawJid : RAW_JIDS) {
+			KixmppJid jid = KixmppJid.fromRawJid(rawJid);
+			KixmppJid expected = splitRawJid(rawJid);
+			
+			Assert.assertEquals(rawJid, expected.getNode(), jid.getNode());
+			Assert.assertEquals(rawJid, expected.getDomain(), jid.getDomain());
+			Assert.assertEquals(rawJid, expected.getResource(), jid.getResource());
+			Assert.assertEquals(rawJid, expected, jid);
+			Assert.assertEquals(rawJid, expected.hashCode(), jid.hashCode());
+			Assert.assertEquals(rawJid, expected.getFullJid(), jid.getFullJid());
+			Assert.assertEquals(rawJid, expected.getBaseJid(), jid.getBaseJid());
+		}
+	}
+	
+	@Test
+	public void testStringForms() {
+		KixmppJid jid = KixmppJid.fromRawJid("user@kixeye.com/web");
+		
+		Assert.assertSame(jid.getFullJid(), jid.toString());
+		Assert.assertSame(jid.getBaseJid(), jid.getBaseJid());
+		Assert.assertEquals("user@kixeye.com", jid.getBaseJid());
+		Assert.assertEquals("user@kixeye.com", jid.withoutResource().getFullJid());
+		Assert.assertEquals("kixeye.com/web", new KixmppJid(null, "kixeye.com", "web").getFullJid());
+		Assert.assertEquals("user@kixeye.com/web", KixmppJid.fromRawJid("user@Kixeye.com/web").getFullJid());
+		
+		KixmppJid baseJid = jid.withoutResource();
+		
+		Assert.assertSame(baseJid, baseJid.withoutResource());
+	}
+	
+	@Test
+	public void testCache() {
+		KixmppJidCache cache = new KixmppJidCache(3);
+		
+		Assert.assertEquals(4, cache.getSize());
+		
+		String rawJid = "user@kixeye.com/web";
+		
+		KixmppJid jid = cache.fromRawJid(rawJid);
+		
+		Assert.assertSame(jid, cache.fromRawJid(new String(rawJid)));
+		Assert.assertEquals(KixmppJid.fromRawJid(rawJid), jid);
+		
+		// not cached, the raw jid is not the full jid
+		Assert.assertNotSame(cache.fromRawJid("user@Kixeye.com"), cache.fromRawJid("user@Kixeye.com"));
+		Assert.assertEquals("user@kixeye.com", cache.fromRawJid("user@Kixeye.com").getFullJid());
+		
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals("user" + i + "@kixeye.com", cache.fromRawJid("user" + i + "@kixeye.com").getFullJid());
+		}
+		
+		cache.clear();
+		
+		Assert.assertNotSame(jid, cache.fromRawJid(rawJid));
+	}
+	
+	/**
+	 * Parses a raw jid the way it used to be parsed.
+	 * 
+	 * @param rawJid
+	 * @return
+	 */
+	static KixmppJid splitRawJid(String rawJid) {
+		String[] jidSplit = rawJid.split("/", 2);
+		String[] domainSplit = jidSplit[0].split("@", 2);
+		
+		if (domainSplit.length == 1) {
+			return new KixmppJid(null, domainSplit[0], jidSplit.length == 2 ? jidSplit[1] : null);
+		} else {
+			return new KixmppJid(domainSplit[0], domainSplit[1], jidSplit.length == 2 ? jidSplit[1] : null);
+		}
+	}
+}
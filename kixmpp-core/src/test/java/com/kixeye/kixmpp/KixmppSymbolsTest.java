@@ -0,0 +1,149 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import org.jdom2.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.kixeye.kixmpp.KixmppCodec.XMLStreamReaderConfiguration;
+import com.kixeye.kixmpp.stanza.CompactStanza;
+
+/**
+ * Tests the {@link KixmppSymbols}
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppSymbolsTest {
+	private static final String STREAM = "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>"
+			+ "<message to='a@kixeye.com'><body>Hi</body></message>"
+			+ "<stream:features/>";
+	
+	@Test
+	public void testQualifiedName() throws Exception {
+		String prefix = new String("stream");
+		String localName = new String("features");
+		
+		Assert.assertSame("stream:features", KixmppSymbols.qualifiedName(prefix, localName));
+		Assert.assertSame(KixmppSymbols.qualifiedName(prefix, localName), KixmppSymbols.qualifiedName("stream", "features"));
+		Assert.assertSame(localName, KixmppSymbols.qualifiedName("", localName));
+		Assert.assertSame(localName, KixmppSymbols.qualifiedName(null, localName));
+	}
+	
+	@Test
+	public void testQualifiedNamesPerPrefixAreBounded() throws Exception {
+		for (int i = 0; i < KixmppSymbols.MAX_NAMES_PER_PREFIX; i++) {
+			KixmppSymbols.qualifiedName("flood", "name" + i);
+		}
+		
+		String qualifiedName = KixmppSymbols.qualifiedName("flood", "other");
+		
+		// concatenated but no longer cached
+		Assert.assertEquals("flood:other", qualifiedName);
+		Assert.assertNotSame(qualifiedName, KixmppSymbols.qualifiedName("flood", "other"));
+		
+		// the names cached before the prefix filled up are still canonical
+		Assert.assertSame(KixmppSymbols.qualifiedName("flood", "name0"), KixmppSymbols.qualifiedName(new String("flood"), new String("name0")));
+		Assert.assertSame("stream:features", KixmppSymbols.qualifiedName("stream", "features"));
+	}
+	
+	@Test
+	public void testSharedInputFactory() throws Exception {
+		Assert.assertSame(KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.SPEED), KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.SPEED));
+		Assert.assertNotSame(KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.SPEED), KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.XML_CONFORMANCE));
+	}
+	
+	@Test
+	public void testSharedNamesAreBounded() throws Exception {
+		int seededNameCount = KixmppSymbols.getSharedNameCount(KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.CONVENIENCE));
+		
+		Assert.assertTrue(seededNameCount > 0);
+		
+		for (int i = 0; i < 3 * KixmppSymbols.MAX_SHARED_NAMES; i++) {
+			AsyncXMLStreamReader streamReader = KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.CONVENIENCE).createAsyncXMLStreamReader();
+			
+			byte[] data = ("<flood" + i + "/>").getBytes(StandardCharsets.UTF_8);
+			streamReader.getInputFeeder().feedInput(data, 0, data.length);
+			
+			Assert.assertEquals(XMLStreamConstants.START_DOCUMENT, streamReader.next());
+			Assert.assertEquals(XMLStreamConstants.START_ELEMENT, streamReader.next());
+			
+			streamReader.close();
+			
+			Assert.assertTrue(KixmppSymbols.getSharedNameCount(KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.CONVENIENCE)) <= KixmppSymbols.MAX_SHARED_NAMES);
+		}
+		
+		// a replaced factory starts out with the seeded names only
+		InputFactoryImpl inputFactory = KixmppSymbols.getInputFactory(XMLStreamReaderConfiguration.CONVENIENCE);
+		int nameCount = KixmppSymbols.getSharedNameCount(inputFactory);
+		
+		Assert.assertTrue(nameCount < KixmppSymbols.MAX_SHARED_NAMES);
+		Assert.assertTrue(nameCount >= seededNameCount);
+	}
+	
+	@Test
+	public void testCanonicalNamesAcrossCodecs() throws Exception {
+		Element first = decode(new KixmppCodecSettings());
+		Element second = decode(new KixmppCodecSettings());
+		
+		Assert.assertNotSame(first, second);
+		Assert.assertSame("message", first.getName());
+		Assert.assertSame(first.getName(), second.getName());
+		Assert.assertSame(first.getNamespaceURI(), second.getNamespaceURI());
+		Assert.assertSame(first.getAttributes().get(0).getName(), second.getAttributes().get(0).getName());
+		Assert.assertSame(first.getChildren().get(0).getName(), second.getChildren().get(0).getName());
+	}
+	
+	@Test
+	public void testCanonicalCompactStanzaNames() throws Exception {
+		KixmppCodecSettings settings = new KixmppCodecSettings();
+		settings.setCompactStanzas(true);
+		
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec(settings));
+		channel.writeInbound(Unpooled.wrappedBuffer(STREAM.getBytes(StandardCharsets.UTF_8)));
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertSame("message", ((CompactStanza)channel.readInbound()).getQualifiedName());
+		Assert.assertSame("stream:features", ((CompactStanza)channel.readInbound()).getQualifiedName());
+	}
+	
+	/**
+	 * @param settings
+	 * @return the first stanza of the stream decoded by a new codec
+	 */
+	private static Element decode(KixmppCodecSettings settings) {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppCodec(settings));
+		channel.writeInbound(Unpooled.wrappedBuffer(STREAM.getBytes(StandardCharsets.UTF_8)));
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		
+		return (Element)channel.readInbound();
+	}
+}
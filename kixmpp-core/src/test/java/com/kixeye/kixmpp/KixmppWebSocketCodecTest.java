@@ -0,0 +1,186 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link KixmppWebSocketCodec}
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppWebSocketCodecTest {
+	@Test
+	public void testDraftFraming() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppWebSocketCodec());
+		
+		channel.writeInbound(frame("<?xml version='1.0' encoding='UTF-8'?><stream:stream to='kixeye.com' version='1.0' xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>", false));
+		channel.writeInbound(frame("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>AHVzZXIAcGFzcw==</auth>", true));
+		channel.writeInbound(frame("<stream:stream to='kixeye.com' version='1.0' xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>", true));
+		channel.writeInbound(frame("<iq type='set' id='1'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq> <message to='a@kixeye.com'><body>Hi</body></message>", false));
+		channel.writeInbound(frame("</stream:stream>", false));
+		
+		KixmppStreamStart streamStart = (KixmppStreamStart)channel.readInbound();
+		Assert.assertEquals("kixeye.com", streamStart.getTo().getFullJid());
+		
+		Element auth = (Element)channel.readInbound();
+		Assert.assertEquals("auth", auth.getName());
+		Assert.assertEquals("urn:ietf:params:xml:ns:xmpp-sasl", auth.getNamespaceURI());
+		Assert.assertEquals("AHVzZXIAcGFzcw==", auth.getText());
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		
+		Element iq = (Element)channel.readInbound();
+		Assert.assertEquals("iq", iq.getName());
+		Assert.assertEquals("jabber:client", iq.getNamespaceURI());
+		Assert.assertEquals("bind", iq.getChildren().get(0).getName());
+		
+		Element message = (Element)channel.readInbound();
+		Assert.assertEquals("message", message.getName());
+		Assert.assertEquals("Hi", message.getChildText("body", message.getNamespace()));
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamEnd);
+		Assert.assertNull(channel.readInbound());
+		
+		channel.writeOutbound(new KixmppStreamStart(new KixmppJid("kixeye.com"), null, true, "1"));
+		channel.writeOutbound(new KixmppStreamEnd());
+		
+		Assert.assertTrue(readOutbound(channel).startsWith("<?xml version='1.0' encoding='UTF-8'?><stream:stream id=\"1\" from=\"kixeye.com\" "));
+		Assert.assertEquals("</stream:stream>", readOutbound(channel));
+	}
+	
+	@Test
+	public void testRfc7395Framing() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppWebSocketCodec());
+		
+		channel.writeInbound(frame("<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' to='kixeye.com' version='1.0'/>", false));
+		channel.writeInbound(frame("<message xmlns='jabber:client' to='a@kixeye.com'><body>Hi</body></message>", true));
+		channel.writeInbound(frame("<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' to='kixeye.com' version='1.0'/>", true));
+		channel.writeInbound(frame("<presence xmlns='jabber:client'/>", false));
+		channel.writeInbound(frame("<close xmlns='urn:ietf:params:xml:ns:xmpp-framing'/>", false));
+		
+		KixmppStreamStart streamStart = (KixmppStreamStart)channel.readInbound();
+		Assert.assertEquals("kixeye.com", streamStart.getTo().getFullJid());
+		
+		Element message = (Element)channel.readInbound();
+		Assert.assertEquals("message", message.getName());
+		Assert.assertEquals("Hi", message.getChildText("body", message.getNamespace()));
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("presence", ((Element)channel.readInbound()).getName());
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamEnd);
+		Assert.assertNull(channel.readInbound());
+		
+		channel.writeOutbound(new KixmppStreamStart(new KixmppJid("kixeye.com"), null, true, "1"));
+		channel.writeOutbound(new KixmppStreamEnd());
+		
+		Assert.assertEquals("<open xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\" id=\"1\" from=\"kixeye.com\" version=\"1.0\" />", readOutbound(channel));
+		Assert.assertEquals("<close xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\" />", readOutbound(channel));
+	}
+	
+	@Test
+	public void testMalformedXml() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppWebSocketCodec());
+		
+		channel.writeInbound(frame("<stream:stream to='kixeye.com' version='1.0' xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>", false));
+		channel.writeInbound(frame("<message><body>Hi</bdy></message>", false));
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertNull(channel.readInbound());
+		
+		Assert.assertEquals("<stream:error xmlns:stream=\"http://etherx.jabber.org/streams\"><not-well-formed xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>", readOutbound(channel));
+		Assert.assertEquals("</stream:stream>", readOutbound(channel));
+		Assert.assertFalse(channel.isOpen());
+	}
+	
+	@Test
+	public void testMalformedXmlWithRfc7395Framing() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppWebSocketCodec());
+		
+		channel.writeInbound(frame("<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' to='kixeye.com' version='1.0'/>", false));
+		channel.writeInbound(frame("<message xmlns='jabber:client'><body>Hi</bdy></message>", false));
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertNull(channel.readInbound());
+		
+		Assert.assertEquals("<stream:error xmlns:stream=\"http://etherx.jabber.org/streams\"><not-well-formed xmlns=\"urn:ietf:params:xml:ns:xmpp-streams\" /></stream:error>", readOutbound(channel));
+		Assert.assertEquals("<close xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\" />", readOutbound(channel));
+		Assert.assertFalse(channel.isOpen());
+	}
+	
+	@Test
+	public void testReleasesFrames() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new KixmppWebSocketCodec());
+		
+		WebSocketFrame streamStart = frame("<stream:stream to='kixeye.com' version='1.0' xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>", true);
+		WebSocketFrame message = frame("<message to='a@kixeye.com'><body>Hi</body></message>", false);
+		
+		channel.writeInbound(streamStart);
+		channel.writeInbound(message);
+		
+		Assert.assertEquals(0, streamStart.refCnt());
+		Assert.assertEquals(0, message.refCnt());
+		
+		Assert.assertTrue(channel.readInbound() instanceof KixmppStreamStart);
+		Assert.assertEquals("Hi", ((Element)channel.readInbound()).getChildText("body", Namespace.getNamespace("jabber:client")));
+	}
+	
+	/**
+	 * @param text
+	 * @param direct
+	 * @return a text frame with the given content
+	 */
+	private static WebSocketFrame frame(String text, boolean direct) {
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		
+		ByteBuf content = direct ? Unpooled.directBuffer(data.length) : Unpooled.buffer(data.length);
+		content.writeBytes(data);
+		
+		return new TextWebSocketFrame(content);
+	}
+	
+	/**
+	 * Reads an outbound frame as a string and releases it.
+	 * 
+	 * @param channel
+	 * @return
+	 */
+	private static String readOutbound(EmbeddedChannel channel) {
+		WebSocketFrame frame = (WebSocketFrame)channel.readOutbound();
+		
+		try {
+			return frame.content().toString(StandardCharsets.UTF_8);
+		} finally {
+			frame.release();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.kixeye.kixmpp;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import io.netty.util.internal.logging.JdkLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Fails the test run when Netty reports a leaked buffer. Used by the <i>leak-detection</i> profile, which
+ * also sets the leak detection level to paranoid.
+ * 
+ * <p>The leak detector's logger is routed through java.util.logging so that its reports can be collected. Leaks
+ * are only reported once the leaked buffer has been garbage collected, so every finished test forces a
+ * collection and an allocation to flush the reports.</p>
+ * 
+ * @author ebahtijaragic
+ */
+public class LeakDetectionListener extends RunListener {
+	private static final String LEAK_PREFIX = "LEAK:";
+	private static final long COLLECTION_WAIT_MILLIS = 50;
+	
+	private final List<String> leaks = new ArrayList<>();
+	
+	private Logger leakLogger;
+	
+	@Override
+	public void testRunStarted(Description description) throws Exception {
+		InternalLoggerFactory defaultFactory = InternalLoggerFactory.getDefaultFactory();
+		
+		InternalLoggerFactory.setDefaultFactory(new JdkLoggerFactory());
+		
+		try {
+			// the detector creates its logger when it is initialized
+			Class.forName(ResourceLeakDetector.class.getName(), true, ResourceLeakDetector.class.getClassLoader());
+		} finally {
+			InternalLoggerFactory.setDefaultFactory(defaultFactory);
+		}
+		
+		ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+		
+		leakLogger = Logger.getLogger(ResourceLeakDetector.class.getName());
+		leakLogger.addHandler(new Handler() {
+			public void publish(LogRecord record) {
+				if (record.getMessage() != null && record.getMessage().startsWith(LEAK_PREFIX)) {
+					synchronized (leaks) {
+						leaks.add(record.getMessage());
+					}
+				}
+			}
+			
+			public void flush() {
+			}
+			
+			public void close() {
+			}
+		});
+	}
+	
+	@Override
+	public void testFinished(Description description) throws Exception {
+		checkLeaks(description.getDisplayName());
+	}
+	
+	@Override
+	public void testRunFinished(Result result) throws Exception {
+		checkLeaks("the test run");
+	}
+	
+	/**
+	 * Collects the garbage, lets the detector report what it found and fails if it found anything.
+	 * 
+	 * @param source
+	 * @throws Exception
+	 */
+	private void checkLeaks(String source) throws Exception {
+		System.gc();
+		Thread.sleep(COLLECTION_WAIT_MILLIS);
+		
+		// leaks are reported when the next buffer is tracked
+		ByteBufAllocator.DEFAULT.buffer(1).release();
+		
+		List<String> reported;
+		
+		synchronized (leaks) {
+			if (leaks.isEmpty()) {
+				return;
+			}
+			
+			reported = new ArrayList<>(leaks);
+			leaks.clear();
+		}
+		
+		throw new IllegalStateException("Netty reported " + reported.size() + " leak(s) after " + source + ": " + reported);
+	}
+}
@@ -0,0 +1,86 @@
+package com.kixeye.kixmpp.date;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares formatting the history stamps of a room with Joda and with {@link XmppDateUtils}, for stamps a few
+ * seconds apart and for stamps within the same second.
+ *
+ * <p>Run {@link #main(String[])} from the test classpath, the gc profiler reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code> is bytes per stamp).</p>
+ *
+ * @author ebahtijaragic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmppDateUtilsBenchmark {
+	private static final DateTimeFormatter jodaFormatter = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZoneUTC();
+	
+	private long timestamp = 1404172800000L;
+	
+	@Benchmark
+	public String joda() {
+		return jodaFormatter.print(timestamp += 3217);
+	}
+	
+	@Benchmark
+	public String format() {
+		return XmppDateUtils.format(timestamp += 3217);
+	}
+	
+	@Benchmark
+	public String formatSameSecond() {
+		return XmppDateUtils.format(timestamp);
+	}
+	
+	@Benchmark
+	public String parse() {
+		return Long.toString(XmppDateUtils.parseMillis("2014-07-01T12:34:56Z"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(XmppDateUtilsBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,120 @@
+package com.kixeye.kixmpp.date;
+
+/*
+ * #%L
+ * KIXMPP
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link XmppDateUtils}
+ * 
+ * @author ebahtijaragic
+ */
+public class XmppDateUtilsTest {
+	private static final DateTimeFormatter jodaFormatter = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZoneUTC();
+	
+	@Test
+	public void testFormatMatchesJoda() {
+		Random random = new Random(42);
+		
+		long[] dates = { 0, -1, 999, 1000, -1000, -1001, 951782400000L, 951868800000L, 4107542399999L, -62167219200000L, 253402300799999L };
+		
+		for (long date : dates) {
+			Assert.assertEquals(jodaFormatter.print(date), XmppDateUtils.format(date));
+		}
+		
+		for (int i = 0; i < 100000; i++) {
+			// from year 0 to year 9999
+			long date = -62167219200000L + (long)(random.nextDouble() * 315537897600000L);
+			
+			Assert.assertEquals(jodaFormatter.print(date), XmppDateUtils.format(date));
+		}
+	}
+	
+	@Test
+	public void testFormatOutOfRange() {
+		long date = new DateTime(10000, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+		
+		Assert.assertEquals(jodaFormatter.print(date), XmppDateUtils.format(date));
+		Assert.assertEquals(jodaFormatter.print(-62167219200001L), XmppDateUtils.format(-62167219200001L));
+	}
+	
+	@Test
+	public void testFormatSameSecond() {
+		String formatted = XmppDateUtils.format(1404172800000L);
+		
+		Assert.assertSame(formatted, XmppDateUtils.format(1404172800999L));
+		Assert.assertEquals("2014-07-01T00:00:01Z", XmppDateUtils.format(1404172801000L));
+		Assert.assertEquals("2014-07-01T00:00:00Z", XmppDateUtils.format(new DateTime(1404172800000L, DateTimeZone.forOffsetHours(-8))));
+	}
+	
+	@Test
+	public void testWrite() {
+		ByteBuf buffer = Unpooled.buffer();
+		
+		try {
+			XmppDateUtils.write(1404172800000L, buffer);
+			
+			Assert.assertEquals("2014-07-01T00:00:00Z", buffer.toString(StandardCharsets.US_ASCII));
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	@Test
+	public void testParse() {
+		Random random = new Random(42);
+		
+		for (int i = 0; i < 100000; i++) {
+			long date = (-62167219200000L + (long)(random.nextDouble() * 315537897600000L)) / 1000 * 1000;
+			
+			Assert.assertEquals(date, XmppDateUtils.parseMillis(jodaFormatter.print(date)));
+		}
+		
+		Assert.assertEquals(new DateTime(2000, 2, 29, 23, 59, 59, DateTimeZone.UTC), XmppDateUtils.parse("2000-02-29T23:59:59Z"));
+	}
+	
+	@Test
+	public void testParseInvalid() {
+		String[] dates = { "2001-02-29T00:00:00Z", "2014-13-01T00:00:00Z", "2014-07-01T24:00:00Z", "2014-07-01 00:00:00Z", 
+				"2014-07-0100:00:00Z", "2014-07-01T00:00:00", "2014-07-01T00:00:0aZ", "" };
+		
+		for (String date : dates) {
+			try {
+				XmppDateUtils.parseMillis(date);
+				
+				Assert.fail(date);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.fusesource.hawtdispatch.Task;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link DispatchQueueExecutionStrategy}
+ * 
+ * @author ebahtijaragic
+ */
+public class DispatchQueueExecutionStrategyTest {
+	@Test
+	public void testReleasedQueuesKeepOrdering() throws Exception {
+		final int keyCount = 4;
+		final int producerCount = 4;
+		final int taskCount = 20000;
+		
+		// queues are released as soon as they have been idle for a millisecond
+		final DispatchQueueExecutionStrategy executionStrategy = new DispatchQueueExecutionStrategy(1, TimeUnit.MILLISECONDS);
+		
+		final AtomicInteger[] running = new AtomicInteger[keyCount];
+		final AtomicIntegerArray lastIds = new AtomicIntegerArray(keyCount * producerCount);
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicInteger outOfOrder = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(keyCount * producerCount * taskCount);
+		
+		// the producers pause together so that the queues drain, go idle and get released
+		final CyclicBarrier pause = new CyclicBarrier(producerCount, new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(5);
+					
+					executionStrategy.getDefaultExecutor(KixmppPriority.MESSAGING);
+					
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		
+		final Set<KixmppSerialExecutor> executors = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<KixmppSerialExecutor, Boolean>()));
+		
+		for (int i = 0; i < keyCount; i++) {
+			running[i] = new AtomicInteger();
+		}
+		
+		for (int i = 0; i < lastIds.length(); i++) {
+			lastIds.set(i, -1);
+		}
+		
+		List<Thread> producers = new ArrayList<>();
+		
+		for (int i = 0; i < producerCount; i++) {
+			final int producer = i;
+			
+			producers.add(new Thread() {
+				public void run() {
+					for (int id = 0; id < taskCount; id++) {
+						for (int key = 0; key < keyCount; key++) {
+							final int taskKey = key;
+							final int taskId = id;
+							
+							KixmppSerialExecutor executor = executionStrategy.getAddressExecutor("room" + key + "@conference.kixeye.com", KixmppPriority.MESSAGING);
+							executors.add(executor);
+							
+							executor.execute(new Task() {
+								public void run() {
+									if (running[taskKey].incrementAndGet() != 1) {
+										overlaps.incrementAndGet();
+									}
+									
+									int slot = taskKey * producerCount + producer;
+									
+									if (lastIds.getAndSet(slot, taskId) != taskId - 1) {
+										outOfOrder.incrementAndGet();
+									}
+									
+									running[taskKey].decrementAndGet();
+									latch.countDown();
+								}
+							});
+						}
+						
+						if (id % 1000 == 0) {
+							try {
+								pause.await();
+							} catch (Exception e) {
+								return;
+							}
+						}
+					}
+				}
+			});
+		}
+		
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		
+		Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+		
+		Assert.assertEquals(0, overlaps.get());
+		Assert.assertEquals(0, outOfOrder.get());
+		
+		// queues were released and created again while the tasks were running
+		Assert.assertTrue(executors.size() > keyCount);
+		
+		// once everything is idle, a lookup releases the other queues
+		for (int i = 0; i < 100 && executionStrategy.getQueueCount() > 1; i++) {
+			Thread.sleep(10);
+			
+			executionStrategy.getDefaultExecutor(KixmppPriority.MESSAGING);
+		}
+		
+		Assert.assertEquals(1, executionStrategy.getQueueCount());
+	}
+}
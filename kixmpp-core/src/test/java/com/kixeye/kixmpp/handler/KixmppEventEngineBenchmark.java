@@ -0,0 +1,122 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdom2.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares publishing stanzas through a HawtDispatch queue per address with a {@link StripedExecutionStrategy}.
+ * Each invocation publishes a burst of stanzas to a handful of rooms and waits until all of them have been handled.
+ *
+ * <p>Run {@link #main(String[])} from the test classpath, the gc profiler reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code> is bytes per stanza).</p>
+ *
+ * @author ebahtijaragic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KixmppEventEngineBenchmark {
+	private static final int STANZA_COUNT = 1000;
+	private static final int ROOM_COUNT = 16;
+
+	@Param({"dispatchQueue", "striped"})
+	private String strategy;
+
+	private KixmppEventEngine eventEngine;
+	private Channel channel;
+	private Element[] stanzas;
+
+	private final AtomicLong handled = new AtomicLong();
+	private long published;
+
+	@Setup
+	public void setup() {
+		eventEngine = new KixmppEventEngine("striped".equals(strategy) ? new StripedExecutionStrategy() : new DispatchQueueExecutionStrategy());
+		eventEngine.registerGlobalStanzaHandler("message", new KixmppStanzaHandler() {
+			public void handle(Channel channel, Element stanza) {
+				handled.incrementAndGet();
+			}
+		});
+
+		channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+		stanzas = new Element[STANZA_COUNT];
+
+		for (int i = 0; i < STANZA_COUNT; i++) {
+			stanzas[i] = new Element("message");
+			stanzas[i].setAttribute("to", "room" + (i % ROOM_COUNT) + "@conference.kixeye.com");
+			stanzas[i].setAttribute("type", "groupchat");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		eventEngine.getExecutionStrategy().shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STANZA_COUNT)
+	public void publishStanza() {
+		for (Element stanza : stanzas) {
+			eventEngine.publishStanza(channel, stanza);
+		}
+
+		published += STANZA_COUNT;
+
+		while (handled.get() < published) {
+			Thread.yield();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(KixmppEventEngineBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
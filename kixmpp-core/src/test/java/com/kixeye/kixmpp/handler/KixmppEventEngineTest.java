@@ -0,0 +1,527 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdom2.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.kixeye.kixmpp.KixmppJid;
+import com.kixeye.kixmpp.KixmppStanzaBatch;
+import com.kixeye.kixmpp.stanza.CompactStanza;
+
+/**
+ * Tests the {@link KixmppEventEngine}
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppEventEngineTest {
+	@Test
+	public void testPublishStanzas() throws Exception {
+		KixmppEventEngine eventEngine = new KixmppEventEngine();
+		
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(5);
+		
+		eventEngine.registerGlobalStanzaHandler("message", new KixmppStanzaHandler() {
+			public void handle(Channel channel, Element stanza) {
+				received.add(stanza.getAttributeValue("id"));
+				latch.countDown();
+				
+				if ("1".equals(stanza.getAttributeValue("id"))) {
+					throw new IllegalStateException("the rest of the batch still runs");
+				}
+			}
+		});
+		
+		eventEngine.registerStanzaHandler(KixmppJid.fromRawJid("room@conference.kixeye.com"), new KixmppStanzaHandler() {
+			public void handle(Channel channel, Element stanza) {
+				received.add("room:" + stanza.getAttributeValue("id"));
+				latch.countDown();
+			}
+		});
+		
+		Element message = new Element("message");
+		message.setAttribute("id", "1");
+		message.setAttribute("to", "room@conference.kixeye.com");
+		
+		Element presence = new Element("presence");
+		presence.setAttribute("id", "2");
+		
+		Element compactMessage = new Element("message");
+		compactMessage.setAttribute("id", "3");
+		compactMessage.setAttribute("to", "room@conference.kixeye.com");
+		
+		Element lastMessage = new Element("message");
+		lastMessage.setAttribute("id", "4");
+		
+		eventEngine.publishStanzas(new EmbeddedChannel(new ChannelInboundHandlerAdapter()), new KixmppStanzaBatch(Arrays.<Object>asList(message, presence,
+				CompactStanza.fromElement(compactMessage), lastMessage)));
+		
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		
+		// each queue runs its part of the batch in order
+		List<String> roomQueue = new ArrayList<>(received);
+		roomQueue.retainAll(Arrays.asList("1", "room:1", "3", "room:3"));
+		
+		Assert.assertEquals(Arrays.asList("room:1", "1", "room:3", "3"), roomQueue);
+		Assert.assertTrue(received.contains("4"));
+		Assert.assertFalse(received.contains("2"));
+	}
+	
+	@Test
+	public void testDispatchTable() throws Exception {
+		KixmppEventEngine eventEngine = new KixmppEventEngine();
+		
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+		
+		KixmppStanzaHandler messageHandler = new RecordingHandler("message", received);
+		
+		eventEngine.registerGlobalStanzaHandler("message", messageHandler);
+		eventEngine.registerGlobalStanzaHandler(new RecordingHandler("any", received));
+		eventEngine.registerStanzaHandler(KixmppJid.fromRawJid("room@conference.kixeye.com"), "message", new RecordingHandler("room", received));
+		
+		Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		
+		Element message = new Element("message");
+		message.setAttribute("to", "room@Conference.kixeye.com");
+		
+		eventEngine.publishStanza(channel, message);
+		
+		eventEngine.unregisterGlobalStanzaHandler("message", messageHandler);
+		
+		eventEngine.publishStanza(channel, message);
+		
+		Element presence = new Element("presence");
+		presence.setAttribute("to", "room@conference.kixeye.com");
+		
+		eventEngine.publishStanza(channel, presence);
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		
+		while (received.size() < 6 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		// recipient handlers first, then the handlers for the name, then the wildcard ones
+		Assert.assertEquals(Arrays.asList("room", "message", "any", "room", "any", "any"), received);
+	}
+	
+	@Test
+	public void testStanzaRoutes() throws Exception {
+		KixmppEventEngine eventEngine = new KixmppEventEngine();
+		
+		// order only holds within a lane, so the iq and presence handlers are checked apart
+		final List<String> iqReceived = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> presenceReceived = Collections.synchronizedList(new ArrayList<String>());
+		
+		KixmppStanzaHandler bindHandler = new RecordingHandler("bind", iqReceived);
+		
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaRoute("iq").withNamespace("urn:ietf:params:xml:ns:xmpp-bind"), bindHandler);
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaRoute("iq").withNamespace("jabber:iq:roster").withType("get"), new RecordingHandler("roster", iqReceived));
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaRoute("iq").withNamespace("http://jabber.org/protocol/disco#info"), new RecordingHandler("disco", iqReceived));
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaRoute(KixmppStanzaRoute.ANY).withType("error"), new RecordingHandler("error", iqReceived));
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaRoute("presence").withType("unavailable"), new RecordingHandler("leave", presenceReceived));
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaRoute("presence").withPredicate(new KixmppStanzaPredicate() {
+			public boolean matches(Channel channel, Element stanza) {
+				return "self".equals(stanza.getAttributeValue("id"));
+			}
+		}), new RecordingHandler("self", presenceReceived));
+		
+		Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		
+		Element bind = iq("set", "bind", "urn:ietf:params:xml:ns:xmpp-bind");
+		
+		eventEngine.publishStanza(channel, bind);
+		eventEngine.publishStanza(channel, iq("get", "query", "jabber:iq:roster"));
+		eventEngine.publishStanza(channel, iq("set", "query", "jabber:iq:roster"));
+		
+		Element disco = iq("get", "query", "http://jabber.org/protocol/disco#info");
+		disco.addContent(new Element("query", "http://jabber.org/protocol/disco#info"));
+		
+		eventEngine.publishStanza(channel, disco);
+		
+		Element self = new Element("presence");
+		self.setAttribute("id", "self");
+		
+		eventEngine.publishStanza(channel, self);
+		
+		Element unavailable = new Element("presence");
+		unavailable.setAttribute("type", "unavailable");
+		
+		eventEngine.publishStanza(channel, unavailable);
+		eventEngine.publishStanza(channel, CompactStanza.fromElement(iq("set", "bind", "urn:ietf:params:xml:ns:xmpp-bind")));
+		eventEngine.publishStanza(channel, iq("error", "bind", "urn:ietf:params:xml:ns:xmpp-bind"));
+		
+		// an equal route unregisters the handler
+		eventEngine.unregisterGlobalStanzaHandler(new KixmppStanzaRoute("iq").withNamespace("urn:ietf:params:xml:ns:xmpp-bind"), bindHandler);
+		
+		eventEngine.publishStanza(channel, bind);
+		eventEngine.publishStanza(channel, new Element("iq").setAttribute("type", "error"));
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		
+		while (iqReceived.size() + presenceReceived.size() < 9 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		// handlers keyed by type run before the ones keyed by namespace
+		Assert.assertEquals(Arrays.asList("bind", "roster", "disco", "bind", "error", "bind", "error"), iqReceived);
+		Assert.assertEquals(Arrays.asList("self", "leave"), presenceReceived);
+	}
+	
+	private static Element iq(String type, String name, String namespace) {
+		Element iq = new Element("iq");
+		iq.setAttribute("type", type);
+		iq.addContent(new Element(name, namespace));
+		
+		return iq;
+	}
+	
+	@Test
+	public void testBackpressure() throws Exception {
+		KixmppEventEngine eventEngine = new KixmppEventEngine();
+		eventEngine.getBackpressureSettings().setEnabled(true);
+		eventEngine.getBackpressureSettings().setChannelWaterMarks(1, 4);
+		eventEngine.getBackpressureSettings().setQueueWaterMarks(1, 6);
+		
+		final CountDownLatch unblocked = new CountDownLatch(1);
+		
+		eventEngine.registerGlobalStanzaHandler("message", new KixmppStanzaHandler() {
+			public void handle(Channel channel, Element stanza) {
+				try {
+					unblocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		
+		Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		Channel otherChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		
+		Element message = new Element("message");
+		message.setAttribute("to", "room@conference.kixeye.com");
+		
+		for (int i = 0; i < 3; i++) {
+			eventEngine.publishStanza(channel, message);
+		}
+		
+		Assert.assertTrue(channel.config().isAutoRead());
+		
+		// the channel reaches its own high-water mark
+		eventEngine.publishStanza(channel, message);
+		
+		Assert.assertFalse(channel.config().isAutoRead());
+		Assert.assertTrue(otherChannel.config().isAutoRead());
+		
+		// the other channel is held back by the address once it reaches its high-water mark
+		eventEngine.publishStanza(otherChannel, message);
+		
+		Assert.assertTrue(otherChannel.config().isAutoRead());
+		
+		eventEngine.publishStanza(otherChannel, message);
+		
+		Assert.assertFalse(otherChannel.config().isAutoRead());
+		Assert.assertEquals(6, eventEngine.getBackpressure().getQueueDepth("room@conference.kixeye.com"));
+		
+		unblocked.countDown();
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		
+		while ((!channel.config().isAutoRead() || !otherChannel.config().isAutoRead()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		Assert.assertTrue(channel.config().isAutoRead());
+		Assert.assertTrue(otherChannel.config().isAutoRead());
+		
+		while (eventEngine.getBackpressure().getQueueDepth("room@conference.kixeye.com") > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		Assert.assertEquals(0, eventEngine.getBackpressure().getQueueDepth("room@conference.kixeye.com"));
+	}
+	
+	@Test
+	public void testPriorityLanes() throws Exception {
+		// a single thread for every lane
+		StripedExecutionStrategy executionStrategy = new StripedExecutionStrategy(1);
+		
+		try {
+			KixmppEventEngine eventEngine = new KixmppEventEngine(executionStrategy);
+			
+			Assert.assertEquals(KixmppPriority.CONTROL, eventEngine.getStanzaPriority("iq"));
+			Assert.assertEquals(KixmppPriority.PRESENCE, eventEngine.getStanzaPriority("presence"));
+			Assert.assertEquals(KixmppPriority.MESSAGING, eventEngine.getStanzaPriority("message"));
+			
+			final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+			final CountDownLatch blocked = new CountDownLatch(1);
+			final CountDownLatch unblocked = new CountDownLatch(1);
+			final CountDownLatch latch = new CountDownLatch(102);
+			
+			eventEngine.registerGlobalStanzaHandler(new KixmppStanzaHandler() {
+				public void handle(Channel channel, Element stanza) {
+					if ("block".equals(stanza.getAttributeValue("id"))) {
+						blocked.countDown();
+						
+						try {
+							unblocked.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					
+					received.add(stanza.getName());
+					latch.countDown();
+				}
+			});
+			
+			Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+			
+			Element block = new Element("message");
+			block.setAttribute("id", "block");
+			block.setAttribute("to", "blocker@conference.kixeye.com");
+			
+			eventEngine.publishStanza(channel, block);
+			
+			Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+			
+			for (int i = 0; i < 100; i++) {
+				Element message = new Element("message");
+				message.setAttribute("to", "room" + i + "@conference.kixeye.com");
+				
+				eventEngine.publishStanza(channel, message);
+			}
+			
+			eventEngine.publishStanza(channel, new Element("iq"));
+			
+			unblocked.countDown();
+			
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			
+			// the iq does not wait for the backlog of messages
+			Assert.assertTrue(received.indexOf("iq") < 1 + KixmppPriority.MESSAGING.getWeight());
+		} finally {
+			executionStrategy.shutdown();
+		}
+	}
+	
+	@Test
+	public void testChannelStanzasInOrder() throws Exception {
+		KixmppEventEngine eventEngine = new KixmppEventEngine();
+		
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(300);
+		
+		eventEngine.registerGlobalStanzaHandler(new KixmppStanzaHandler() {
+			public void handle(Channel channel, Element stanza) {
+				received.add(stanza.getName());
+				latch.countDown();
+			}
+		});
+		
+		Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		
+		List<String> sent = new ArrayList<>();
+		
+		for (int i = 0; i < 100; i++) {
+			for (String name : new String[] { "iq", "presence", "message" }) {
+				eventEngine.publishStanza(channel, new Element(name));
+				sent.add(name);
+			}
+		}
+		
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		
+		// stanzas without an address share the lane of their channel
+		Assert.assertEquals(sent, received);
+	}
+	
+	@Test
+	public void testMetrics() throws Exception {
+		KixmppEventEngine eventEngine = new KixmppEventEngine();
+		
+		KixmppHistogramMetrics metrics = new KixmppHistogramMetrics();
+		eventEngine.setMetrics(metrics);
+		
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch unblocked = new CountDownLatch(1);
+		final CountDownLatch latch = new CountDownLatch(4);
+		
+		KixmppStanzaHandler handler = new KixmppStanzaHandler() {
+			public void handle(Channel channel, Element stanza) {
+				if ("block".equals(stanza.getAttributeValue("id"))) {
+					blocked.countDown();
+					
+					try {
+						unblocked.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				
+				latch.countDown();
+			}
+		};
+		
+		eventEngine.registerGlobalStanzaHandler(handler);
+		
+		Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		
+		Element block = new Element("message");
+		block.setAttribute("id", "block");
+		block.setAttribute("to", "room@conference.kixeye.com");
+		
+		eventEngine.publishStanza(channel, block);
+		
+		Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		
+		Element message = new Element("message");
+		message.setAttribute("to", "room@conference.kixeye.com");
+		
+		eventEngine.publishStanza(channel, message);
+		eventEngine.publishStanza(channel, message);
+		
+		Element otherMessage = new Element("message");
+		otherMessage.setAttribute("to", "other@conference.kixeye.com");
+		
+		// the handler of the other room could run before it is counted
+		eventEngine.publishStanza(channel, otherMessage);
+		
+		Assert.assertEquals(3, (int)eventEngine.getDeepestQueues(1).get("room@conference.kixeye.com"));
+		Assert.assertEquals(1, eventEngine.getDeepestQueues(1).size());
+		
+		unblocked.countDown();
+		
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		
+		Assert.assertEquals(4, metrics.getPublishedCount("message"));
+		Assert.assertEquals(0, metrics.getPublishedCount("iq"));
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		
+		while (metrics.getRunTimes("message") == null || metrics.getRunTimes("message").getCount() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		Assert.assertEquals(4, metrics.getRunTimes("message").getCount());
+		Assert.assertEquals(4, metrics.getWaitTimes("message").getCount());
+		Assert.assertEquals(4, metrics.getRunTimes(handler.getClass()).getCount());
+		
+		// the messages queued behind the blocking handler waited for it
+		Assert.assertTrue(metrics.getWaitTimes("message").getMax() > 0);
+		
+		while (eventEngine.getQueueCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		Assert.assertEquals(0, eventEngine.getQueueCount());
+	}
+	
+	@Test
+	public void testStripedExecutionStrategy() throws Exception {
+		final int producerCount = 4;
+		final int stanzaCount = 20000;
+		
+		StripedExecutionStrategy executionStrategy = new StripedExecutionStrategy(3);
+		
+		try {
+			final KixmppEventEngine eventEngine = new KixmppEventEngine(executionStrategy);
+			
+			final ConcurrentHashMap<String, Integer> lastIds = new ConcurrentHashMap<>();
+			final AtomicInteger outOfOrder = new AtomicInteger();
+			final CountDownLatch latch = new CountDownLatch(producerCount * stanzaCount);
+			
+			eventEngine.registerGlobalStanzaHandler("message", new KixmppStanzaHandler() {
+				public void handle(Channel channel, Element stanza) {
+					String to = stanza.getAttributeValue("to");
+					int id = Integer.parseInt(stanza.getAttributeValue("id"));
+					
+					Integer lastId = lastIds.put(to, id);
+					
+					if (lastId != null && lastId + 1 != id) {
+						outOfOrder.incrementAndGet();
+					}
+					
+					latch.countDown();
+				}
+			});
+			
+			final Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+			
+			List<Thread> producers = new ArrayList<>();
+			
+			for (int i = 0; i < producerCount; i++) {
+				final String to = "user" + i + "@kixeye.com";
+				
+				producers.add(new Thread() {
+					public void run() {
+						for (int id = 0; id < stanzaCount; id++) {
+							Element message = new Element("message");
+							message.setAttribute("to", to);
+							message.setAttribute("id", Integer.toString(id));
+							
+							eventEngine.publishStanza(channel, message);
+						}
+					}
+				});
+			}
+			
+			for (Thread producer : producers) {
+				producer.start();
+			}
+			
+			Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+			Assert.assertEquals(0, outOfOrder.get());
+			Assert.assertEquals(producerCount, lastIds.size());
+		} finally {
+			executionStrategy.shutdown();
+		}
+	}
+	
+	private static class RecordingHandler implements KixmppStanzaHandler {
+		private final String name;
+		private final List<String> received;
+		
+		public RecordingHandler(String name, List<String> received) {
+			this.name = name;
+			this.received = received;
+		}
+		
+		public void handle(Channel channel, Element stanza) {
+			received.add(name);
+		}
+	}
+}
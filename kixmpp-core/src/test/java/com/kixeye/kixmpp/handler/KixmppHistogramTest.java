@@ -0,0 +1,75 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link KixmppHistogram}
+ * 
+ * @author ebahtijaragic
+ */
+public class KixmppHistogramTest {
+	@Test
+	public void testBuckets() {
+		long previousHighest = -1;
+		
+		for (int index = 0; index < KixmppHistogram.getIndex(Long.MAX_VALUE); index++) {
+			long highest = KixmppHistogram.getHighestValue(index);
+			
+			// the buckets follow each other without gaps
+			Assert.assertEquals(index, KixmppHistogram.getIndex(previousHighest + 1));
+			Assert.assertEquals(index, KixmppHistogram.getIndex(highest));
+			
+			previousHighest = highest;
+		}
+		
+		Assert.assertEquals(Long.MAX_VALUE, KixmppHistogram.getHighestValue(KixmppHistogram.getIndex(Long.MAX_VALUE)));
+	}
+	
+	@Test
+	public void testPercentiles() {
+		KixmppHistogram histogram = new KixmppHistogram();
+		
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value);
+		}
+		
+		Assert.assertEquals(100000, histogram.getCount());
+		Assert.assertEquals(100000, histogram.getMax());
+		Assert.assertEquals(50000.5, histogram.getMean(), 0.001);
+		
+		assertWithinBucket(50000, histogram.getValueAtPercentile(50));
+		assertWithinBucket(99000, histogram.getValueAtPercentile(99));
+		Assert.assertEquals(100000, histogram.getValueAtPercentile(100));
+		Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+		
+		histogram.reset();
+		
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+	
+	private static void assertWithinBucket(long expected, long actual) {
+		Assert.assertTrue(actual + " is not within 1/16th above " + expected, actual >= expected && actual <= expected + expected / 16);
+	}
+}
@@ -0,0 +1,104 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.hawtdispatch.Task;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StripedExecutionStrategy}
+ * 
+ * @author ebahtijaragic
+ */
+public class StripedExecutionStrategyTest {
+	@Test
+	public void testTaskExecutedWhileQueued() throws Exception {
+		StripedExecutionStrategy executionStrategy = new StripedExecutionStrategy(1);
+		
+		try {
+			final KixmppSerialExecutor executor = executionStrategy.getAddressExecutor("room@conference.kixeye.com", KixmppPriority.MESSAGING);
+			
+			final CountDownLatch blocked = new CountDownLatch(1);
+			final CountDownLatch unblocked = new CountDownLatch(1);
+			final CountDownLatch latch = new CountDownLatch(7);
+			final AtomicInteger runs = new AtomicInteger();
+			
+			executor.execute(new Task() {
+				public void run() {
+					blocked.countDown();
+					
+					try {
+						unblocked.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			
+			Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+			
+			KixmppTask task = new KixmppTask() {
+				public void run() {
+					// executing itself while it is the last task taken from the queue
+					if (runs.incrementAndGet() == 3) {
+						executor.execute(this);
+					}
+					
+					latch.countDown();
+				}
+			};
+			
+			// the same task queued several times, with other tasks in between
+			for (int i = 0; i < 3; i++) {
+				executor.execute(task);
+				executor.execute(new Task() {
+					public void run() {
+						latch.countDown();
+					}
+				});
+			}
+			
+			unblocked.countDown();
+			
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			
+			// and once more after it has run
+			final CountDownLatch again = new CountDownLatch(1);
+			
+			executor.execute(task);
+			executor.execute(new Task() {
+				public void run() {
+					again.countDown();
+				}
+			});
+			
+			Assert.assertTrue(again.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(5, runs.get());
+		} finally {
+			executionStrategy.shutdown();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.kixeye.kixmpp.handler;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.fusesource.hawtdispatch.Task;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link VirtualThreadExecutionStrategy}
+ * 
+ * @author ebahtijaragic
+ */
+public class VirtualThreadExecutionStrategyTest {
+	@Test
+	public void testBlockedKeyDoesNotHoldUpOthers() throws Exception {
+		VirtualThreadExecutionStrategy executionStrategy = new VirtualThreadExecutionStrategy();
+		
+		try {
+			final CountDownLatch blocked = new CountDownLatch(1);
+			final CountDownLatch unblocked = new CountDownLatch(1);
+			final CountDownLatch others = new CountDownLatch(100);
+			
+			executionStrategy.getAddressExecutor("blocking@kixeye.com", KixmppPriority.MESSAGING).execute(new Task() {
+				public void run() {
+					blocked.countDown();
+					
+					try {
+						unblocked.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			
+			Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+			
+			for (int i = 0; i < 100; i++) {
+				executionStrategy.getAddressExecutor("user" + i + "@kixeye.com", KixmppPriority.MESSAGING).execute(new Task() {
+					public void run() {
+						others.countDown();
+					}
+				});
+			}
+			
+			Assert.assertTrue(others.await(5, TimeUnit.SECONDS));
+			
+			unblocked.countDown();
+		} finally {
+			executionStrategy.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRejectedTaskDoesNotWedgeKey() throws Exception {
+		final AtomicBoolean rejecting = new AtomicBoolean(true);
+		final ExecutorService delegate = Executors.newSingleThreadExecutor();
+		
+		VirtualThreadExecutionStrategy executionStrategy = new VirtualThreadExecutionStrategy(new AbstractExecutorService() {
+			public void execute(Runnable command) {
+				if (rejecting.get()) {
+					throw new RejectedExecutionException();
+				}
+				
+				delegate.execute(command);
+			}
+			
+			public void shutdown() {
+				delegate.shutdown();
+			}
+			
+			public List<Runnable> shutdownNow() {
+				return delegate.shutdownNow();
+			}
+			
+			public boolean isShutdown() {
+				return delegate.isShutdown();
+			}
+			
+			public boolean isTerminated() {
+				return delegate.isTerminated();
+			}
+			
+			public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+				return delegate.awaitTermination(timeout, unit);
+			}
+		});
+		
+		try {
+			final AtomicInteger runs = new AtomicInteger();
+			final CountDownLatch latch = new CountDownLatch(1);
+			
+			KixmppSerialExecutor executor = executionStrategy.getAddressExecutor("room@conference.kixeye.com", KixmppPriority.MESSAGING);
+			
+			try {
+				executor.execute(new Task() {
+					public void run() {
+						runs.incrementAndGet();
+					}
+				});
+				
+				Assert.fail("The task was not rejected");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			
+			rejecting.set(false);
+			
+			executor.execute(new Task() {
+				public void run() {
+					latch.countDown();
+				}
+			});
+			
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, runs.get());
+		} finally {
+			executionStrategy.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRetiredExecutorsKeepOrdering() throws Exception {
+		final int keyCount = 4;
+		final int producerCount = 4;
+		final int taskCount = 20000;
+		
+		final VirtualThreadExecutionStrategy executionStrategy = new VirtualThreadExecutionStrategy();
+		
+		final AtomicInteger[] running = new AtomicInteger[keyCount];
+		final AtomicIntegerArray lastIds = new AtomicIntegerArray(keyCount * producerCount);
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicInteger outOfOrder = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(keyCount * producerCount * taskCount);
+		
+		// the producers pause together so that the executors drain and retire
+		final CyclicBarrier pause = new CyclicBarrier(producerCount, new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		
+		final Set<KixmppSerialExecutor> executors = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<KixmppSerialExecutor, Boolean>()));
+		
+		for (int i = 0; i < keyCount; i++) {
+			running[i] = new AtomicInteger();
+		}
+		
+		for (int i = 0; i < lastIds.length(); i++) {
+			lastIds.set(i, -1);
+		}
+		
+		List<Thread> producers = new ArrayList<>();
+		
+		for (int i = 0; i < producerCount; i++) {
+			final int producer = i;
+			
+			producers.add(new Thread() {
+				public void run() {
+					for (int id = 0; id < taskCount; id++) {
+						for (int key = 0; key < keyCount; key++) {
+							final int taskKey = key;
+							final int taskId = id;
+							
+							KixmppSerialExecutor executor = executionStrategy.getAddressExecutor("room" + key + "@conference.kixeye.com", KixmppPriority.MESSAGING);
+							executors.add(executor);
+							
+							executor.execute(new Task() {
+								public void run() {
+									if (running[taskKey].incrementAndGet() != 1) {
+										overlaps.incrementAndGet();
+									}
+									
+									int slot = taskKey * producerCount + producer;
+									
+									if (lastIds.getAndSet(slot, taskId) != taskId - 1) {
+										outOfOrder.incrementAndGet();
+									}
+									
+									running[taskKey].decrementAndGet();
+									latch.countDown();
+								}
+							});
+						}
+						
+						if (id % 1000 == 0) {
+							try {
+								pause.await();
+							} catch (Exception e) {
+								return;
+							}
+						}
+					}
+				}
+			});
+		}
+		
+		try {
+			for (Thread producer : producers) {
+				producer.start();
+			}
+			
+			Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+			
+			Assert.assertEquals(0, overlaps.get());
+			Assert.assertEquals(0, outOfOrder.get());
+			
+			// executors were retired and created again while the tasks were running
+			Assert.assertTrue(executors.size() > keyCount);
+			
+			// the last tasks have run, their threads retire the executors right after
+			for (int i = 0; i < 100 && executionStrategy.getExecutorCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			
+			Assert.assertEquals(0, executionStrategy.getExecutorCount());
+		} finally {
+			executionStrategy.shutdown();
+		}
+	}
+}
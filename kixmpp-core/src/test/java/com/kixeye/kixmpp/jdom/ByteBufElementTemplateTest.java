@@ -0,0 +1,85 @@
+package com.kixeye.kixmpp.jdom;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ByteBufElementTemplate}
+ * 
+ * @author ebahtijaragic
+ */
+public class ByteBufElementTemplateTest {
+	@Test
+	public void testNewFrame() throws Exception {
+		Element message = new Element("message", "jabber:client");
+		message.setAttribute("to", "");
+		message.setAttribute("from", "room@conference.kixeye.com/someone");
+		message.setAttribute("type", "groupchat");
+		message.addContent(new Element("body", "jabber:client").setText("Hello & bye"));
+
+		ByteBufElementTemplate template = new ByteBufElementTemplate(message, "to");
+
+		for (String to : new String[] {"userA@kixeye.com/web", "userB@kixeye.com/\"quoted\" & <escaped>", ""}) {
+			ByteBuf frame = template.newFrame(UnpooledByteBufAllocator.DEFAULT, to);
+
+			try {
+				message.setAttribute("to", to);
+
+				Assert.assertEquals(new XMLOutputter().outputString(message), frame.toString(StandardCharsets.UTF_8));
+			} finally {
+				frame.release();
+			}
+		}
+	}
+
+	@Test
+	public void testAttributeInTheMiddle() throws Exception {
+		Element presence = new Element("presence");
+		presence.setAttribute("id", "1");
+		presence.setAttribute("to", "placeholder");
+		presence.setAttribute("from", "room@conference.kixeye.com/someone");
+
+		ByteBufElementTemplate template = new ByteBufElementTemplate(presence, "to");
+
+		ByteBuf frame = template.newFrame(UnpooledByteBufAllocator.DEFAULT, "user@kixeye.com/web");
+
+		try {
+			Assert.assertEquals("<presence id=\"1\" to=\"user@kixeye.com/web\" from=\"room@conference.kixeye.com/someone\" />",
+					frame.toString(StandardCharsets.UTF_8));
+		} finally {
+			Assert.assertTrue(frame.release());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingAttribute() throws Exception {
+		new ByteBufElementTemplate(new Element("message"), "to");
+	}
+}
@@ -0,0 +1,111 @@
+package com.kixeye.kixmpp.jdom;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares writing a stanza with a new {@link XMLOutputter} per stanza, like the codecs used to, with a reused
+ * {@link ByteBufElementWriter}.
+ *
+ * <p>Run {@link #main(String[])} from the test classpath, the gc profiler reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code> is bytes per stanza).</p>
+ *
+ * @author ebahtijaragic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteBufElementWriterBenchmark {
+	private Element stanza;
+
+	private ByteBuf buffer;
+
+	private ByteBufElementWriter elementWriter;
+
+	@Setup
+	public void setup() {
+		stanza = new Element("message", "jabber:client");
+		stanza.setAttribute("to", "user@kixeye.com/web");
+		stanza.setAttribute("from", "room@conference.kixeye.com/someone");
+		stanza.setAttribute("type", "groupchat");
+		stanza.setAttribute("id", "7e07954a-9f1e-4c46-8486-e2717112e314");
+		stanza.addContent(new Element("body", "jabber:client").setText("Hello World! <3 & see you"));
+
+		buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+
+		elementWriter = new ByteBufElementWriter();
+	}
+
+	@TearDown
+	public void tearDown() {
+		buffer.release();
+	}
+
+	@Benchmark
+	public ByteBuf xmlOutputter() throws Exception {
+		buffer.clear();
+
+		new XMLOutputter().output(stanza, new ByteBufOutputStream(buffer));
+
+		return buffer;
+	}
+
+	@Benchmark
+	public ByteBuf elementWriter() throws Exception {
+		buffer.clear();
+
+		elementWriter.write(stanza, buffer);
+
+		return buffer;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(ByteBufElementWriterBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
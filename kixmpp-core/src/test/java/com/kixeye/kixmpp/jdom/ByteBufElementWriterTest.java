@@ -0,0 +1,150 @@
+package com.kixeye.kixmpp.jdom;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Attribute;
+import org.jdom2.CDATA;
+import org.jdom2.Comment;
+import org.jdom2.Element;
+import org.jdom2.EntityRef;
+import org.jdom2.Namespace;
+import org.jdom2.ProcessingInstruction;
+import org.jdom2.Text;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ByteBufElementWriter}
+ * 
+ * @author ebahtijaragic
+ */
+public class ByteBufElementWriterTest {
+	@Test
+	public void testSampleSessions() throws Exception {
+		ByteBufElementWriter writer = new ByteBufElementWriter();
+
+		for (String session : new String[] {"/sampleXmppClientSession.xml", "/sampleXmppServerSession.xml"}) {
+			try (InputStream inputStream = getClass().getResourceAsStream(session)) {
+				Element root = new SAXBuilder().build(inputStream).getRootElement();
+
+				for (Element stanza : root.getChildren()) {
+					assertSameAsOutputter(writer, stanza);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEscaping() throws Exception {
+		Element element = new Element("message", "jabber:client");
+		element.setAttribute("to", "a&b<c>d\"e'f\tg\nh\ri");
+		element.addContent(new Element("body", "jabber:client").setText("a&b<c>d\"e'f\tg\nh\ri"));
+
+		assertSameAsOutputter(new ByteBufElementWriter(), element);
+	}
+
+	@Test
+	public void testUnicode() throws Exception {
+		String text = "caf\u00E9 \u65E5\u672C \uD83D\uDE00 end";
+
+		Element element = new Element("message", "jabber:client");
+		element.setAttribute("from", text);
+		element.addContent(new Element("body", "jabber:client").setText(text));
+		element.addContent(new Element("\u00E9l\u00E9ment"));
+		element.addContent(new CDATA(text));
+
+		assertSameAsOutputter(new ByteBufElementWriter(), element);
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		Element element = new Element("m", Namespace.getNamespace("z", "urn:z"));
+		element.addNamespaceDeclaration(Namespace.getNamespace("b", "urn:b"));
+		element.addNamespaceDeclaration(Namespace.getNamespace("urn:default"));
+		element.setAttribute(new Attribute("a", "1", Namespace.getNamespace("a", "urn:a")));
+		element.setAttribute(new Attribute("lang", "en", Namespace.XML_NAMESPACE));
+
+		Element child = new Element("child");
+		child.addContent(new Element("grandchild", Namespace.getNamespace("z", "urn:other")));
+		child.addContent(new Element("sibling", Namespace.getNamespace("urn:default")));
+		element.addContent(child);
+		element.addContent(new Element("same", Namespace.getNamespace("z", "urn:z")));
+
+		assertSameAsOutputter(new ByteBufElementWriter(), element);
+	}
+
+	@Test
+	public void testOtherContent() throws Exception {
+		Element element = new Element("iq", "jabber:client");
+		element.addContent(new Element("empty"));
+		element.addContent(new Element("emptyText").addContent(new Text("")));
+		element.addContent(new Comment("a comment"));
+		element.addContent(new ProcessingInstruction("pi"));
+		element.addContent(new ProcessingInstruction("pi", "some data"));
+		element.addContent(new EntityRef("amp"));
+		element.addContent(new CDATA("<raw & data>"));
+
+		assertSameAsOutputter(new ByteBufElementWriter(), element);
+	}
+
+	@Test
+	public void testDirectBuffer() throws Exception {
+		Element element = new Element("message", "jabber:client");
+		element.setAttribute("type", "chat");
+		element.addContent(new Element("body", "jabber:client").setText("Hello & \u00E9 \uD83D\uDE00"));
+
+		ByteBuf buffer = Unpooled.directBuffer(4);
+
+		try {
+			new ByteBufElementWriter().write(element, buffer);
+
+			Assert.assertEquals(new XMLOutputter().outputString(element), buffer.toString(StandardCharsets.UTF_8));
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Checks that the writer produces the same bytes as {@link XMLOutputter}.
+	 * 
+	 * @param writer
+	 * @param element
+	 */
+	private static void assertSameAsOutputter(ByteBufElementWriter writer, Element element) {
+		ByteBuf buffer = Unpooled.buffer(4);
+
+		try {
+			writer.write(element, buffer);
+
+			Assert.assertEquals(new XMLOutputter().outputString(element), buffer.toString(StandardCharsets.UTF_8));
+		} finally {
+			buffer.release();
+		}
+	}
+}
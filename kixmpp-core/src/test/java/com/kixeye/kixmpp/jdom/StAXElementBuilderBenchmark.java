@@ -0,0 +1,181 @@
+package com.kixeye.kixmpp.jdom;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import org.jdom2.DefaultJDOMFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.kixeye.kixmpp.stanza.CompactStanza;
+import com.kixeye.kixmpp.stanza.StAXCompactStanzaBuilder;
+
+/**
+ * Compares allocating a {@link StAXElementBuilder} and its {@link DefaultJDOMFactory} per stanza, as the codec used
+ * to, with reusing one builder per stream, and with building {@link CompactStanza}s instead of JDOM elements.
+ *
+ * <p>Run {@link #main(String[])} from the test classpath, the gc profiler reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code> is bytes per stanza).</p>
+ *
+ * @author ebahtijaragic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StAXElementBuilderBenchmark {
+	private static final int STANZA_COUNT = 1000;
+
+	private InputFactoryImpl inputFactory;
+
+	private byte[] stream;
+
+	@Setup
+	public void setup() {
+		inputFactory = new InputFactoryImpl();
+		inputFactory.configureForSpeed();
+
+		StringBuilder builder = new StringBuilder();
+		builder.append("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' version='1.0'>");
+
+		for (int i = 0; i < STANZA_COUNT; i++) {
+			builder.append("<message to='room@conference.kixeye.com' from='user").append(i).append("@kixeye.com/web' type='groupchat' id='").append(i).append("'>");
+			builder.append("<body>Hello World!</body>");
+			builder.append("</message>");
+		}
+
+		builder.append("</stream:stream>");
+
+		stream = builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STANZA_COUNT)
+	public void builderPerStanza(Blackhole blackhole) throws Exception {
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		streamReader.getInputFeeder().feedInput(stream, 0, stream.length);
+
+		StAXElementBuilder elementBuilder = null;
+
+		int event = -1;
+
+		while ((event = streamReader.next()) != XMLStreamConstants.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			if (streamReader.getDepth() >= 2) {
+				if (event == XMLStreamConstants.START_ELEMENT && streamReader.getDepth() == 2) {
+					elementBuilder = new StAXElementBuilder(true, new DefaultJDOMFactory());
+					elementBuilder.process(streamReader);
+				} else if (event == XMLStreamConstants.END_ELEMENT && streamReader.getDepth() == 2) {
+					elementBuilder.process(streamReader);
+
+					blackhole.consume(elementBuilder.getElement());
+				} else {
+					elementBuilder.process(streamReader);
+				}
+			}
+		}
+
+		streamReader.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STANZA_COUNT)
+	public void reusedBuilder(Blackhole blackhole) throws Exception {
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		streamReader.getInputFeeder().feedInput(stream, 0, stream.length);
+
+		StAXElementBuilder elementBuilder = new StAXElementBuilder(true);
+
+		int event = -1;
+
+		while ((event = streamReader.next()) != XMLStreamConstants.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			if (streamReader.getDepth() >= 2) {
+				if (event == XMLStreamConstants.START_ELEMENT && streamReader.getDepth() == 2) {
+					elementBuilder.reset();
+					elementBuilder.process(streamReader);
+				} else if (event == XMLStreamConstants.END_ELEMENT && streamReader.getDepth() == 2) {
+					elementBuilder.process(streamReader);
+
+					blackhole.consume(elementBuilder.getElement());
+				} else {
+					elementBuilder.process(streamReader);
+				}
+			}
+		}
+
+		streamReader.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STANZA_COUNT)
+	public void compactBuilder(Blackhole blackhole) throws Exception {
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		streamReader.getInputFeeder().feedInput(stream, 0, stream.length);
+
+		StAXCompactStanzaBuilder stanzaBuilder = new StAXCompactStanzaBuilder();
+
+		int event = -1;
+
+		while ((event = streamReader.next()) != XMLStreamConstants.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			if (streamReader.getDepth() >= 2) {
+				if (event == XMLStreamConstants.START_ELEMENT && streamReader.getDepth() == 2) {
+					stanzaBuilder.reset();
+					stanzaBuilder.process(streamReader);
+				} else if (event == XMLStreamConstants.END_ELEMENT && streamReader.getDepth() == 2) {
+					stanzaBuilder.process(streamReader);
+
+					blackhole.consume(stanzaBuilder.getStanza());
+				} else {
+					stanzaBuilder.process(streamReader);
+				}
+			}
+		}
+
+		streamReader.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(StAXElementBuilderBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
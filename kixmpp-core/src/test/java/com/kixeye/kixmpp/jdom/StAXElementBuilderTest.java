@@ -81,4 +81,57 @@ public class StAXElementBuilderTest {
 		Assert.assertEquals("someChildElement", someChildElement.getName());
 		Assert.assertEquals("someChildElementAttributeValue", someChildElement.getAttributeValue("someChildElementAttribute"));
 	}
+	
+	@Test
+	public void testReset() throws Exception {
+		InputFactoryImpl inputFactory = new InputFactoryImpl();
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		AsyncInputFeeder asyncInputFeeder = streamReader.getInputFeeder();
+		
+		byte[] xmlData = 
+				(	"<stream>"
+				+		"<first firstAttribute='firstAttributeValue'><firstChild/></first>"
+				+ 		"<second secondAttribute='secondAttributeValue'/>"
+				+ 	"</stream>").getBytes(StandardCharsets.UTF_8);
+		
+		asyncInputFeeder.feedInput(xmlData, 0, xmlData.length);
+		
+		StAXElementBuilder elementBuilder = new StAXElementBuilder(true);
+		
+		Element first = null;
+		Element second = null;
+		
+		int event = -1;
+		
+		while ((event = streamReader.next()) != AsyncXMLStreamReader.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			if (streamReader.getDepth() < 2) {
+				continue;
+			}
+			
+			if (event == 1 && streamReader.getDepth() == 2) {
+				elementBuilder.reset();
+			}
+
+			elementBuilder.process(streamReader);
+			
+			if (event == 2 && streamReader.getDepth() == 2) {
+				if (first == null) {
+					first = elementBuilder.getElement();
+				} else {
+					second = elementBuilder.getElement();
+				}
+			}
+		}
+		
+		Assert.assertNotNull(first);
+		Assert.assertEquals("first", first.getName());
+		Assert.assertEquals("firstAttributeValue", first.getAttributeValue("firstAttribute"));
+		Assert.assertEquals(1, first.getChildren().size());
+		
+		Assert.assertNotNull(second);
+		Assert.assertEquals("second", second.getName());
+		Assert.assertEquals("secondAttributeValue", second.getAttributeValue("secondAttribute"));
+		Assert.assertEquals(0, second.getChildren().size());
+		Assert.assertNull(second.getParent());
+	}
 }
@@ -0,0 +1,192 @@
+package com.kixeye.kixmpp.stanza;
+
+/*
+ * #%L
+ * KIXMPP Parent
+ * %%
+ * Copyright (C) 2014 KIXEYE, Inc
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.aalto.AsyncInputFeeder;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.kixeye.kixmpp.jdom.StAXElementBuilder;
+
+/**
+ * Tests the {@link StAXCompactStanzaBuilder}
+ *
+ * @author ebahtijaragic
+ */
+public class StAXCompactStanzaBuilderTest {
+	private static final String STREAM =
+				"<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>"
+			+		"<message to='room@conference.kixeye.com' type='groupchat' id='1' xml:lang='en'>"
+			+ 			"<body>Hello <![CDATA[World]]>!</body>"
+			+ 			"<x xmlns='http://jabber.org/protocol/muc'><history maxstanzas='5'/></x>"
+			+ 		"</message>"
+			+		"<iq type='get' id='2'><query xmlns='jabber:iq:roster'/></iq>"
+			+ 	"</stream:stream>";
+
+	@Test
+	public void testCompactStanza() throws Exception {
+		List<CompactStanza> stanzas = parse(STREAM);
+
+		Assert.assertEquals(2, stanzas.size());
+
+		CompactStanza message = stanzas.get(0);
+
+		Assert.assertEquals("message", message.getName());
+		Assert.assertEquals("message", message.getQualifiedName());
+		Assert.assertEquals("jabber:client", message.getNamespaceURI());
+		Assert.assertEquals("room@conference.kixeye.com", message.getAttributeValue("to"));
+		Assert.assertEquals("groupchat", message.getAttributeValue("type"));
+		Assert.assertEquals("en", message.getAttributeValue("lang", "http://www.w3.org/XML/1998/namespace"));
+		Assert.assertNull(message.getAttributeValue("from"));
+		Assert.assertEquals("Hello World!", message.getChildText("body"));
+		Assert.assertNull(message.getChildText("subject"));
+		Assert.assertTrue(message.hasChild("x", "http://jabber.org/protocol/muc"));
+		Assert.assertFalse(message.hasChild("x", "jabber:client"));
+
+		Element x = message.getChild("x", "http://jabber.org/protocol/muc");
+
+		Assert.assertNotNull(x);
+		Assert.assertEquals("5", x.getChildren().get(0).getAttributeValue("maxstanzas"));
+
+		CompactStanza iq = stanzas.get(1);
+
+		Assert.assertEquals("iq", iq.getName());
+		Assert.assertEquals("get", iq.getAttributeValue("type"));
+		Assert.assertTrue(iq.hasChild("query", "jabber:iq:roster"));
+	}
+
+	@Test
+	public void testToElementMatchesElementBuilder() throws Exception {
+		List<CompactStanza> stanzas = parse(STREAM);
+		List<Element> elements = parseElements(STREAM);
+
+		Assert.assertEquals(elements.size(), stanzas.size());
+
+		XMLOutputter outputter = new XMLOutputter();
+
+		for (int i = 0; i < elements.size(); i++) {
+			Element element = stanzas.get(i).toElement();
+
+			Assert.assertSame(element, stanzas.get(i).toElement());
+			Assert.assertEquals(outputter.outputString(elements.get(i)), outputter.outputString(element));
+		}
+	}
+
+	@Test
+	public void testFromElement() throws Exception {
+		Element element = parseElements(STREAM).get(0);
+
+		CompactStanza stanza = CompactStanza.fromElement(element);
+
+		Assert.assertSame(element, stanza.toElement());
+		Assert.assertEquals("groupchat", stanza.getAttributeValue("type"));
+		Assert.assertEquals("Hello World!", stanza.getChildText("body"));
+		Assert.assertTrue(stanza.hasChild("x", "http://jabber.org/protocol/muc"));
+	}
+
+	/**
+	 * Parses all the stanzas in a stream with one reused builder.
+	 *
+	 * @param stream
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<CompactStanza> parse(String stream) throws Exception {
+		InputFactoryImpl inputFactory = new InputFactoryImpl();
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		AsyncInputFeeder asyncInputFeeder = streamReader.getInputFeeder();
+
+		byte[] xmlData = stream.getBytes(StandardCharsets.UTF_8);
+
+		asyncInputFeeder.feedInput(xmlData, 0, xmlData.length);
+
+		StAXCompactStanzaBuilder builder = new StAXCompactStanzaBuilder();
+		List<CompactStanza> stanzas = new ArrayList<>();
+
+		int event = -1;
+
+		while ((event = streamReader.next()) != AsyncXMLStreamReader.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			if (streamReader.getDepth() < 2) {
+				continue;
+			}
+
+			if (event == AsyncXMLStreamReader.START_ELEMENT && streamReader.getDepth() == 2) {
+				builder.reset();
+			}
+
+			builder.process(streamReader);
+
+			if (event == AsyncXMLStreamReader.END_ELEMENT && streamReader.getDepth() == 2) {
+				stanzas.add(builder.getStanza());
+			}
+		}
+
+		return stanzas;
+	}
+
+	/**
+	 * Parses all the stanzas in a stream as JDOM elements.
+	 *
+	 * @param stream
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Element> parseElements(String stream) throws Exception {
+		InputFactoryImpl inputFactory = new InputFactoryImpl();
+		AsyncXMLStreamReader streamReader = inputFactory.createAsyncXMLStreamReader();
+		AsyncInputFeeder asyncInputFeeder = streamReader.getInputFeeder();
+
+		byte[] xmlData = stream.getBytes(StandardCharsets.UTF_8);
+
+		asyncInputFeeder.feedInput(xmlData, 0, xmlData.length);
+
+		StAXElementBuilder builder = new StAXElementBuilder(true);
+		List<Element> elements = new ArrayList<>();
+
+		int event = -1;
+
+		while ((event = streamReader.next()) != AsyncXMLStreamReader.END_DOCUMENT && event != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+			if (streamReader.getDepth() < 2) {
+				continue;
+			}
+
+			if (event == AsyncXMLStreamReader.START_ELEMENT && streamReader.getDepth() == 2) {
+				builder.reset();
+			}
+
+			builder.process(streamReader);
+
+			if (event == AsyncXMLStreamReader.END_ELEMENT && streamReader.getDepth() == 2) {
+				elements.add(builder.getElement());
+			}
+		}
+
+		return elements;
+	}
+}
@@ -31,6 +31,9 @@ import com.kixeye.kixmpp.p2p.util.Net;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,8 +59,10 @@ public class ClusterClient {
     private final MessageRegistry messageRegistry = new MessageRegistry();
     private final ExecutorService executorService;
     private final ScheduledFuture<?> pollingTask;
-    private final NioEventLoopGroup bossGroup;
-    private final NioEventLoopGroup workerGroup;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final boolean ownsEventLoopGroups;
+    private final ClusterTransportSettings transportSettings;
     private final Object joinLock = new Object();
 
     // node maps
@@ -65,15 +70,37 @@ public class ClusterClient {
     private final Map<NodeAddress,Node> addrToNode = new ConcurrentHashMap<>();
     private final AtomicInteger nodeCount = new AtomicInteger(0);
 
-    private NodeDiscovery discovery;
-    private ClusterListener listener;
+    private volatile NodeDiscovery discovery;
+    private volatile ClusterListener listener;
 
+    /**
+     * Creates a client with its own event loops, which use epoll if it is available.
+     */
     public ClusterClient(ClusterListener listener, String hostAddress, int hostPort, NodeDiscovery discovery, long msPollingTime, ExecutorService executorService) {
+        this(listener, hostAddress, hostPort, discovery, msPollingTime, executorService,
+                Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup(),
+                Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup(),
+                true, new ClusterTransportSettings());
+    }
+
+    /**
+     * Creates a client that shares the given event loops, which it does not shut down. The links use epoll if both
+     * groups are epoll groups.
+     */
+    public ClusterClient(ClusterListener listener, String hostAddress, int hostPort, NodeDiscovery discovery, long msPollingTime, ExecutorService executorService,
+                         EventLoopGroup bossGroup, EventLoopGroup workerGroup, ClusterTransportSettings transportSettings) {
+        this(listener, hostAddress, hostPort, discovery, msPollingTime, executorService, bossGroup, workerGroup, false, transportSettings);
+    }
+
+    private ClusterClient(ClusterListener listener, String hostAddress, int hostPort, NodeDiscovery discovery, long msPollingTime, ExecutorService executorService,
+                          EventLoopGroup bossGroup, EventLoopGroup workerGroup, boolean ownsEventLoopGroups, ClusterTransportSettings transportSettings) {
         this.listener = listener;
         this.discovery = discovery;
         this.executorService = executorService;
-        this.bossGroup = new NioEventLoopGroup();
-        this.workerGroup = new NioEventLoopGroup();
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.ownsEventLoopGroups = ownsEventLoopGroups;
+        this.transportSettings = transportSettings;
 
         // create local node
         NodeAddress localAddr;
@@ -87,7 +114,7 @@ public class ClusterClient {
 
         // Create listener for peer connections
         server = new NodeServer();
-        server.initialize(hostAddress, hostPort, bossGroup, workerGroup, messageRegistry, new ServerChannelHandler());
+        server.initialize(hostAddress, hostPort, bossGroup, workerGroup, messageRegistry, new ServerChannelHandler(), transportSettings);
 
         // schedule polling task
         pollingTask = workerGroup.scheduleWithFixedDelay( new Runnable() {
@@ -108,6 +135,15 @@ public class ClusterClient {
     }
 
 
+    /**
+     * Get the socket settings of the links to other nodes.
+     * @return transport settings
+     */
+    public ClusterTransportSettings getTransportSettings() {
+        return transportSettings;
+    }
+
+
     /**
      * Send message to the destination node.
      * @param destinationNodeId
@@ -210,8 +246,10 @@ public class ClusterClient {
         }
         idToNode.clear();
         addrToNode.clear();
-        bossGroup.shutdownGracefully();
-        workerGroup.shutdownGracefully();
+        if (ownsEventLoopGroups) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+        }
 
         // break dependencies
         listener = null;
@@ -223,13 +261,17 @@ public class ClusterClient {
      * Use the NodeProvider to poll for Zaqar peers.
      */
     private void pollForNodes() {
+        NodeDiscovery discovery = this.discovery;
+        if (discovery == null) {
+            return;
+        }
         try {
             for (NodeAddress address : discovery.getNodeAddresses()) {
                 synchronized (joinLock) {
                     if (addrToNode.containsKey(address)) {
                         continue;
                     }
-                    Node node = new RemoteNode(this,address,workerGroup,messageRegistry,localNode);
+                    Node node = new RemoteNode(this,address,workerGroup,messageRegistry,localNode,transportSettings);
                     addNode(node);
                 }
             }
@@ -259,7 +301,11 @@ public class ClusterClient {
                     new Runnable() {
                         @Override
                         public void run() {
-                            listener.onNodeJoin(ClusterClient.this, node.getId());
+                            // the cluster can be shut down before a queued notification runs
+                            ClusterListener listener = ClusterClient.this.listener;
+                            if (listener != null) {
+                                listener.onNodeJoin(ClusterClient.this, node.getId());
+                            }
                         }
                     });
         }
@@ -286,7 +332,11 @@ public class ClusterClient {
                     new Runnable() {
                         @Override
                         public void run() {
-                            listener.onNodeLeft(ClusterClient.this, node.getId());
+                            // the cluster can be shut down before a queued notification runs
+                            ClusterListener listener = ClusterClient.this.listener;
+                            if (listener != null) {
+                                listener.onNodeLeft(ClusterClient.this, node.getId());
+                            }
                         }
                     });
         }
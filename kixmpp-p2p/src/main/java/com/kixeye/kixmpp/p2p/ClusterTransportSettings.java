@@ -0,0 +1,134 @@
+package com.kixeye.kixmpp.p2p;
+
+/*
+ * #%L
+ * Zaqar
+ * %%
+ * Copyright (C) 2014 Charles Barry
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelOption;
+
+/**
+ * Socket settings of the links between cluster nodes. Changes apply to links that are made afterwards.
+ */
+public class ClusterTransportSettings {
+    public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+    public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+
+    private volatile int sendBufferSize = 0;
+    private volatile int receiveBufferSize = 0;
+    private volatile int writeBufferLowWaterMark = DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+    private volatile int writeBufferHighWaterMark = DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+
+    /**
+     * @return the SO_SNDBUF of a link, 0 for the OS default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize the SO_SNDBUF of a link, 0 for the OS default
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("sendBufferSize cannot be negative");
+        }
+
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @return the SO_RCVBUF of a link, 0 for the OS default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * @param receiveBufferSize the SO_RCVBUF of a link, 0 for the OS default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize cannot be negative");
+        }
+
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @return the number of bytes waiting to be written at which a link becomes writable again
+     */
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * @return the number of bytes waiting to be written at which a link stops being writable
+     */
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * @param lowWaterMark the number of bytes waiting to be written at which a link becomes writable again
+     * @param highWaterMark the number of bytes waiting to be written at which a link stops being writable
+     */
+    public synchronized void setWriteBufferWaterMarks(int lowWaterMark, int highWaterMark) {
+        if (lowWaterMark < 0 || highWaterMark < lowWaterMark) {
+            throw new IllegalArgumentException(String.format("Invalid water marks [%s, %s]", lowWaterMark, highWaterMark));
+        }
+
+        this.writeBufferLowWaterMark = lowWaterMark;
+        this.writeBufferHighWaterMark = highWaterMark;
+    }
+
+    /**
+     * Applies the settings to the config of a link.
+     *
+     * @param config
+     */
+    public void apply(ChannelConfig config) {
+        int sendBufferSize = this.sendBufferSize;
+        int receiveBufferSize = this.receiveBufferSize;
+
+        if (sendBufferSize > 0) {
+            config.setOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            config.setOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+
+        int lowWaterMark;
+        int highWaterMark;
+
+        synchronized (this) {
+            lowWaterMark = writeBufferLowWaterMark;
+            highWaterMark = writeBufferHighWaterMark;
+        }
+
+        // netty rejects a low water mark above the current high one and the other way around
+        if (lowWaterMark > config.getWriteBufferHighWaterMark()) {
+            config.setWriteBufferHighWaterMark(highWaterMark);
+            config.setWriteBufferLowWaterMark(lowWaterMark);
+        } else {
+            config.setWriteBufferLowWaterMark(lowWaterMark);
+            config.setWriteBufferHighWaterMark(highWaterMark);
+        }
+    }
+}
@@ -20,11 +20,14 @@ package com.kixeye.kixmpp.p2p.node;
  * #L%
  */
 
+import com.kixeye.kixmpp.p2p.ClusterTransportSettings;
 import com.kixeye.kixmpp.p2p.message.MessageRegistry;
 import com.kixeye.kixmpp.p2p.serialization.ProtostuffDecoder;
 import com.kixeye.kixmpp.p2p.serialization.ProtostuffEncoder;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
@@ -35,22 +38,55 @@ import org.slf4j.LoggerFactory;
 public class NodeClient {
     private static final Logger logger = LoggerFactory.getLogger(NodeClient.class);
 
-    private Channel channel;
+    private volatile Channel channel;
 
     public void initialize(
             final String host, int port,
             final EventLoopGroup workerGroup,
             final MessageRegistry messageRegistry,
             final ChannelInboundHandlerAdapter channelListener) throws InterruptedException {
+        initialize(host, port, workerGroup, messageRegistry, channelListener, new ClusterTransportSettings());
+    }
+
+    /**
+     * Connects to another node and waits for the link. The link uses epoll if the group is an epoll group.
+     */
+    public void initialize(
+            final String host, int port,
+            final EventLoopGroup workerGroup,
+            final MessageRegistry messageRegistry,
+            final ChannelInboundHandlerAdapter channelListener,
+            final ClusterTransportSettings transportSettings) throws InterruptedException {
+        connect(host, port, workerGroup, messageRegistry, channelListener, transportSettings).sync();
+    }
+
+    /**
+     * Starts connecting to another node without waiting, so that it can be called from an event loop. The link uses
+     * epoll if the group is an epoll group.
+     *
+     * @return the future of the connect
+     */
+    public ChannelFuture connect(
+            final String host, int port,
+            final EventLoopGroup workerGroup,
+            final MessageRegistry messageRegistry,
+            final ChannelInboundHandlerAdapter channelListener,
+            final ClusterTransportSettings transportSettings) {
         // prepare connection
         Bootstrap boot = new Bootstrap();
         boot.group(workerGroup);
-        boot.channel(NioSocketChannel.class);
+        if (workerGroup instanceof EpollEventLoopGroup) {
+            boot.channel(EpollSocketChannel.class);
+        } else {
+            boot.channel(NioSocketChannel.class);
+        }
         boot.option(ChannelOption.SO_KEEPALIVE,true);
         boot.option(ChannelOption.TCP_NODELAY,true);
         boot.handler( new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
+                transportSettings.apply(ch.config());
+
                 ChannelPipeline p = ch.pipeline();
 
                 //p.addLast(new LoggingHandler());
@@ -66,8 +102,10 @@ public class NodeClient {
             }
         });
 
-        // connect
-        channel = boot.connect(host,port).sync().channel();
+        // connect, keeping the channel before it is active so that a link closed right away can be shut down
+        ChannelFuture connectFuture = boot.connect(host,port);
+        channel = connectFuture.channel();
+        return connectFuture;
     }
 
     public void send(Object msg) {
@@ -75,10 +113,20 @@ public class NodeClient {
     }
 
     public void shutdown() {
-        try {
-            channel.close().sync();
-        } catch (InterruptedException e) {
-            logger.error("Exception shutting down", e);
+        Channel channel = this.channel;
+        if (channel == null) {
+            return;
+        }
+
+        ChannelFuture closeFuture = channel.close();
+
+        // the link can be shut down by its own handlers, which must not wait on their event loop
+        if (!channel.eventLoop().inEventLoop()) {
+            try {
+                closeFuture.sync();
+            } catch (InterruptedException e) {
+                logger.error("Exception shutting down", e);
+            }
         }
     }
 }
@@ -21,11 +21,14 @@ package com.kixeye.kixmpp.p2p.node;
  */
 
 
+import com.kixeye.kixmpp.p2p.ClusterTransportSettings;
 import com.kixeye.kixmpp.p2p.message.MessageRegistry;
 import com.kixeye.kixmpp.p2p.serialization.ProtostuffDecoder;
 import com.kixeye.kixmpp.p2p.serialization.ProtostuffEncoder;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
@@ -45,15 +48,34 @@ public class NodeServer {
             final EventLoopGroup workerGroup,
             final MessageRegistry messageRegistry,
             final ChannelInboundHandlerAdapter channelListener) {
+        initialize(host, port, bossGroup, workerGroup, messageRegistry, channelListener, new ClusterTransportSettings());
+    }
+
+    /**
+     * Starts accepting links from other nodes. The links use epoll if both groups are epoll groups.
+     */
+    public void initialize(
+            final String host, final int port,
+            final EventLoopGroup bossGroup,
+            final EventLoopGroup workerGroup,
+            final MessageRegistry messageRegistry,
+            final ChannelInboundHandlerAdapter channelListener,
+            final ClusterTransportSettings transportSettings) {
         ServerBootstrap boot = new ServerBootstrap();
         boot.group(bossGroup,workerGroup);
-        boot.channel(NioServerSocketChannel.class);
+        if (bossGroup instanceof EpollEventLoopGroup && workerGroup instanceof EpollEventLoopGroup) {
+            boot.channel(EpollServerSocketChannel.class);
+        } else {
+            boot.channel(NioServerSocketChannel.class);
+        }
         boot.option(ChannelOption.SO_BACKLOG, 32);
         boot.childOption(ChannelOption.SO_KEEPALIVE, true);
         boot.childOption(ChannelOption.TCP_NODELAY,true);
         boot.childHandler(new ChannelInitializer<SocketChannel>() {
             @Override
             public void initChannel(SocketChannel ch) throws Exception {
+                transportSettings.apply(ch.config());
+
                 ChannelPipeline p = ch.pipeline();
 
                 //p.addLast(new LoggingHandler());
@@ -21,12 +21,16 @@ package com.kixeye.kixmpp.p2p.node;
  */
 
 import com.kixeye.kixmpp.p2p.ClusterClient;
+import com.kixeye.kixmpp.p2p.ClusterTransportSettings;
+import com.kixeye.kixmpp.p2p.listener.ClusterListener;
 import com.kixeye.kixmpp.p2p.message.JoinRequest;
 import com.kixeye.kixmpp.p2p.message.JoinResponse;
 import com.kixeye.kixmpp.p2p.message.MessageRegistry;
 import com.kixeye.kixmpp.p2p.message.MessageWrapper;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.EventLoopGroup;
@@ -41,15 +45,45 @@ public class RemoteNode extends Node {
      * Constructor used to create a RemoteNode that connects to the node's server.
      * @param address
      * @param workerGroup
-     * @throws InterruptedException
      */
-    public RemoteNode(ClusterClient repository, NodeAddress address, EventLoopGroup workerGroup, MessageRegistry messageRegistry, Node localNode) throws InterruptedException {
+    public RemoteNode(ClusterClient repository, NodeAddress address, EventLoopGroup workerGroup, MessageRegistry messageRegistry, Node localNode) {
+        this(repository, address, workerGroup, messageRegistry, localNode, new ClusterTransportSettings());
+    }
+
+
+    /**
+     * Constructor used to create a RemoteNode that connects to the node's server with the given socket settings.
+     * The connect does not block, so the node closes itself if it fails.
+     * @param address
+     * @param workerGroup
+     * @param transportSettings
+     */
+    public RemoteNode(ClusterClient repository, NodeAddress address, EventLoopGroup workerGroup, MessageRegistry messageRegistry, Node localNode,
+            ClusterTransportSettings transportSettings) {
         super(repository,address);
         this.state = State.CONNECTING;
         this.localNode = localNode;
         this.channel = null;
         this.client = new NodeClient();
-        client.initialize(address.getHost(), address.getPort(), workerGroup, messageRegistry, new NodeChannelHandler());
+        client.connect(address.getHost(), address.getPort(), workerGroup, messageRegistry, new NodeChannelHandler(), transportSettings)
+                .addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(final ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            return;
+                        }
+
+                        logger.error("Unable to connect to node at {}", getAddress(), future.cause());
+
+                        // the listener can run while the node is still being added, so close it afterwards
+                        future.channel().eventLoop().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                close();
+                            }
+                        });
+                    }
+                });
     }
 
 
@@ -139,7 +173,10 @@ public class RemoteNode extends Node {
                         break;
                 }
             } else {
-                cluster.getClusterListener().onMessage(cluster, id, msg);
+                ClusterListener listener = cluster.getClusterListener();
+                if (listener != null) {
+                    listener.onMessage(cluster, id, msg);
+                }
             }
         }
 
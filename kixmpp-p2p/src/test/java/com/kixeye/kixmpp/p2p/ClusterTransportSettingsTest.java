@@ -0,0 +1,67 @@
+package com.kixeye.kixmpp.p2p;
+
+/*
+ * #%L
+ * Zaqar
+ * %%
+ * Copyright (C) 2014 Charles Barry
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ClusterTransportSettingsTest {
+
+    @Test
+    public void applyRaisedWaterMarksTest() {
+        ClusterTransportSettings settings = new ClusterTransportSettings();
+        settings.setWriteBufferWaterMarks(128 * 1024, 256 * 1024);
+
+        ChannelConfig config = new NioSocketChannel().config();
+        settings.apply(config);
+
+        Assert.assertEquals(128 * 1024, config.getWriteBufferLowWaterMark());
+        Assert.assertEquals(256 * 1024, config.getWriteBufferHighWaterMark());
+    }
+
+    @Test
+    public void applyLoweredWaterMarksTest() {
+        ClusterTransportSettings settings = new ClusterTransportSettings();
+        settings.setWriteBufferWaterMarks(1024, 2048);
+
+        ChannelConfig config = new NioSocketChannel().config();
+        settings.apply(config);
+
+        Assert.assertEquals(1024, config.getWriteBufferLowWaterMark());
+        Assert.assertEquals(2048, config.getWriteBufferHighWaterMark());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWaterMarksTest() {
+        new ClusterTransportSettings().setWriteBufferWaterMarks(2048, 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBufferSizeTest() {
+        new ClusterTransportSettings().setSendBufferSize(-1);
+    }
+}
@@ -4,13 +4,19 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.Striped;
 import com.kixeye.kixmpp.*;
+import com.kixeye.kixmpp.handler.DispatchQueueExecutionStrategy;
 import com.kixeye.kixmpp.handler.KixmppEventEngine;
+import com.kixeye.kixmpp.handler.KixmppExecutionStrategy;
+import com.kixeye.kixmpp.handler.KixmppPriority;
+import com.kixeye.kixmpp.handler.VirtualThreadExecutionStrategy;
 import com.kixeye.kixmpp.interceptor.KixmppStanzaInterceptor;
 import com.kixeye.kixmpp.p2p.ClusterClient;
+import com.kixeye.kixmpp.p2p.ClusterTransportSettings;
 import com.kixeye.kixmpp.p2p.discovery.ConstNodeDiscovery;
 import com.kixeye.kixmpp.p2p.discovery.NodeDiscovery;
 import com.kixeye.kixmpp.p2p.listener.ClusterListener;
 import com.kixeye.kixmpp.p2p.node.NodeId;
+import com.kixeye.kixmpp.stanza.CompactStanza;
 import com.kixeye.kixmpp.server.cluster.mapreduce.MapReduceTracker;
 import com.kixeye.kixmpp.server.cluster.message.*;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
@@ -35,6 +41,7 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
+import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.CharsetUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -46,12 +53,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 /*
@@ -100,6 +110,9 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 	
 	private final KixmppEventEngine eventEngine;
 	
+	private final KixmppCodecSettings codecSettings = new KixmppCodecSettings();
+	private final KixmppFlushSettings flushSettings = new KixmppFlushSettings();
+	
 	private final Set<String> modulesToRegister = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	private final ConcurrentHashMap<String, KixmppServerModule> modules = new ConcurrentHashMap<>();
 
@@ -173,13 +186,36 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 	 * @param domain
 	 */
 	public KixmppServer(InetSocketAddress bindAddress, String domain, InetSocketAddress clusterAddress, NodeDiscovery clusterDiscovery, boolean useEpollIfAvailable) {
+		this(bindAddress, domain, clusterAddress, clusterDiscovery, useEpollIfAvailable, new DispatchQueueExecutionStrategy());
+	}
+	
+	/**
+	 * Creates a new {@link KixmppServer} whose handlers run on the executors of the given strategy. Use a
+	 * {@link VirtualThreadExecutionStrategy} if handlers call blocking services.
+	 * 
+	 * @param bindAddress
+	 * @param domain
+	 * @param executionStrategy
+	 */
+	public KixmppServer(InetSocketAddress bindAddress, String domain, InetSocketAddress clusterAddress, NodeDiscovery clusterDiscovery, boolean useEpollIfAvailable, KixmppExecutionStrategy executionStrategy) {
+		// the message handler dispatches the stanzas of a read together
+		this.codecSettings.setBatchStanzas(true);
+		
 		if (useEpollIfAvailable && OS.indexOf("nux") >= 0) {
 			this.bootstrap = new ServerBootstrap()
 				.group(new EpollEventLoopGroup(), new EpollEventLoopGroup())
 				.channel(EpollServerSocketChannel.class)
 				.childHandler(new ChannelInitializer<SocketChannel>() {
 					protected void initChannel(SocketChannel ch) throws Exception {
-						ch.pipeline().addLast(new KixmppCodec());
+						if (flushSettings.isEnabled()) {
+							ch.pipeline().addLast(new KixmppFlushConsolidationHandler(flushSettings));
+						}
+						
+						if (codecSettings.getHibernateAfterMillis() > 0) {
+							ch.pipeline().addLast(new IdleStateHandler(codecSettings.getHibernateAfterMillis(), 0, 0, TimeUnit.MILLISECONDS));
+						}
+						
+						ch.pipeline().addLast(new KixmppCodec(codecSettings));
 						ch.pipeline().addLast(new KixmppServerMessageHandler());
 					}
 				});
@@ -189,13 +225,21 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 				.channel(NioServerSocketChannel.class)
 				.childHandler(new ChannelInitializer<SocketChannel>() {
 					protected void initChannel(SocketChannel ch) throws Exception {
-						ch.pipeline().addLast(new KixmppCodec());
+						if (flushSettings.isEnabled()) {
+							ch.pipeline().addLast(new KixmppFlushConsolidationHandler(flushSettings));
+						}
+						
+						if (codecSettings.getHibernateAfterMillis() > 0) {
+							ch.pipeline().addLast(new IdleStateHandler(codecSettings.getHibernateAfterMillis(), 0, 0, TimeUnit.MILLISECONDS));
+						}
+						
+						ch.pipeline().addLast(new KixmppCodec(codecSettings));
 						ch.pipeline().addLast(new KixmppServerMessageHandler());
 					}
 				});
 		}
 
-        this.cluster = new ClusterClient( this, clusterAddress.getHostName(), clusterAddress.getPort(), clusterDiscovery, 300000, bootstrap.group() );
+        this.cluster = new ClusterClient( this, clusterAddress.getHostName(), clusterAddress.getPort(), clusterDiscovery, 300000, bootstrap.group(), bootstrap.group(), bootstrap.childGroup(), new ClusterTransportSettings() );
         this.cluster.getMessageRegistry().addCustomMessage(1, RoomBroadcastTask.class);
 		this.cluster.getMessageRegistry().addCustomMessage(2, RoomPresenceBroadcastTask.class);
 		this.cluster.getMessageRegistry().addCustomMessage(3, PrivateChatTask.class);
@@ -206,7 +250,7 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 
 		this.bindAddress = bindAddress;
 		this.domain = domain.toLowerCase();
-		this.eventEngine = new KixmppEventEngine();
+		this.eventEngine = new KixmppEventEngine(executionStrategy);
 
 		this.modulesToRegister.add(FeaturesKixmppServerModule.class.getName());
 		this.modulesToRegister.add(SaslKixmppServerModule.class.getName());
@@ -244,6 +288,10 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 					.channel(EpollServerSocketChannel.class)
 					.childHandler(new ChannelInitializer<SocketChannel>() {
 						protected void initChannel(SocketChannel ch) throws Exception {
+							if (flushSettings.isEnabled()) {
+								ch.pipeline().addLast(new KixmppFlushConsolidationHandler(flushSettings));
+							}
+							
 							ch.pipeline().addLast(new HttpServerCodec());
 							ch.pipeline().addLast(new HttpObjectAggregator(65536));
 							ch.pipeline().addLast(new WebSocketServerHandler());
@@ -257,6 +305,10 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 				.channel(NioServerSocketChannel.class)
 				.childHandler(new ChannelInitializer<SocketChannel>() {
 					protected void initChannel(SocketChannel ch) throws Exception {
+						if (flushSettings.isEnabled()) {
+							ch.pipeline().addLast(new KixmppFlushConsolidationHandler(flushSettings));
+						}
+						
 						ch.pipeline().addLast(new HttpServerCodec());
 						ch.pipeline().addLast(new HttpObjectAggregator(65536));
 						ch.pipeline().addLast(new WebSocketServerHandler());
@@ -479,6 +531,42 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
     	return modules.values();
     }
 
+    /**
+     * Gets the settings used for the codecs of new connections.
+     * 
+     * @return
+     */
+    public KixmppCodecSettings getCodecSettings() {
+    	return codecSettings;
+    }
+
+    /**
+     * Gets the settings used for the flush consolidation of new connections.
+     * 
+     * @return
+     */
+    public KixmppFlushSettings getFlushSettings() {
+    	return flushSettings;
+    }
+
+    /**
+     * Gets the settings for the backpressure from the event engine to the connections.
+     * 
+     * @return
+     */
+    public KixmppBackpressureSettings getBackpressureSettings() {
+    	return eventEngine.getBackpressureSettings();
+    }
+
+    /**
+     * Gets the socket buffer and write buffer water mark settings of the cluster links.
+     * 
+     * @return
+     */
+    public ClusterTransportSettings getClusterTransportSettings() {
+    	return cluster.getTransportSettings();
+    }
+
     /**
      * Gets the event engine.
      * 
@@ -527,6 +615,15 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
     	return interceptors.remove(interceptor);
     }
     
+    /**
+     * Checks whether any stanza interceptors are registered. Stanzas that are sent pre-encoded bypass them.
+     * 
+     * @return
+     */
+    public boolean hasInterceptors() {
+    	return !interceptors.isEmpty();
+    }
+    
     /**
      * Gets the number of channels.
      * 
@@ -645,26 +742,37 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 	private final class KixmppServerMessageHandler extends ChannelDuplexHandler {
 		@Override
 		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-			if (msg instanceof Element) {
+			if (msg instanceof CompactStanza && !interceptors.isEmpty()) {
+				// interceptors work on (and may modify) the JDOM form
+				msg = ((CompactStanza)msg).toElement();
+			}
+			
+			if (msg instanceof CompactStanza) {
+				eventEngine.publishStanza(ctx.channel(), (CompactStanza)msg);
+			} else if (msg instanceof Element) {
 				Element stanza = (Element)msg;
 				
-				boolean rejected = false;
+				if (!interceptIncoming(ctx, stanza)) {
+					eventEngine.publishStanza(ctx.channel(), stanza);
+				}
+			} else if (msg instanceof KixmppStanzaBatch) {
+				KixmppStanzaBatch batch = (KixmppStanzaBatch)msg;
 				
-				for (KixmppStanzaInterceptor interceptor : interceptors) {
-					try {
-						interceptor.interceptIncoming(ctx.channel(),(Element)msg);
-					} catch (KixmppStanzaRejectedException e) {
-						rejected = true;
+				if (!interceptors.isEmpty()) {
+					List<Object> stanzas = new ArrayList<>(batch.size());
+					
+					for (Object stanza : batch.getStanzas()) {
+						Element element = stanza instanceof CompactStanza ? ((CompactStanza)stanza).toElement() : (Element)stanza;
 						
-						logger.debug("Incoming stanza interceptor [{}] threw an rejected exception.", interceptor, e);
-					} catch (Exception e) {
-						logger.error("Incoming stanza interceptor [{}] threw an exception.", interceptor, e);
+						if (!interceptIncoming(ctx, element)) {
+							stanzas.add(element);
+						}
 					}
+					
+					batch = new KixmppStanzaBatch(stanzas);
 				}
 				
-				if (!rejected) {
-					eventEngine.publishStanza(ctx.channel(), stanza);
-				}
+				eventEngine.publishStanzas(ctx.channel(), batch);
 			} else if (msg instanceof KixmppStreamStart) {
 				KixmppStreamStart streamStart = (KixmppStreamStart)msg;
 
@@ -678,6 +786,31 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 			}
 		}
 		
+		/**
+		 * Runs the incoming interceptors on a stanza.
+		 * 
+		 * @param ctx
+		 * @param stanza
+		 * @return <b>true</b> if an interceptor rejected the stanza
+		 */
+		private boolean interceptIncoming(ChannelHandlerContext ctx, Element stanza) {
+			boolean rejected = false;
+			
+			for (KixmppStanzaInterceptor interceptor : interceptors) {
+				try {
+					interceptor.interceptIncoming(ctx.channel(), stanza);
+				} catch (KixmppStanzaRejectedException e) {
+					rejected = true;
+					
+					logger.debug("Incoming stanza interceptor [{}] threw an rejected exception.", interceptor, e);
+				} catch (Exception e) {
+					logger.error("Incoming stanza interceptor [{}] threw an exception.", interceptor, e);
+				}
+			}
+			
+			return rejected;
+		}
+		
 		@Override
 		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
 			boolean rejected = false;
@@ -789,7 +922,8 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
 	        } else if (frame instanceof PingWebSocketFrame) {
 	            ctx.channel().write(new PongWebSocketFrame(frame.content().retain()));
 	        } else {
-                ctx.fireChannelRead(frame);
+                // the codec takes ownership of the frame, this handler releases its own reference
+                ctx.fireChannelRead(frame.retain());
 	        }
 	    }
 
@@ -859,7 +993,7 @@ public class KixmppServer implements AutoCloseable, ClusterListener {
         if (message instanceof MapReduceRequest) {
             MapReduceRequest request = (MapReduceRequest) message;
             request.setSenderId(senderId);
-            getEventEngine().publishTask(request.getTargetJID(),request);
+            getEventEngine().publishTask(request.getTargetJID(), KixmppPriority.BACKGROUND, request);
         } else if (message instanceof MapReduceResponse) {
             MapReduceResponse response = (MapReduceResponse) message;
             mapReduce.processResponse(response);
@@ -37,7 +37,7 @@ import com.kixeye.kixmpp.server.KixmppServer;
  */
 public interface KixmppServerModule extends KixmppModule<KixmppServer> {
 	/**
-	 * Gets a list of features added by this module.
+	 * Gets a list of features added by this module.
 	 * 
 	 * @param channel
 	 * @return
@@ -26,7 +26,7 @@ import io.netty.handler.codec.base64.Base64;
 import io.netty.util.AttributeKey;
 
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -34,6 +34,7 @@ import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.jdom2.Element;
 
+import com.kixeye.kixmpp.KixmppEncodedFrames;
 import com.kixeye.kixmpp.KixmppJid;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
 import com.kixeye.kixmpp.server.KixmppServer;
@@ -46,6 +47,8 @@ import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
  * @author ebahtijaragic
  */
 public class SaslKixmppServerModule implements KixmppServerModule {
+	private static final List<Element> FEATURES = Collections.singletonList(createMechanisms());
+	
 	public static AttributeKey<Boolean> IS_AUTHENTICATED = AttributeKey.valueOf("IS_AUTHENTICATED");
 	
 	private AuthenticationService authenticationService;
@@ -73,22 +76,27 @@ public class SaslKixmppServerModule implements KixmppServerModule {
 	 * @see com.kixeye.kixmpp.server.module.KixmppServerModule#getFeatures(io.netty.channel.Channel)
 	 */
 	public List<Element> getFeatures(Channel channel) {
-		List<Element> features = new LinkedList<>();
-		
 		Boolean isAuthed = channel.attr(IS_AUTHENTICATED).get();
 		
 		if (isAuthed == null || isAuthed == false) {
-			Element mechanisms = new Element("mechanisms", null, "urn:ietf:params:xml:ns:xmpp-sasl");
-			
-			Element plainMechanism = new Element("mechanism", "urn:ietf:params:xml:ns:xmpp-sasl");
-			plainMechanism.setText("PLAIN");
-			
-			mechanisms.addContent(plainMechanism);
-			
-			features.add(mechanisms);
+			return FEATURES;
 		}
 		
-		return features;
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * @return the mechanisms feature
+	 */
+	private static Element createMechanisms() {
+		Element mechanisms = new Element("mechanisms", null, "urn:ietf:params:xml:ns:xmpp-sasl");
+		
+		Element plainMechanism = new Element("mechanism", "urn:ietf:params:xml:ns:xmpp-sasl");
+		plainMechanism.setText("PLAIN");
+		
+		mechanisms.addContent(plainMechanism);
+		
+		return mechanisms;
 	}
 	
 	/**
@@ -132,28 +140,21 @@ public class SaslKixmppServerModule implements KixmppServerModule {
 									if (authResult) {
 										channel.attr(IS_AUTHENTICATED).set(true);
 										channel.attr(BindKixmppServerModule.JID).set(new KixmppJid(username, server.getDomain(), UUID.randomUUID().toString().replace("-", "")));
-										Element success = new Element("success", null, "urn:ietf:params:xml:ns:xmpp-sasl");
-										channel.writeAndFlush(success);
+										channel.writeAndFlush(KixmppEncodedFrames.SASL_SUCCESS.duplicate());
 									} else {
-										Element failure = new Element("failure", null, "urn:ietf:params:xml:ns:xmpp-sasl");
-										channel.writeAndFlush(failure);
+										channel.writeAndFlush(KixmppEncodedFrames.SASL_FAILURE.duplicate());
 									}
 								} else {
-									Element failure = new Element("failure", null, "urn:ietf:params:xml:ns:xmpp-sasl");
-									channel.writeAndFlush(failure);
+									channel.writeAndFlush(KixmppEncodedFrames.SASL_FAILURE.duplicate());
 								}
 							}
 						}
 					);
 				} else {
-					Element failure = new Element("failure", null, "urn:ietf:params:xml:ns:xmpp-sasl");
-					
-					channel.writeAndFlush(failure);
+					channel.writeAndFlush(KixmppEncodedFrames.SASL_FAILURE.duplicate());
 				}
 			} else {
-				Element failure = new Element("failure", null, "urn:ietf:params:xml:ns:xmpp-sasl");
-				
-				channel.writeAndFlush(failure);
+				channel.writeAndFlush(KixmppEncodedFrames.SASL_FAILURE.duplicate());
 			}
 		}
 	};
@@ -23,7 +23,7 @@ package com.kixeye.kixmpp.server.module.bind;
 import io.netty.channel.Channel;
 import io.netty.util.AttributeKey;
 
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -32,6 +32,7 @@ import org.jdom2.Namespace;
 
 import com.kixeye.kixmpp.KixmppJid;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 
@@ -41,6 +42,10 @@ import com.kixeye.kixmpp.server.module.KixmppServerModule;
  * @author ebahtijaragic
  */
 public class BindKixmppServerModule implements KixmppServerModule {
+	private static final KixmppStanzaRoute BIND_ROUTE = new KixmppStanzaRoute("iq").withNamespace("urn:ietf:params:xml:ns:xmpp-bind");
+	
+	private static final List<Element> FEATURES = Collections.singletonList(new Element("bind", null, "urn:ietf:params:xml:ns:xmpp-bind"));
+	
 	public static AttributeKey<Boolean> IS_BOUND = AttributeKey.valueOf("IS_BOUND");
 	
 	public static AttributeKey<KixmppJid> JID = AttributeKey.valueOf("JID");
@@ -53,31 +58,27 @@ public class BindKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("iq", BIND_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(BIND_ROUTE, BIND_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("iq", BIND_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(BIND_ROUTE, BIND_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppServerModule#getFeatures(io.netty.channel.Channel)
 	 */
 	public List<Element> getFeatures(Channel channel) {
-		List<Element> features = new LinkedList<>();
-		
 		Boolean isBound = channel.attr(IS_BOUND).get();
 		
 		if (isBound == null || isBound == false) {
-			Element bind = new Element("bind", null, "urn:ietf:params:xml:ns:xmpp-bind");
-			
-			features.add(bind);
+			return FEATURES;
 		}
 		
-		return features;
+		return Collections.emptyList();
 	}
 	
 	private KixmppStanzaHandler BIND_HANDLER = new KixmppStanzaHandler() {
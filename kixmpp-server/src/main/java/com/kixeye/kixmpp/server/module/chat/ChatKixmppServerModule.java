@@ -27,11 +27,14 @@ import java.util.List;
 import org.jdom2.Element;
 
 import com.kixeye.kixmpp.KixmppJid;
+import com.kixeye.kixmpp.handler.KixmppCompactStanzaHandler;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.cluster.message.PrivateChatTask;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
+import com.kixeye.kixmpp.stanza.CompactStanza;
 
 /**
  * Handles private chat features.
@@ -39,6 +42,8 @@ import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
  * @author ebahtijaragic
  */
 public class ChatKixmppServerModule implements KixmppServerModule {
+	private static final KixmppStanzaRoute MESSAGE_ROUTE = new KixmppStanzaRoute("message").withType("chat");
+	
 	private KixmppServer server;
 
 	/**
@@ -47,14 +52,14 @@ public class ChatKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("message", MESSAGE_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(MESSAGE_ROUTE, MESSAGE_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("message", MESSAGE_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(MESSAGE_ROUTE, MESSAGE_HANDLER);
 	}
 
 	/**
@@ -64,19 +69,31 @@ public class ChatKixmppServerModule implements KixmppServerModule {
 		return null;
 	}
 	
-	private KixmppStanzaHandler MESSAGE_HANDLER = new KixmppStanzaHandler() {
+	private KixmppStanzaHandler MESSAGE_HANDLER = new KixmppCompactStanzaHandler() {
 		/**
 		 * @see com.kixeye.kixmpp.server.KixmppStanzaHandler#handle(io.netty.channel.Channel, org.jdom2.Element)
 		 */
 		public void handle(Channel channel, Element stanza) {
 			if ("chat".equals(stanza.getAttributeValue("type"))) {
-				KixmppJid fromJid = channel.attr(BindKixmppServerModule.JID).get();
-				KixmppJid toJid = KixmppJid.fromRawJid(stanza.getAttributeValue("to"));
-				String body = stanza.getChildText("body", stanza.getNamespace());
+				sendMessage(channel, stanza.getAttributeValue("to"), stanza.getChildText("body", stanza.getNamespace()));
+			}
+		}
 
-				server.getCluster().sendMessageToAll(new PrivateChatTask(fromJid, toJid, body), true);
+		/**
+		 * @see com.kixeye.kixmpp.handler.KixmppCompactStanzaHandler#handle(io.netty.channel.Channel, com.kixeye.kixmpp.stanza.CompactStanza)
+		 */
+		public void handle(Channel channel, CompactStanza stanza) {
+			if ("chat".equals(stanza.getAttributeValue("type"))) {
+				sendMessage(channel, stanza.getAttributeValue("to"), stanza.getChildText("body"));
 			}
 		}
+		
+		private void sendMessage(Channel channel, String to, String body) {
+			KixmppJid fromJid = channel.attr(BindKixmppServerModule.JID).get();
+			KixmppJid toJid = KixmppJid.fromRawJid(to);
+
+			server.getCluster().sendMessageToAll(new PrivateChatTask(fromJid, toJid, body), true);
+		}
 	};
 
 }
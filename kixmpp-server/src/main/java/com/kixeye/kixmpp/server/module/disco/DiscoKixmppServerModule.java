@@ -28,6 +28,7 @@ import org.jdom2.Element;
 import org.jdom2.Namespace;
 
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 
@@ -37,6 +38,9 @@ import com.kixeye.kixmpp.server.module.KixmppServerModule;
  * @author ebahtijaragic
  */
 public class DiscoKixmppServerModule implements KixmppServerModule {
+	private static final KixmppStanzaRoute INFO_ROUTE = new KixmppStanzaRoute("iq").withNamespace("http://jabber.org/protocol/disco#info");
+	private static final KixmppStanzaRoute ITEMS_ROUTE = new KixmppStanzaRoute("iq").withNamespace("http://jabber.org/protocol/disco#items");
+	
 	private KixmppServer server;
 	
 	/**
@@ -45,14 +49,16 @@ public class DiscoKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("iq", ROSTER_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(INFO_ROUTE, ROSTER_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(ITEMS_ROUTE, ROSTER_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("iq", ROSTER_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(INFO_ROUTE, ROSTER_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(ITEMS_ROUTE, ROSTER_HANDLER);
 	}
 
 	/**
@@ -20,14 +20,20 @@ package com.kixeye.kixmpp.server.module.features;
  * #L%
  */
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.jdom2.Attribute;
+import org.jdom2.Content;
 import org.jdom2.Element;
 
+import com.kixeye.kixmpp.KixmppEncodedFrames;
 import com.kixeye.kixmpp.KixmppJid;
 import com.kixeye.kixmpp.KixmppStreamEnd;
 import com.kixeye.kixmpp.KixmppStreamStart;
@@ -42,6 +48,10 @@ import com.kixeye.kixmpp.server.module.auth.SaslKixmppServerModule;
  * @author ebahtijaragic
  */
 public class FeaturesKixmppServerModule implements KixmppServerModule {
+	private static final int MAX_CACHED_FEATURES = 16;
+	
+	private final ConcurrentHashMap<FeaturesKey, ByteBuf> encodedFeaturesCache = new ConcurrentHashMap<>();
+	
 	private KixmppServer server;
 	
 	/**
@@ -67,6 +77,175 @@ public class FeaturesKixmppServerModule implements KixmppServerModule {
 		return null;
 	}
 	
+	/**
+	 * Gets the encoded features block for the given features.
+	 * 
+	 * @param featureElements
+	 * @return
+	 */
+	private ByteBuf getEncodedFeatures(List<Element> featureElements) {
+		ByteBuf encodedFeatures = encodedFeaturesCache.get(new FeaturesKey(featureElements));
+		
+		if (encodedFeatures == null) {
+			Element features = new Element("features", "stream", "http://etherx.jabber.org/streams");
+			
+			for (Element featureElement : featureElements) {
+				features.addContent(featureElement.clone());
+			}
+			
+			encodedFeatures = KixmppEncodedFrames.encode(features);
+			
+			if (encodedFeaturesCache.size() < MAX_CACHED_FEATURES) {
+				// keyed by the clones, so the cache does not change with the lists of the modules
+				ByteBuf existingFeatures = encodedFeaturesCache.putIfAbsent(new FeaturesKey(new ArrayList<>(features.getChildren())), encodedFeatures);
+				
+				if (existingFeatures != null) {
+					encodedFeatures = existingFeatures;
+				}
+			}
+		}
+		
+		return encodedFeatures;
+	}
+	
+	/**
+	 * Compares features by everything that ends up in their encoded form.
+	 */
+	private static class FeaturesKey {
+		private final List<Element> features;
+		private final int hashCode;
+		
+		/**
+		 * @param features
+		 */
+		public FeaturesKey(List<Element> features) {
+			this.features = features;
+			
+			int hashCode = 1;
+			
+			for (Element feature : features) {
+				hashCode = 31 * hashCode + hashCode(feature);
+			}
+			
+			this.hashCode = hashCode;
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof FeaturesKey)) {
+				return false;
+			}
+			
+			FeaturesKey other = (FeaturesKey)obj;
+			
+			if (hashCode != other.hashCode || features.size() != other.features.size()) {
+				return false;
+			}
+			
+			for (int i = 0; i < features.size(); i++) {
+				if (!equals(features.get(i), other.features.get(i))) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * @param element
+		 * @return the hash of the name, attributes and content of the element
+		 */
+		private static int hashCode(Element element) {
+			int hashCode = element.getQualifiedName().hashCode() * 31 + element.getNamespaceURI().hashCode();
+			
+			for (Attribute attribute : element.getAttributes()) {
+				hashCode = 31 * hashCode + attribute.getQualifiedName().hashCode();
+				hashCode = 31 * hashCode + attribute.getValue().hashCode();
+			}
+			
+			for (Content content : element.getContent()) {
+				if (content instanceof Element) {
+					hashCode = 31 * hashCode + hashCode((Element)content);
+				} else {
+					hashCode = 31 * hashCode + content.getValue().hashCode();
+				}
+			}
+			
+			return hashCode;
+		}
+		
+		/**
+		 * @param element
+		 * @param other
+		 * @return <b>true</b> if both elements are written the same way
+		 */
+		private static boolean equals(Element element, Element other) {
+			if (!element.getQualifiedName().equals(other.getQualifiedName())
+					|| !element.getNamespaceURI().equals(other.getNamespaceURI())
+					|| !element.getAdditionalNamespaces().equals(other.getAdditionalNamespaces())) {
+				return false;
+			}
+			
+			List<Attribute> attributes = element.getAttributes();
+			List<Attribute> otherAttributes = other.getAttributes();
+			
+			if (attributes.size() != otherAttributes.size()) {
+				return false;
+			}
+			
+			for (int i = 0; i < attributes.size(); i++) {
+				Attribute attribute = attributes.get(i);
+				Attribute otherAttribute = otherAttributes.get(i);
+				
+				if (!attribute.getQualifiedName().equals(otherAttribute.getQualifiedName())
+						|| !attribute.getNamespaceURI().equals(otherAttribute.getNamespaceURI())
+						|| !attribute.getValue().equals(otherAttribute.getValue())) {
+					return false;
+				}
+			}
+			
+			List<Content> contents = element.getContent();
+			List<Content> otherContents = other.getContent();
+			
+			if (contents.size() != otherContents.size()) {
+				return false;
+			}
+			
+			for (int i = 0; i < contents.size(); i++) {
+				Content content = contents.get(i);
+				Content otherContent = otherContents.get(i);
+				
+				if (content.getCType() != otherContent.getCType()) {
+					return false;
+				}
+				
+				if (content instanceof Element) {
+					if (!equals((Element)content, (Element)otherContent)) {
+						return false;
+					}
+				} else if (!content.getValue().equals(otherContent.getValue())) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+	}
+	
 	private KixmppStreamHandler SERVER_FEATURE_HANDLER = new KixmppStreamHandler() {
 		/**
 		 * @see com.kixeye.kixmpp.server.KixmppStreamHandler#handleStreamStart(io.netty.channel.Channel, com.kixeye.kixmpp.KixmppStreamStart)
@@ -76,19 +255,17 @@ public class FeaturesKixmppServerModule implements KixmppServerModule {
 			
 			channel.writeAndFlush(new KixmppStreamStart(new KixmppJid(server.getDomain()), null, isAuthed == null, "" + channel.hashCode()));
 			
-			Element features = new Element("features", "stream", "http://etherx.jabber.org/streams");
+			List<Element> featureElements = new ArrayList<>();
 			
 			for (KixmppServerModule module : server.modules()) {
 				List<Element> featuresList = module.getFeatures(channel);
 				
 				if (featuresList != null) {
-					for (Element featureElement : featuresList) {
-						features.addContent(featureElement);
-					}
+					featureElements.addAll(featuresList);
 				}
 			}
 			
-			channel.writeAndFlush(features);
+			channel.writeAndFlush(getEncodedFeatures(featureElements).duplicate());
 		}
 
 		/**
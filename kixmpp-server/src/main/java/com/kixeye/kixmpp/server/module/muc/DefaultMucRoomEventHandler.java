@@ -21,6 +21,10 @@ package com.kixeye.kixmpp.server.module.muc;
  */
 
 import com.kixeye.kixmpp.KixmppJid;
+import com.kixeye.kixmpp.jdom.ByteBufElementTemplate;
+
+import io.netty.channel.Channel;
+
 import org.jdom2.Element;
 
 import java.util.UUID;
@@ -28,14 +32,18 @@ import java.util.UUID;
 public class DefaultMucRoomEventHandler implements MucRoomEventHandler {
 
 	private Element createMessage(String id, KixmppJid from, KixmppJid to, String type, String bodyText) {
-		Element message = new Element("message");
+		return createMessage(id, from, to.getFullJid(), type, bodyText);
+	}
+
+	private Element createMessage(String id, KixmppJid from, String to, String type, String bodyText) {
+		Element message = new Element("message", "jabber:client");
 
-		message.setAttribute("to", to.getFullJid());
+		message.setAttribute("to", to);
 		message.setAttribute("from", from.getFullJid());
 		message.setAttribute("type", type);
 		message.setAttribute("id", id);
 
-		Element body = new Element("body");
+		Element body = new Element("body", "jabber:client");
 		body.addContent(bodyText);
 
 		message.addContent(body);
@@ -45,15 +53,42 @@ public class DefaultMucRoomEventHandler implements MucRoomEventHandler {
 
 	@Override
 	public void handleMessage(MucRoom room, KixmppJid fromJid, KixmppJid fromRoomJid, String... messages) {
+		if (room.getService().getServer().hasInterceptors()) {
+			// interceptors need to see every stanza
+			for (MucRoom.User user: room.getUsers()) {
+				for (MucRoom.Client client: user.getConnections()) {
+					for (String message: messages) {
+						Element stanza = createMessage(UUID.randomUUID().toString(),
+								fromRoomJid,
+								client.getAddress(),
+								"groupchat",
+								message);
+						client.getChannel().writeAndFlush(stanza);
+					}
+				}
+			}
+			
+			return;
+		}
+		
+		// encode each message once and only splice in the recipient
+		ByteBufElementTemplate[] stanzas = new ByteBufElementTemplate[messages.length];
+		
+		for (int i = 0; i < messages.length; i++) {
+			stanzas[i] = new ByteBufElementTemplate(createMessage(UUID.randomUUID().toString(),
+					fromRoomJid,
+					"",
+					"groupchat",
+					messages[i]), "to");
+		}
+		
 		for (MucRoom.User user: room.getUsers()) {
 			for (MucRoom.Client client: user.getConnections()) {
-				for (String message: messages) {
-					Element stanza = createMessage(UUID.randomUUID().toString(),
-							fromRoomJid,
-							client.getAddress(),
-							"groupchat",
-							message);
-					client.getChannel().writeAndFlush(stanza);
+				Channel channel = client.getChannel();
+				String to = client.getAddress().getFullJid();
+				
+				for (ByteBufElementTemplate stanza: stanzas) {
+					channel.writeAndFlush(stanza.newFrame(channel.alloc(), to));
 				}
 			}
 		}
@@ -36,12 +36,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kixeye.kixmpp.KixmppJid;
+import com.kixeye.kixmpp.handler.KixmppCompactStanzaHandler;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.cluster.message.RoomBroadcastTask;
 import com.kixeye.kixmpp.server.cluster.message.RoomTask;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
+import com.kixeye.kixmpp.stanza.CompactStanza;
 
 /**
  * Handles presence.
@@ -51,6 +54,10 @@ import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
 public class MucKixmppServerModule implements KixmppServerModule {
 	private static final Logger logger = LoggerFactory.getLogger(MucKixmppServerModule.class);
 	
+	private static final KixmppStanzaRoute JOIN_ROOM_ROUTE = new KixmppStanzaRoute("presence").withNamespace("http://jabber.org/protocol/muc");
+	private static final KixmppStanzaRoute LEAVE_ROOM_ROUTE = new KixmppStanzaRoute("presence").withType("unavailable");
+	private static final KixmppStanzaRoute ROOM_MESSAGE_ROUTE = new KixmppStanzaRoute("message").withType("groupchat");
+	
 	private Set<MucRoomMessageListener> messageListeners = Collections.newSetFromMap(new ConcurrentHashMap<MucRoomMessageListener, Boolean>());
 
 	private KixmppServer server;
@@ -74,18 +81,18 @@ public class MucKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("presence", JOIN_ROOM_HANDLER);
-		this.server.getEventEngine().registerGlobalStanzaHandler("presence", LEAVE_ROOM_HANDLER);
-		this.server.getEventEngine().registerGlobalStanzaHandler("message", ROOM_MESSAGE_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(JOIN_ROOM_ROUTE, JOIN_ROOM_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(LEAVE_ROOM_ROUTE, LEAVE_ROOM_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(ROOM_MESSAGE_ROUTE, ROOM_MESSAGE_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("presence", JOIN_ROOM_HANDLER);
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("presence", LEAVE_ROOM_HANDLER);
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("message", ROOM_MESSAGE_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(JOIN_ROOM_ROUTE, JOIN_ROOM_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(LEAVE_ROOM_ROUTE, LEAVE_ROOM_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(ROOM_MESSAGE_ROUTE, ROOM_MESSAGE_HANDLER);
 	}
 	
 	/**
@@ -203,7 +210,7 @@ public class MucKixmppServerModule implements KixmppServerModule {
         server.getEventEngine().publishTask(room.getRoomJid(),roomTask);
 	}
 	
-	private KixmppStanzaHandler JOIN_ROOM_HANDLER = new KixmppStanzaHandler() {
+	private KixmppStanzaHandler JOIN_ROOM_HANDLER = new KixmppCompactStanzaHandler() {
 		/**
 		 * @see com.kixeye.kixmpp.server.KixmppStanzaHandler#handle(io.netty.channel.Channel, org.jdom2.Element)
 		 */
@@ -211,30 +218,56 @@ public class MucKixmppServerModule implements KixmppServerModule {
 			Element x = stanza.getChild("x", Namespace.getNamespace("http://jabber.org/protocol/muc"));
 			
 			if (x != null) {
-				KixmppJid fullRoomJid = KixmppJid.fromRawJid(stanza.getAttributeValue("to"));
-				
-				MucService service = services.get(fullRoomJid.getDomain().toLowerCase().replace("." + server.getDomain(), ""));
+				joinRoom(channel, stanza.getAttributeValue("to"), x);
+			}
+		}
 
-				if (service != null) {
-					MucRoom room = service.getRoom(fullRoomJid.getNode());
-					
-					if (room != null) {
-                        server.getEventEngine().publishTask(room.getRoomJid(), 
-                        		new JoinRoomTask(channel, room, fullRoomJid.getResource(), x));
-					} // TODO handle else
-				} // TODO handle else
+		/**
+		 * @see com.kixeye.kixmpp.handler.KixmppCompactStanzaHandler#handle(io.netty.channel.Channel, com.kixeye.kixmpp.stanza.CompactStanza)
+		 */
+		public void handle(Channel channel, CompactStanza stanza) {
+			Element x = stanza.getChild("x", "http://jabber.org/protocol/muc");
+			
+			if (x != null) {
+				joinRoom(channel, stanza.getAttributeValue("to"), x);
 			}
 		}
+		
+		private void joinRoom(Channel channel, String to, Element x) {
+			KixmppJid fullRoomJid = KixmppJid.fromRawJid(to);
+			
+			MucService service = services.get(fullRoomJid.getDomain().toLowerCase().replace("." + server.getDomain(), ""));
+
+			if (service != null) {
+				MucRoom room = service.getRoom(fullRoomJid.getNode());
+				
+				if (room != null) {
+                    server.getEventEngine().publishTask(room.getRoomJid(), 
+                    		new JoinRoomTask(channel, room, fullRoomJid.getResource(), x));
+				} // TODO handle else
+			} // TODO handle else
+		}
 	};
 
-	private KixmppStanzaHandler LEAVE_ROOM_HANDLER = new KixmppStanzaHandler() {
+	private KixmppStanzaHandler LEAVE_ROOM_HANDLER = new KixmppCompactStanzaHandler() {
 		/**
 		 * @see com.kixeye.kixmpp.server.KixmppStanzaHandler#handle(io.netty.channel.Channel, org.jdom2.Element)
 		 */
 		public void handle(Channel channel, Element stanza) {
-			if (stanza.getAttribute("type") != null && stanza.getAttribute("to") != null) {
-				if (stanza.getAttributeValue("type").equals("unavailable")) {
-					KixmppJid fullRoomJid = KixmppJid.fromRawJid(stanza.getAttributeValue("to"));
+			leaveRoom(channel, stanza.getAttributeValue("type"), stanza.getAttributeValue("to"));
+		}
+
+		/**
+		 * @see com.kixeye.kixmpp.handler.KixmppCompactStanzaHandler#handle(io.netty.channel.Channel, com.kixeye.kixmpp.stanza.CompactStanza)
+		 */
+		public void handle(Channel channel, CompactStanza stanza) {
+			leaveRoom(channel, stanza.getAttributeValue("type"), stanza.getAttributeValue("to"));
+		}
+		
+		private void leaveRoom(Channel channel, String type, String to) {
+			if (type != null && to != null) {
+				if (type.equals("unavailable")) {
+					KixmppJid fullRoomJid = KixmppJid.fromRawJid(to);
 					MucService service = services.get(fullRoomJid.getDomain().toLowerCase().replace("." + server.getDomain(), ""));
 					if (service != null) {
 						MucRoom room = service.getRoom(fullRoomJid.getNode());
@@ -248,27 +281,38 @@ public class MucKixmppServerModule implements KixmppServerModule {
 		}
 	};
 
-	private KixmppStanzaHandler ROOM_MESSAGE_HANDLER = new KixmppStanzaHandler() {
+	private KixmppStanzaHandler ROOM_MESSAGE_HANDLER = new KixmppCompactStanzaHandler() {
 		/**
 		 * @see com.kixeye.kixmpp.server.KixmppStanzaHandler#handle(io.netty.channel.Channel, org.jdom2.Element)
 		 */
 		public void handle(Channel channel, Element stanza) {
 			if ("groupchat".equals(stanza.getAttributeValue("type"))) {
-				KixmppJid fullRoomJid = KixmppJid.fromRawJid(stanza.getAttributeValue("to"));
+				receiveMessage(channel, stanza.getAttributeValue("to"), stanza.getChildText("body", stanza.getNamespace()));
+			}
+		}
 
-				MucService service = services.get(fullRoomJid.getDomain().toLowerCase().replace("." + server.getDomain(), ""));
-				
-				if (service != null) {
-					MucRoom room = service.getRoom(fullRoomJid.getNode());
+		/**
+		 * @see com.kixeye.kixmpp.handler.KixmppCompactStanzaHandler#handle(io.netty.channel.Channel, com.kixeye.kixmpp.stanza.CompactStanza)
+		 */
+		public void handle(Channel channel, CompactStanza stanza) {
+			if ("groupchat".equals(stanza.getAttributeValue("type"))) {
+				receiveMessage(channel, stanza.getAttributeValue("to"), stanza.getChildText("body"));
+			}
+		}
+		
+		private void receiveMessage(Channel channel, String to, String body) {
+			KixmppJid fullRoomJid = KixmppJid.fromRawJid(to);
+
+			MucService service = services.get(fullRoomJid.getDomain().toLowerCase().replace("." + server.getDomain(), ""));
+			
+			if (service != null) {
+				MucRoom room = service.getRoom(fullRoomJid.getNode());
 
-					if (room != null) {
-                        Element body = stanza.getChild("body", stanza.getNamespace());
-                        
-                        server.getEventEngine().publishTask(room.getRoomJid(), 
-                        		new ReceiveMessageTask(channel.attr(BindKixmppServerModule.JID).get(), room, body.getText()));
-					} // TODO handle else
+				if (room != null) {
+                    server.getEventEngine().publishTask(room.getRoomJid(), 
+                    		new ReceiveMessageTask(channel.attr(BindKixmppServerModule.JID).get(), room, body));
 				} // TODO handle else
-			}
+			} // TODO handle else
 		}
 	};
 	
@@ -37,6 +37,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.kixeye.kixmpp.KixmppJid;
 import com.kixeye.kixmpp.date.XmppDateUtils;
+import com.kixeye.kixmpp.jdom.ByteBufElementTemplate;
 import com.kixeye.kixmpp.server.cluster.message.RoomBroadcastTask;
 import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
 
@@ -80,6 +81,15 @@ public class MucRoom {
         return roomJid;
     }
 
+    /**
+     * Getter from service
+     *
+     * @return
+     */
+    public MucService getService() {
+        return service;
+    }
+
     /**
      * Adds a user.
      * 
@@ -268,11 +278,22 @@ public class MucRoom {
 
 	public void receivePresence(KixmppJid fromRoomJid, MucRole role, String type) {
 		String nickname = fromRoomJid.getResource();
+		
+		// encode the presence once unless interceptors need to see every stanza
+		ByteBufElementTemplate presence = null;
+		if (!service.getServer().hasInterceptors()) {
+			presence = new ByteBufElementTemplate(createPresence(fromRoomJid, "", role, type), "to");
+		}
+		
 		for (User user : usersByNickname.values()) {
 			if (user.getNickname().equals(nickname)) {
 				continue;
 			}
-			user.receivePresence(fromRoomJid, role, type);
+			if (presence != null) {
+				user.receivePresence(presence);
+			} else {
+				user.receivePresence(fromRoomJid, role, type);
+			}
 		}
 	}
 
@@ -373,11 +394,15 @@ public class MucRoom {
 
 
 	private Element createPresence(KixmppJid from, KixmppJid to, MucRole role, String type) {
-		Element presence = new Element("presence");
+		return createPresence(from, to.toString(), role, type);
+	}
+
+	private Element createPresence(KixmppJid from, String to, MucRole role, String type) {
+		Element presence = new Element("presence", "jabber:client");
 
 		presence.setAttribute("id", UUID.randomUUID().toString());
 		presence.setAttribute("from", from.toString());
-		presence.setAttribute("to", to.toString());
+		presence.setAttribute("to", to);
 
 		Element x = new Element("x", Namespace.getNamespace("http://jabber.org/protocol/muc#user"));
 
@@ -591,6 +616,13 @@ public class MucRoom {
 		    }
 	    }
 
+	    public void receivePresence(ByteBufElementTemplate presence) {
+		    for (Client client : clientsByAddress.values()) {
+			    Channel channel = client.getChannel();
+			    channel.writeAndFlush(presence.newFrame(channel.alloc(), client.getAddress().toString()));
+		    }
+	    }
+
         public Collection<Client> getConnections() {
             return clientsByAddress.values();
         }
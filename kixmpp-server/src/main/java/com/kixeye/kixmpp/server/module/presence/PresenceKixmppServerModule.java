@@ -28,10 +28,13 @@ import java.util.List;
 import org.jdom2.Element;
 
 import com.kixeye.kixmpp.KixmppJid;
+import com.kixeye.kixmpp.handler.KixmppCompactStanzaPredicate;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
+import com.kixeye.kixmpp.stanza.CompactStanza;
 
 /**
  * Handles presence features.
@@ -41,6 +44,19 @@ import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
 public class PresenceKixmppServerModule implements KixmppServerModule {
 	public static AttributeKey<String> PRESENCE = AttributeKey.valueOf("PRESENCE");
 	
+	/**
+	 * Presence stanzas without a recipient, which are for the server.
+	 */
+	private static final KixmppStanzaRoute PRESENCE_ROUTE = new KixmppStanzaRoute("presence").withPredicate(new KixmppCompactStanzaPredicate() {
+		public boolean matches(Channel channel, Element stanza) {
+			return stanza.getAttributeValue("to") == null;
+		}
+		
+		public boolean matches(Channel channel, CompactStanza stanza) {
+			return stanza.getAttributeValue("to") == null;
+		}
+	});
+	
 	private KixmppServer server;
 	
 	/**
@@ -49,14 +65,14 @@ public class PresenceKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("presence", PRESENCE_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(PRESENCE_ROUTE, PRESENCE_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("presence", PRESENCE_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(PRESENCE_ROUTE, PRESENCE_HANDLER);
 	}
 
 	/**
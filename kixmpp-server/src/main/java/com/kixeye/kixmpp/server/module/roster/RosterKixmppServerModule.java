@@ -35,6 +35,7 @@ import org.jdom2.Namespace;
 
 import com.kixeye.kixmpp.KixmppJid;
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
@@ -45,6 +46,8 @@ import com.kixeye.kixmpp.server.module.bind.BindKixmppServerModule;
  * @author ebahtijaragic
  */
 public class RosterKixmppServerModule implements KixmppServerModule {
+	private static final KixmppStanzaRoute ROSTER_ROUTE = new KixmppStanzaRoute("iq").withNamespace("jabber:iq:roster");
+	
 	public static final RosterProvider NOOP_ROSTER_PROVIDER = new RosterProvider() {
 
 		private final List<RosterItem> emptyList = Collections.unmodifiableList(new ArrayList<RosterItem>(0));
@@ -64,14 +67,14 @@ public class RosterKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("iq", ROSTER_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(ROSTER_ROUTE, ROSTER_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("iq", ROSTER_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(ROSTER_ROUTE, ROSTER_HANDLER);
 	}
 
 	/**
@@ -24,13 +24,14 @@ import com.kixeye.kixmpp.KixmppStreamStart;
 import io.netty.channel.Channel;
 import io.netty.util.AttributeKey;
 
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 import org.jdom2.Element;
 import org.jdom2.Namespace;
 
 import com.kixeye.kixmpp.handler.KixmppStanzaHandler;
+import com.kixeye.kixmpp.handler.KixmppStanzaRoute;
 import com.kixeye.kixmpp.server.KixmppServer;
 import com.kixeye.kixmpp.server.module.KixmppServerModule;
 
@@ -40,6 +41,10 @@ import com.kixeye.kixmpp.server.module.KixmppServerModule;
  * @author ebahtijaragic
  */
 public class SessionKixmppServerModule implements KixmppServerModule {
+	private static final KixmppStanzaRoute SESSION_ROUTE = new KixmppStanzaRoute("iq").withNamespace("urn:ietf:params:xml:ns:xmpp-session");
+	
+	private static final List<Element> FEATURES = Collections.singletonList(new Element("session", null, "urn:ietf:params:xml:ns:xmpp-session"));
+	
 	public static AttributeKey<Boolean> IS_SESSION_ESTABLISHED = AttributeKey.valueOf("IS_SESSION_ESTABLISHED");
 	
 	private KixmppServer server;
@@ -50,31 +55,27 @@ public class SessionKixmppServerModule implements KixmppServerModule {
 	public void install(KixmppServer server) {
 		this.server = server;
 		
-		this.server.getEventEngine().registerGlobalStanzaHandler("iq", SESSION_HANDLER);
+		this.server.getEventEngine().registerGlobalStanzaHandler(SESSION_ROUTE, SESSION_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#uninstall(com.kixeye.kixmpp.server.KixmppServer)
 	 */
 	public void uninstall(KixmppServer server) {
-		this.server.getEventEngine().unregisterGlobalStanzaHandler("iq", SESSION_HANDLER);
+		this.server.getEventEngine().unregisterGlobalStanzaHandler(SESSION_ROUTE, SESSION_HANDLER);
 	}
 
 	/**
 	 * @see com.kixeye.kixmpp.server.module.KixmppModule#getFeatures(io.netty.channel.Channel)
 	 */
 	public List<Element> getFeatures(Channel channel) {
-		List<Element> features = new LinkedList<>();
-
 		Boolean isSessionEnabled = channel.attr(IS_SESSION_ESTABLISHED).get();
 		
 		if (isSessionEnabled == null || isSessionEnabled == false) {
-			Element bind = new Element("session", null, "urn:ietf:params:xml:ns:xmpp-session");
-			
-			features.add(bind);
+			return FEATURES;
 		}
 		
-		return features;
+		return Collections.emptyList();
 	}
 	
 	private KixmppStanzaHandler SESSION_HANDLER = new KixmppStanzaHandler() {